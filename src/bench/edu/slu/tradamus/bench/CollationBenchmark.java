@@ -0,0 +1,222 @@
+/*
+ * Copyright 2015 Saint Louis University. Licensed under the
+ *	Educational Community License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package edu.slu.tradamus.bench;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import eu.interedition.collatex.Token;
+import edu.slu.tradamus.collation.*;
+import edu.slu.tradamus.text.Transcription;
+
+
+/**
+ * Repeatable collation benchmark which doesn't need MySQL or real editions.  A synthetic edition is fed
+ * through <code>CollationWitness</code>, <code>TokenDictionary</code> and <code>CollateXEngine</code>
+ * with each of the comparators, and the throughput and allocation rate are reported.
+ * <p>
+ * Arguments are <code>name=value</code> pairs, e.g.
+ * <pre>
+ *   ant bench -Dbench.args="witnesses=15 length=5000 comparators=plain,orth"
+ * </pre>
+ * Edition parameters are the fields of <code>SyntheticEdition.Params</code>; the others are
+ * <code>comparators</code> (plain, orth, morph), <code>warmup</code> and <code>iterations</code>,
+ * <code>ignoreLineBreaks</code>, <code>normalize</code>, <code>order</code> and <code>segmented</code>,
+ * with the same meanings as the collation request parameters.  Tradamus' own logging is turned down to
+ * warnings, since the per-token messages would otherwise dominate the timings; pass <code>log=info</code>
+ * to see them.
+ *
+ * @author tarkvara
+ */
+public class CollationBenchmark {
+   private final SyntheticEdition edition;
+   private final Map<String, String> args;
+   private final CollationWitness.IgnoreLineBreaks ignoreLineBreaks;
+   private final TokenNormalizer normalizer;
+   private final CollateXEngine engine;
+   private final OrthographicNormalizer orthNormalizer;
+
+   public CollationBenchmark(Map<String, String> a) {
+      args = a;
+      SyntheticEdition.Params p = new SyntheticEdition.Params();
+      p.witnesses = getInt("witnesses", p.witnesses);
+      p.length = getInt("length", p.length);
+      p.variantRate = getDouble("variants", p.variantRate);
+      p.transpositionRate = getDouble("transpositions", p.transpositionRate);
+      p.lineLength = getInt("lineLength", p.lineLength);
+      p.hyphenRate = getDouble("hyphens", p.hyphenRate);
+      p.annotationRate = getDouble("annotations", p.annotationRate);
+      p.seed = getInt("seed", (int)p.seed);
+      edition = new SyntheticEdition(p);
+      System.out.println(p);
+
+      ignoreLineBreaks = CollationWitness.IgnoreLineBreaks.fromString(getString("ignoreLineBreaks", "hyphens"));
+      normalizer = TokenNormalizer.fromParameters(getString("normalize", "case,punctuation"), false, false);
+      engine = new CollateXEngine(false, "true".equals(getString("segmented", "false")), CollateXEngine.WitnessOrder.fromString(getString("order", "given")));
+
+      // In production the compiled dictionaries are shared by all collations, so compiling isn't timed.
+      orthNormalizer = OrthographicNormalizer.compile(edition.getMisspellings());
+   }
+
+   /**
+    * Run the benchmark for a single comparator, printing a line of results.
+    *
+    * @param comparison comparator to be benchmarked
+    */
+   public void run(CollationWitness.Comparison comparison) throws IOException {
+      int warmup = getInt("warmup", 3);
+      int iterations = getInt("iterations", 5);
+      for (int i = 0; i < warmup; i++) {
+         runOnce(comparison);
+      }
+
+      Result[] results = new Result[iterations];
+      for (int i = 0; i < iterations; i++) {
+         results[i] = runOnce(comparison);
+      }
+
+      double[] totals = new double[iterations];
+      double tokeniseMs = 0.0, collateMs = 0.0, allocMB = 0.0;
+      for (int i = 0; i < iterations; i++) {
+         totals[i] = (results[i].tokeniseNanos + results[i].collateNanos) / 1e6;
+         tokeniseMs += results[i].tokeniseNanos / 1e6 / iterations;
+         collateMs += results[i].collateNanos / 1e6 / iterations;
+         allocMB += results[i].allocatedBytes / 1048576.0 / iterations;
+      }
+      double mean = tokeniseMs + collateMs;
+      double var = 0.0;
+      for (double t: totals) {
+         var += (t - mean) * (t - mean) / iterations;
+      }
+      Result r = results[iterations - 1];
+      System.out.println(String.format("%-6s %9.1f ms/op +/- %6.1f  (tokenise %7.1f, collate %9.1f)  %7.3f ops/s  %9.0f tokens/s  %s  %d tokens, %d motes",
+              comparison, mean, Math.sqrt(var), tokeniseMs, collateMs, 1000.0 / mean, r.tokens * 1000.0 / mean,
+              allocMB >= 0.0 ? String.format("%8.1f MB/op %7.1f MB/s", allocMB, allocMB * 1000.0 / mean) : "allocation n/a",
+              r.tokens, r.motes));
+   }
+
+   /**
+    * Tokenise and collate the edition once.  Witnesses are rebuilt each time, since tokenisation is part
+    * of the cost of every collation.
+    */
+   private Result runOnce(CollationWitness.Comparison comparison) throws IOException {
+      Result result = new Result();
+      long alloc0 = getAllocatedBytes();
+      long t0 = System.nanoTime();
+
+      List<CollationWitness> wits = new ArrayList<>();
+      for (Transcription t: edition.getTranscriptions()) {
+         CollationWitness w = new CollationWitness(t, ignoreLineBreaks, normalizer, true);
+         w.tokenise(edition.getAnnotations(t), 0, 0, t.getPageCount() - 1, -1);
+         wits.add(w);
+      }
+      long t1 = System.nanoTime();
+
+      TokenDictionary dict = new TokenDictionary(wits);
+      for (CollationWitness w: wits) {
+         result.tokens += w.getFormIDs().length;
+      }
+      Comparator<Token> comp;
+      switch (comparison) {
+         case PLAIN:
+         default:
+            comp = new PlainComparator();
+            break;
+         case ORTH:
+            comp = new OrthographicComparator(orthNormalizer);
+            ((OrthographicComparator)comp).buildEquivalences(dict);
+            break;
+         case MORPH:
+            comp = new MorphologicalComparator(edition.getLemmatizer());
+            ((MorphologicalComparator)comp).loadMorphology(dict);
+            break;
+      }
+      final int[] motes = new int[1];
+      engine.collate(wits, comp, new MoteVisitor() {
+         @Override
+         public void visitMote(Mote m) {
+            motes[0]++;
+         }
+      });
+      long t2 = System.nanoTime();
+      long alloc1 = getAllocatedBytes();
+
+      result.tokeniseNanos = t1 - t0;
+      result.collateNanos = t2 - t1;
+      result.allocatedBytes = alloc0 >= 0 ? alloc1 - alloc0 : -1;
+      result.motes = motes[0];
+      return result;
+   }
+
+   /**
+    * Bytes allocated so far by the current thread, or -1 if the JVM can't tell us.  Allocations made by
+    * the segment pool's threads aren't included.
+    */
+   private static long getAllocatedBytes() {
+      ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+      if (bean instanceof com.sun.management.ThreadMXBean) {
+         com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean)bean;
+         if (sunBean.isThreadAllocatedMemorySupported() && sunBean.isThreadAllocatedMemoryEnabled()) {
+            return sunBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+         }
+      }
+      return -1;
+   }
+
+   private String getString(String name, String dflt) {
+      String result = args.get(name);
+      return result != null ? result : dflt;
+   }
+
+   private int getInt(String name, int dflt) {
+      String s = args.get(name);
+      return s != null ? Integer.parseInt(s) : dflt;
+   }
+
+   private double getDouble(String name, double dflt) {
+      String s = args.get(name);
+      return s != null ? Double.parseDouble(s) : dflt;
+   }
+
+   public static void main(String[] argv) throws IOException {
+      Map<String, String> args = new HashMap<>();
+      for (String a: argv) {
+         int eq = a.indexOf('=');
+         if (eq < 0) {
+            System.err.println("Arguments should be of the form name=value, not \"" + a + "\".");
+            System.exit(1);
+         }
+         args.put(a.substring(0, eq), a.substring(eq + 1));
+      }
+      Logger.getLogger("edu.slu.tradamus").setLevel(Level.parse(args.containsKey("log") ? args.get("log").toUpperCase() : "WARNING"));
+
+      CollationBenchmark bench = new CollationBenchmark(args);
+      String comparators = args.containsKey("comparators") ? args.get("comparators") : "plain,orth,morph";
+      for (String c: comparators.split(",")) {
+         bench.run(CollationWitness.Comparison.fromString(c.trim()));
+      }
+   }
+
+   private static class Result {
+      long tokeniseNanos;
+      long collateNanos;
+      long allocatedBytes;
+      int tokens;
+      int motes;
+   }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2015 Saint Louis University. Licensed under the
+ *	Educational Community License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package edu.slu.tradamus.bench;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import eu.interedition.collatex.VariantGraph;
+import edu.slu.tradamus.collation.*;
+import edu.slu.tradamus.text.Transcription;
+
+
+/**
+ * Regression benchmark for the vertex-to-mote phase of collation, which used to sort every vertex' tokens
+ * with a comparator costing O(n) per comparison.  Synthetic editions of increasing length are aligned
+ * (untimed), and the conversion of the resulting graph into motes is timed.  If the phase is linear, the
+ * time per token stays roughly constant; if it grows by more than <code>maxGrowth</code> between the
+ * shortest and longest witnesses, the benchmark exits with a non-zero status.
+ * <p>
+ * Arguments are <code>name=value</code> pairs: <code>lengths</code> (comma-separated witness lengths,
+ * in words), <code>witnesses</code>, <code>warmup</code>, <code>iterations</code> and
+ * <code>maxGrowth</code>, e.g.
+ * <pre>
+ *   ant bench -Dbench.class=MoteScalingBenchmark -Dbench.args="lengths=2000,8000,32000 witnesses=3"
+ * </pre>
+ *
+ * @author tarkvara
+ */
+public class MoteScalingBenchmark {
+   private final int numWitnesses;
+   private final int warmup;
+   private final int iterations;
+
+   public MoteScalingBenchmark(int numWits, int w, int iters) {
+      numWitnesses = numWits;
+      warmup = w;
+      iterations = iters;
+   }
+
+   /**
+    * Build and align an edition of the given length, then time the mote phase over its graph.
+    *
+    * @param length length of each witness, in words
+    * @return mean nanoseconds per token for the mote phase
+    */
+   public double run(int length) throws IOException {
+      SyntheticEdition.Params p = new SyntheticEdition.Params();
+      p.witnesses = numWitnesses;
+      p.length = length;
+      SyntheticEdition edition = new SyntheticEdition(p);
+
+      List<CollationWitness> wits = new ArrayList<>();
+      int tokens = 0;
+      for (Transcription t: edition.getTranscriptions()) {
+         CollationWitness w = new CollationWitness(t, CollationWitness.IgnoreLineBreaks.HYPHENS, TokenNormalizer.fromParameters("case,punctuation", false, false), true);
+         w.tokenise(edition.getAnnotations(t), 0, 0, t.getPageCount() - 1, -1);
+         wits.add(w);
+      }
+
+      // PlainComparator compares the encoded forms, so the witnesses must go through a dictionary first.
+      new TokenDictionary(wits);
+      for (CollationWitness w: wits) {
+         tokens += w.getFormIDs().length;
+      }
+      VariantGraph graph = new CollateXEngine().buildGraph(wits, new PlainComparator());
+
+      final int[] motes = new int[1];
+      MoteVisitor counter = new MoteVisitor() {
+         @Override
+         public void visitMote(Mote m) {
+            motes[0]++;
+         }
+      };
+      for (int i = 0; i < warmup; i++) {
+         CollateXEngine.visitMotes(graph, counter);
+      }
+      motes[0] = 0;
+      double[] times = new double[iterations];
+      double mean = 0.0;
+      for (int i = 0; i < iterations; i++) {
+         long t0 = System.nanoTime();
+         CollateXEngine.visitMotes(graph, counter);
+         times[i] = (System.nanoTime() - t0) / 1e6;
+         mean += times[i] / iterations;
+      }
+      double var = 0.0;
+      for (double t: times) {
+         var += (t - mean) * (t - mean) / iterations;
+      }
+      double nanosPerToken = mean * 1e6 / tokens;
+      System.out.println(String.format("length %7d  %9.2f ms/op +/- %6.2f  %8.1f ns/token  %d tokens, %d motes",
+              length, mean, Math.sqrt(var), nanosPerToken, tokens, motes[0] / iterations));
+      return nanosPerToken;
+   }
+
+   public static void main(String[] argv) throws IOException {
+      Map<String, String> args = new HashMap<>();
+      for (String a: argv) {
+         int eq = a.indexOf('=');
+         if (eq < 0) {
+            System.err.println("Arguments should be of the form name=value, not \"" + a + "\".");
+            System.exit(1);
+         }
+         args.put(a.substring(0, eq), a.substring(eq + 1));
+      }
+      Logger.getLogger("edu.slu.tradamus").setLevel(Level.WARNING);
+      String lengths = args.containsKey("lengths") ? args.get("lengths") : "1000,2000,4000,8000,16000,32000";
+      int numWits = args.containsKey("witnesses") ? Integer.parseInt(args.get("witnesses")) : 3;
+      int warmup = args.containsKey("warmup") ? Integer.parseInt(args.get("warmup")) : 5;
+      int iterations = args.containsKey("iterations") ? Integer.parseInt(args.get("iterations")) : 10;
+      double maxGrowth = args.containsKey("maxGrowth") ? Double.parseDouble(args.get("maxGrowth")) : 2.0;
+
+      MoteScalingBenchmark bench = new MoteScalingBenchmark(numWits, warmup, iterations);
+      double first = 0.0, last = 0.0;
+      for (String len: lengths.split(",")) {
+         last = bench.run(Integer.parseInt(len.trim()));
+         if (first == 0.0) {
+            first = last;
+         }
+      }
+      double growth = last / first;
+      System.out.println(String.format("Cost per token grew by %.2fx from shortest to longest (limit %.2fx).", growth, maxGrowth));
+      if (growth > maxGrowth) {
+         System.err.println("Mote phase is not scaling linearly.");
+         System.exit(1);
+      }
+   }
+}
@@ -0,0 +1,220 @@
+/*
+ * Copyright 2015 Saint Louis University. Licensed under the
+ *	Educational Community License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package edu.slu.tradamus.bench;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.*;
+import edu.slu.tradamus.annotation.Annotation;
+import edu.slu.tradamus.db.Entity;
+import edu.slu.tradamus.db.RowMapper;
+import static edu.slu.tradamus.util.LangUtils.camelCaseToUnderscores;
+
+
+/**
+ * Compares the original reflective <code>Entity.loadFields</code> against <code>RowMapper</code> by
+ * loading the setter-backed fields of Annotations from an in-memory result set shaped like
+ * <code>SELECT * FROM annotations</code>.  No database is needed; the result set is a proxy over
+ * generated rows, so both paths pay the same (small) cost for reading columns.
+ * <p>
+ * Arguments are <code>name=value</code> pairs: <code>rows</code>, <code>warmup</code> and
+ * <code>iterations</code>.
+ *
+ * @author tarkvara
+ */
+public class RowMapperBenchmark {
+   private final String[] columns;
+   private final Object[][] rows;
+
+   public RowMapperBenchmark(int numRows) {
+      Map<String, Method> setters = new Annotation().getSetters();
+      setters.remove("id");
+      List<String> cols = new ArrayList<>();
+      List<Class<?>> types = new ArrayList<>();
+      for (Map.Entry<String, Method> e: setters.entrySet()) {
+         cols.add(camelCaseToUnderscores(e.getKey()));
+         types.add(e.getValue().getParameterTypes()[0]);
+      }
+      columns = cols.toArray(new String[cols.size()]);
+
+      Random rand = new Random(1);
+      rows = new Object[numRows][];
+      for (int r = 0; r < numRows; r++) {
+         Object[] row = new Object[columns.length];
+         for (int c = 0; c < columns.length; c++) {
+            Class<?> t = types.get(c);
+            if (columns[c].equals("attributes")) {
+               row[c] = rand.nextInt(10) == 0 ? "{\"rend\":\"red\"}" : null;
+            } else if (t == Integer.TYPE || t == Integer.class) {
+               row[c] = rand.nextInt(100000);
+            } else if (t.isEnum()) {
+               Object[] vals = t.getEnumConstants();
+               row[c] = ((Enum<?>)vals[rand.nextInt(vals.length)]).name();
+            } else if (t.isPrimitive() || t == List.class || t == Map.class) {
+               row[c] = null;
+            } else {
+               row[c] = "tok" + rand.nextInt(1000);
+            }
+         }
+         rows[r] = row;
+      }
+   }
+
+   /**
+    * Load every row with the given loader, returning elapsed nanoseconds.
+    */
+   private long runOnce(boolean mapped) throws SQLException, ReflectiveOperationException {
+      ResultSet rs = newResultSet();
+      long t0 = System.nanoTime();
+      List<Annotation> anns = new ArrayList<>(rows.length);
+      int[] columns = null;
+      while (rs.next()) {
+         Annotation ann = new Annotation(0);
+         if (mapped) {
+            RowMapper mapper = RowMapper.getMapper(ann);
+            if (columns == null) {
+               columns = mapper.bind(rs);
+            }
+            mapper.load(ann, rs, columns);
+         } else {
+            loadReflectively(ann, rs);
+         }
+         anns.add(ann);
+      }
+      return System.nanoTime() - t0;
+   }
+
+   public void run(String name, boolean mapped, int warmup, int iterations) throws SQLException, ReflectiveOperationException {
+      for (int i = 0; i < warmup; i++) {
+         runOnce(mapped);
+      }
+      double[] times = new double[iterations];
+      double mean = 0.0;
+      for (int i = 0; i < iterations; i++) {
+         times[i] = runOnce(mapped) / 1e6;
+         mean += times[i] / iterations;
+      }
+      double var = 0.0;
+      for (double t: times) {
+         var += (t - mean) * (t - mean) / iterations;
+      }
+      System.out.println(String.format("%-10s %9.1f ms/op +/- %6.1f  %10.0f rows/s", name, mean, Math.sqrt(var), rows.length * 1000.0 / mean));
+   }
+
+   /**
+    * The original implementation of <code>Entity.loadFields</code>, kept here as the baseline.
+    */
+   private static void loadReflectively(Entity ent, ResultSet rs) throws SQLException, ReflectiveOperationException {
+      Map<String, Method> setters = ent.getSetters();
+      setters.remove("id");
+      for (String key: setters.keySet()) {
+         Method meth = setters.get(key);
+         String col = camelCaseToUnderscores(key);
+         Class<?> argClazz = meth.getParameterTypes()[0];
+         if (argClazz.isEnum()) {
+            Method valueMeth = argClazz.getMethod("valueOf", String.class);
+            meth.invoke(ent, valueMeth.invoke(null, rs.getString(col)));
+         } else if (argClazz == Integer.TYPE) {
+            meth.invoke(ent, rs.getInt(col));
+         } else if (argClazz == String.class) {
+            meth.invoke(ent, rs.getString(col));
+         } else if (argClazz == Integer.class) {
+            meth.invoke(ent, (Integer)rs.getObject(col));
+         } else if (argClazz.isPrimitive()) {
+            meth.invoke(ent, rs.getObject(col));
+         } else if (argClazz == List.class || argClazz == Map.class) {
+         } else {
+            Constructor<?> argConstr = argClazz.getConstructor(String.class);
+            meth.invoke(ent, argConstr.newInstance(rs.getString(col)));
+         }
+      }
+   }
+
+   /**
+    * Result set over our generated rows which supports just the methods used for loading.
+    */
+   private ResultSet newResultSet() {
+      final Map<String, Integer> indices = new HashMap<>();
+      for (int i = 0; i < columns.length; i++) {
+         indices.put(columns[i], i + 1);
+      }
+      return (ResultSet)Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class<?>[] { ResultSet.class }, new InvocationHandler() {
+         int row = -1;
+         boolean wasNull;
+
+         @Override
+         public Object invoke(Object proxy, Method meth, Object[] args) throws Throwable {
+            switch (meth.getName()) {
+               case "next":
+                  return ++row < rows.length;
+               case "findColumn":
+                  return findColumn((String)args[0]);
+               case "wasNull":
+                  return wasNull;
+               case "getInt":
+                  Object val = getValue(args[0]);
+                  return val != null ? (Integer)val : 0;
+               case "getString":
+               case "getObject":
+                  return getValue(args[0]);
+               case "hashCode":
+                  return System.identityHashCode(proxy);
+               case "equals":
+                  return proxy == args[0];
+            }
+            throw new UnsupportedOperationException(meth.getName());
+         }
+
+         private int findColumn(String col) throws SQLException {
+            Integer result = indices.get(col);
+            if (result == null) {
+               throw new SQLException("Column '" + col + "' not found.");
+            }
+            return result;
+         }
+
+         private Object getValue(Object col) throws SQLException {
+            int i = col instanceof String ? findColumn((String)col) : (Integer)col;
+            Object result = rows[row][i - 1];
+            wasNull = result == null;
+            return result;
+         }
+      });
+   }
+
+   public static void main(String[] argv) throws Exception {
+      Map<String, String> args = new HashMap<>();
+      for (String a: argv) {
+         int eq = a.indexOf('=');
+         if (eq < 0) {
+            System.err.println("Arguments should be of the form name=value, not \"" + a + "\".");
+            System.exit(1);
+         }
+         args.put(a.substring(0, eq), a.substring(eq + 1));
+      }
+      int numRows = args.containsKey("rows") ? Integer.parseInt(args.get("rows")) : 100000;
+      int warmup = args.containsKey("warmup") ? Integer.parseInt(args.get("warmup")) : 5;
+      int iterations = args.containsKey("iterations") ? Integer.parseInt(args.get("iterations")) : 10;
+
+      RowMapperBenchmark bench = new RowMapperBenchmark(numRows);
+      System.out.println(String.format("%d rows, %d columns", numRows, bench.columns.length));
+      bench.run("reflective", false, warmup, iterations);
+      bench.run("mapped", true, warmup, iterations);
+   }
+}
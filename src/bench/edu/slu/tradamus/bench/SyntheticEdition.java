@@ -0,0 +1,282 @@
+/*
+ * Copyright 2015 Saint Louis University. Licensed under the
+ *	Educational Community License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package edu.slu.tradamus.bench;
+
+import java.io.IOException;
+import java.util.*;
+import edu.slu.tradamus.annotation.Annotation;
+import edu.slu.tradamus.collation.Lemmatizer;
+import edu.slu.tradamus.collation.Misspelling;
+import edu.slu.tradamus.text.Page;
+import edu.slu.tradamus.text.Transcription;
+import edu.slu.tradamus.witness.Witness;
+
+
+/**
+ * Generates a family of synthetic manuscript witnesses, so that collation can be exercised without a
+ * database.  An archetype is drawn from a pseudo-Latin vocabulary; each family's hyparchetype is a
+ * corrupted copy of it, and each witness a further corrupted copy of its family's text.  Corruptions are
+ * a mix of inflectional variants, orthographic variants, substitutions, omissions, additions and
+ * transpositions.  Witnesses are laid out in lines and pages, with some words hyphenated across line
+ * breaks, and are sprinkled with TEI annotations (&lt;del>, and &lt;choice> with &lt;abbr>/&lt;expan>).
+ * <p>
+ * Generation is deterministic for a given set of parameters.
+ *
+ * @author tarkvara
+ */
+public class SyntheticEdition {
+   private final Random rnd;
+   private final Params params;
+
+   /** Each lemma's inflected forms. */
+   private final List<List<String>> lemmaForms = new ArrayList<>();
+
+   /** Headword for each form. */
+   private final Map<String, String> headwords = new HashMap<>();
+
+   private final List<Transcription> transcriptions = new ArrayList<>();
+   private final Map<Transcription, List<Annotation>> annotations = new HashMap<>();
+   private int nextPageID = 1;
+
+   public SyntheticEdition(Params p) {
+      params = p;
+      rnd = new Random(p.seed);
+      buildVocabulary();
+
+      // Archetype, drawn with a skewed distribution so that some words are much commoner than others.
+      int[][] archetype = new int[p.length][];
+      for (int i = 0; i < archetype.length; i++) {
+         archetype[i] = randomWord();
+      }
+
+      int numFamilies = Math.max(1, (p.witnesses + 4) / 5);
+      List<int[][]> families = new ArrayList<>();
+      for (int f = 0; f < numFamilies; f++) {
+         families.add(corrupt(archetype, p.variantRate));
+      }
+      for (int w = 0; w < p.witnesses; w++) {
+         int[][] text = corrupt(families.get(w % numFamilies), p.variantRate * 0.5);
+         layOut(w + 1, text);
+      }
+   }
+
+   public List<Transcription> getTranscriptions() {
+      return transcriptions;
+   }
+
+   /**
+    * Non-line annotations for the given transcription, as <code>loadNonLineAnnotations</code> would
+    * return them.
+    */
+   public List<Annotation> getAnnotations(Transcription t) {
+      return annotations.get(t);
+   }
+
+   /**
+    * Orthographic rules which account for the spelling variants we generate.
+    */
+   public List<Misspelling> getMisspellings() {
+      List<Misspelling> result = new ArrayList<>();
+      for (String[] r: SPELLINGS) {
+         result.add(new Misspelling(r[0], r[1]));
+      }
+      return result;
+   }
+
+   /**
+    * Stub lexicon which knows the headword of every inflected form we generate.
+    */
+   public Lemmatizer getLemmatizer() {
+      return new Lemmatizer() {
+         @Override
+         public String getName() {
+            return "synthetic";
+         }
+
+         @Override
+         public Map<String, List<String>> lemmatize(Collection<String> forms) throws IOException {
+            Map<String, List<String>> result = new HashMap<>();
+            for (String f: forms) {
+               String hw = headwords.get(f);
+               result.put(f, hw != null ? Collections.singletonList(hw) : Collections.<String>emptyList());
+            }
+            return result;
+         }
+      };
+   }
+
+   private void buildVocabulary() {
+      Set<String> stems = new HashSet<>();
+      while (stems.size() < NUM_LEMMAS) {
+         StringBuilder buf = new StringBuilder();
+         int syllables = 1 + rnd.nextInt(3);
+         for (int i = 0; i < syllables; i++) {
+            buf.append(SYLLABLES[rnd.nextInt(SYLLABLES.length)]);
+         }
+         stems.add(buf.toString());
+      }
+      for (String stem: stems) {
+         List<String> forms = new ArrayList<>();
+         for (String ending: ENDINGS) {
+            String form = stem + ending;
+            forms.add(form);
+            headwords.put(form, stem + ENDINGS[0]);
+         }
+         lemmaForms.add(forms);
+      }
+   }
+
+   /**
+    * A word is represented by its lemma and its inflection.
+    */
+   private int[] randomWord() {
+      double r = rnd.nextDouble();
+      return new int[] { (int)(r * r * NUM_LEMMAS), rnd.nextInt(ENDINGS.length) };
+   }
+
+   private int[][] corrupt(int[][] src, double rate) {
+      List<int[]> result = new ArrayList<>(src.length + 16);
+      for (int[] word: src) {
+         if (rnd.nextDouble() < rate) {
+            double kind = rnd.nextDouble();
+            if (kind < 0.35) {
+               // Different inflection of the same lemma.
+               result.add(new int[] { word[0], rnd.nextInt(ENDINGS.length) });
+            } else if (kind < 0.7) {
+               // Orthographic variant, resolved when the word is spelt out.
+               result.add(new int[] { word[0], word[1], 1 });
+            } else if (kind < 0.85) {
+               result.add(randomWord());
+            } else if (kind < 0.925) {
+               // Omission.
+            } else {
+               result.add(word);
+               result.add(randomWord());
+            }
+         } else {
+            result.add(word);
+         }
+      }
+      for (int i = 0; i < result.size() - 1; i++) {
+         if (rnd.nextDouble() < params.transpositionRate) {
+            Collections.swap(result, i, i + 1);
+         }
+      }
+      return result.toArray(new int[result.size()][]);
+   }
+
+   private String spell(int[] word) {
+      String form = lemmaForms.get(word[0]).get(word[1]);
+      if (word.length > 2) {
+         for (String[] r: SPELLINGS) {
+            if (form.contains(r[0])) {
+               return form.replaceFirst(r[0], r[1]);
+            }
+         }
+      }
+      return form;
+   }
+
+   /**
+    * Lay out a witness' text in lines and pages, generating annotations as we go.
+    */
+   private void layOut(int witID, int[][] text) {
+      Transcription t = new Transcription(new Witness(null, witID, "W" + witID), witID);
+      List<Annotation> anns = new ArrayList<>();
+      StringBuilder buf = new StringBuilder();
+      List<Object[]> pending = new ArrayList<>();    // Annotations on the current page: type, start, end.
+      int wordsOnLine = 0, linesOnPage = 0;
+      for (int i = 0; i < text.length; i++) {
+         String word = spell(text[i]);
+         boolean lineEnd = ++wordsOnLine >= params.lineLength || i == text.length - 1;
+         if (!lineEnd && rnd.nextDouble() < params.annotationRate) {
+            if (rnd.nextBoolean()) {
+               // A deleted word, which shouldn't take part in the collation.
+               String junk = spell(randomWord());
+               pending.add(new Object[] { "del", buf.length(), buf.length() + junk.length() });
+               buf.append(junk).append(' ');
+            } else {
+               // An abbreviation, expanded by the editor.
+               String abbr = word.substring(0, Math.min(3, word.length()));
+               int start = buf.length();
+               pending.add(new Object[] { "abbr", start, start + abbr.length() });
+               buf.append(abbr).append(' ');
+               pending.add(new Object[] { "expan", buf.length(), buf.length() + word.length() });
+               pending.add(new Object[] { "choice", start, buf.length() + word.length() });
+            }
+         }
+         if (lineEnd) {
+            if (word.length() > 4 && i < text.length - 1 && rnd.nextDouble() < params.hyphenRate) {
+               int split = 2 + rnd.nextInt(word.length() - 3);
+               buf.append(word, 0, split).append("-\n").append(word.substring(split)).append(' ');
+               wordsOnLine = 1;
+            } else {
+               buf.append(word).append('\n');
+               wordsOnLine = 0;
+            }
+            if (++linesOnPage >= LINES_PER_PAGE || i == text.length - 1) {
+               finishPage(t, anns, buf, pending);
+               linesOnPage = 0;
+            }
+         } else {
+            buf.append(word).append(' ');
+         }
+      }
+      if (buf.length() > 0) {
+         finishPage(t, anns, buf, pending);
+      }
+      transcriptions.add(t);
+      annotations.put(t, anns);
+   }
+
+   private void finishPage(Transcription t, List<Annotation> anns, StringBuilder buf, List<Object[]> pending) {
+      Page pg = new Page(t, nextPageID++, t.getPageCount(), Integer.toString(t.getPageCount() + 1), buf.toString());
+      t.addPage(pg);
+      for (Object[] a: pending) {
+         anns.add(new Annotation((String)a[0], null, pg, (int)a[1], pg, (int)a[2]));
+      }
+      pending.clear();
+      buf.setLength(0);
+   }
+
+   /**
+    * Parameters controlling the generated edition.
+    */
+   public static class Params {
+      public int witnesses = 15;
+      public int length = 2000;
+      public double variantRate = 0.05;
+      public double transpositionRate = 0.01;
+      public int lineLength = 10;
+      public double hyphenRate = 0.2;
+      public double annotationRate = 0.02;
+      public long seed = 1;
+
+      @Override
+      public String toString() {
+         return String.format("witnesses=%d length=%d variants=%.3f transpositions=%.3f lineLength=%d hyphens=%.2f annotations=%.3f seed=%d",
+                 witnesses, length, variantRate, transpositionRate, lineLength, hyphenRate, annotationRate, seed);
+      }
+   }
+
+   private static final int NUM_LEMMAS = 600;
+   private static final int LINES_PER_PAGE = 30;
+
+   private static final String[] SYLLABLES = { "a", "ae", "ca", "ti", "do", "mi", "phi", "lo", "se", "ver", "tu", "mn", "ny", "re", "qu", "sa", "ne", "pe", "ri", "cum" };
+   private static final String[] ENDINGS = { "us", "i", "o", "um", "e", "a", "ae", "am", "is", "orum" };
+
+   /** Pairs of (correct, incorrect) spellings, as in the <code>misspellings</code> table. */
+   private static final String[][] SPELLINGS = { { "ae", "e" }, { "ph", "f" }, { "ti", "ci" }, { "mn", "mpn" }, { "y", "i" } };
+}
@@ -29,6 +29,7 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import edu.slu.tradamus.db.Entity;
+import edu.slu.tradamus.db.FingerprintBuilder;
 import edu.slu.tradamus.db.NoSuchEntityException;
 import edu.slu.tradamus.edition.Edition;
 import edu.slu.tradamus.edition.Outline;
@@ -586,12 +587,14 @@ public class Annotation extends Entity implements TextRange {
     * Override <code>loadFields</code> to pick up the canvas and target fragments which don't have setters
     * of their own.
     * @param rs result set positioned to the row for this annotation
+    * @param columns indices of mapped columns, as for <code>Entity.loadFields</code>
     * @param deep ignored, since annotations don't currently have children
     */
    @Override
-   public void loadFields(ResultSet rs, boolean deep) throws SQLException, ReflectiveOperationException {
-      super.loadFields(rs, deep);
+   public void loadFields(ResultSet rs, int[] columns, boolean deep) throws SQLException, ReflectiveOperationException {
+      super.loadFields(rs, columns, deep);
       modification = rs.getTimestamp("modification");
+      fingerprint = rs.getLong("annotations.fingerprint");
       int canvID = rs.getInt("canvas");
       if (!rs.wasNull()) {
          String canvURI = "canvas/" + canvID;
@@ -641,6 +644,35 @@ public class Annotation extends Entity implements TextRange {
     */
    @Override
    public void insert(Connection conn) throws IOException, SQLException {
+      allocateID(conn);
+      executeUpdate(conn, INSERT_ANNOTATIONS + " (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)", getInsertValues());
+   }
+
+   /**
+    * Plain annotations can be inserted with multi-row INSERTs.  Subclasses which need to insert other
+    * entities alongside themselves (i.e. Decisions) are still inserted one at a time.
+    *
+    * @param conn connection to SQL database
+    * @param ents annotations to be inserted
+    */
+   @Override
+   public void insertBatch(Connection conn, List<? extends Entity> ents) throws SQLException, IOException {
+      if (getClass() != Annotation.class) {
+         super.insertBatch(conn, ents);
+      } else {
+         allocateIDs(conn, ents);
+         List<Object[]> rows = new ArrayList<>(ents.size());
+         for (Entity e: ents) {
+            rows.add(((Annotation)e).getInsertValues());
+         }
+         executeBatchInsert(conn, INSERT_ANNOTATIONS, ents, rows);
+      }
+   }
+
+   /**
+    * Get the values which go into the columns of <code>INSERT_ANNOTATIONS</code>.
+    */
+   private Object[] getInsertValues() throws IOException {
       Integer startPg = null, startOff = null, endPg = null, endOff = null;
       Integer canv = null;
       String targType = null;
@@ -662,16 +694,13 @@ public class Annotation extends Entity implements TextRange {
       if (attributes != null) {
          attrs = ATTRIBUTE_MAPPER.writeValueAsString(attributes);
       }
-      executeInsert(conn, "INSERT INTO `annotations` (" +
-            "`start_page`, `start_offset`, `end_page`, `end_offset`, " +
-            "`canvas`, `canvas_fragment`, " +
-            "`target_type`, `target`, `target_fragment`, " +
-            "`type`, `content`, `attributes`, `tags`, `modified_by`, `approved_by`" +
-            ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)",
-            startPg, startOff, endPg, endOff,
+      fingerprint = computeFingerprint();
+      return new Object[] {
+            id, startPg, startOff, endPg, endOff,
             canv, canvasFragment,
             targType, targID, targetFragment,
-            type, content, attrs, tags, modifiedBy, approvedBy);
+            type, content, attrs, tags, modifiedBy, approvedBy, fingerprint
+      };
    }
 
    @Override
@@ -719,18 +748,19 @@ public class Annotation extends Entity implements TextRange {
          }
          modifiedBy = newAnn.modifiedBy;
          approvedBy = newAnn.approvedBy;
+         fingerprint = computeFingerprint();
          executeUpdate(conn, "UPDATE `annotations` " +
                "SET `start_page` = ?, `start_offset` = ?, `end_page` = ?, `end_offset` = ?, " +
                "`canvas` = ?, `canvas_fragment` = ?, " +
                "`target_type` = ?, `target` = ?, `target_fragment` = ?, " +
                "`type` = ?, `content` = ?, `attributes` = ?, `tags` = ?, " +
-               "`modified_by` = ?, `approved_by` = ? " +
+               "`modified_by` = ?, `approved_by` = ?, `fingerprint` = ? " +
                "WHERE `id` = ?",
                startPg, startOff, endPg, endOff,
                canv, canvasFragment,
                targType, targID, targetFragment,
                type, content, attrs, tags,
-               modifiedBy, approvedBy, id);
+               modifiedBy, approvedBy, fingerprint, id);
       }
    }
 
@@ -847,59 +877,37 @@ public class Annotation extends Entity implements TextRange {
       return String.format("%s %s:%d-%s:%d/%d", type, startPage, startOffset, endPage, endOffset, id);
    }
    
-   public boolean isEquivalentTo(Annotation other) throws IOException {
-      if (!compareIDs(this.startPage, other.startPage)) {
-         return false;
-      }
-      if (this.startOffset != other.startOffset) {
-         return false;
-      }
-      if (!compareIDs(this.endPage, other.endPage)) {
-         return false;
-      }
-      if (this.endOffset != other.endOffset) {
-         return false;
-      }
-      if (!compareIDs(this.canvas, other.canvas)) {
-         return false;
-      }
-      if (!Objects.equals(this.canvasFragment, other.canvasFragment)) {
-         return false;
-      }
-      if (Objects.equals(this.target, other.target)) {
-         return false;
-      }
-      if (!Objects.equals(this.targetFragment, other.targetFragment)) {
-         return false;
-      }
-      if (!Objects.equals(this.type, other.type)) {
-         return false;
-      }
-      if (!Objects.equals(this.content, other.content)) {
-         return false;
-      }
-      if (this.attributes == null) {
-         if (other.attributes != null) {
-            return false;
-         }
-      } else {
-         if (other.attributes == null) {
-            return false;
-         }
-         // Attributes for both are non-null, so lets compare their string representations.
-         if (!ATTRIBUTE_MAPPER.writeValueAsString(this.attributes).equals(ATTRIBUTE_MAPPER.writeValueAsString(other.attributes))) {
-            return false;
-         }
-      }
-      if (!Objects.equals(this.attributes, other.attributes)) {
-         return false;
-      }
-      if (!Objects.equals(this.tags, other.tags)) {
-         return false;
-      }
-      // Changes to modifiedBy and modification fields are not sufficient to deem two annotations non-equivalent, but changes to
-      // approvedBy are.
-      return approvedBy == other.approvedBy;
+   /**
+    * Two annotations are equivalent if their content fingerprints match.  Changes to modifiedBy and
+    * modification fields are not sufficient to deem two annotations non-equivalent, but changes to
+    * approvedBy are.
+    */
+   public boolean isEquivalentTo(Annotation other) {
+      return getAnnotationFingerprint() == other.getAnnotationFingerprint();
+   }
+
+   /**
+    * Fingerprint of the annotation's own fields.  Unlike <code>getFingerprint</code>, subclasses can't
+    * opt out of this one.
+    */
+   private long getAnnotationFingerprint() {
+      return fingerprint != 0L ? fingerprint : computeFingerprint();
+   }
+
+   @Override
+   protected long computeFingerprint() {
+      FingerprintBuilder b = new FingerprintBuilder();
+      b.add(startPage).add(startOffset).add(endPage).add(endOffset);
+      b.add(canvas).add(canvasFragment);
+      b.add(target).add(targetFragment);
+      b.add(type).add(content).add(attributes).add(tags);
+      b.add(approvedBy);
+      return b.get();
+   }
+
+   @Override
+   protected boolean hasFingerprintColumn() {
+      return true;
    }
    
    /**
@@ -985,6 +993,16 @@ public class Annotation extends Entity implements TextRange {
    public static final String SELECT_SUB_ANNOTATIONS = "SELECT * FROM `annotations` " +
          "WHERE `target_type` = 'ANNOTATION' AND `target` = ?";
 
+   /**
+    * Beginning of INSERT statement for annotations, up to and including <code>VALUES</code>.
+    */
+   private static final String INSERT_ANNOTATIONS = "INSERT INTO `annotations` (" +
+           "`id`, `start_page`, `start_offset`, `end_page`, `end_offset`, " +
+           "`canvas`, `canvas_fragment`, " +
+           "`target_type`, `target`, `target_fragment`, " +
+           "`type`, `content`, `attributes`, `tags`, `modified_by`, `approved_by`, `fingerprint`" +
+           ") VALUES";
+
    /**
     * Keep an ObjectMapper around for stringifying/destringifying attributes.
     */
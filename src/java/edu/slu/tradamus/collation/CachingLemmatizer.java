@@ -0,0 +1,143 @@
+/*
+ * Copyright 2013-2014 Saint Louis University. Licensed under the
+ *	Educational Community License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package edu.slu.tradamus.collation;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+
+/**
+ * Lemmatiser which keeps the results of another lemmatiser in the <code>lemmas</code> table, so that
+ * only forms which have never been seen before need to be looked up.  Forms for which no headwords were
+ * found are looked up again once their entry is <code>EMPTY_RESULT_DAYS</code> old, so that a bad
+ * response from the source doesn't leave them without lemmas for good.
+ *
+ * @author tarkvara
+ */
+public class CachingLemmatizer implements Lemmatizer {
+   private final Connection conn;
+   private final Lemmatizer source;
+
+   /**
+    * Wrap a cache around a lemmatiser.
+    *
+    * @param c connection to MySQL database
+    * @param src lemmatiser used for cache misses
+    */
+   public CachingLemmatizer(Connection c, Lemmatizer src) {
+      conn = c;
+      source = src;
+   }
+
+   @Override
+   public String getName() {
+      return source.getName();
+   }
+
+   @Override
+   public Map<String, List<String>> lemmatize(Collection<String> forms) throws IOException {
+      try {
+         Map<String, List<String>> result = loadCached(forms);
+         List<String> misses = new ArrayList<>();
+         for (String f: forms) {
+            if (!result.containsKey(f)) {
+               misses.add(f);
+            }
+         }
+         LOG.log(Level.INFO, "{0} of {1} forms found in lemma cache.", new Object[] { result.size(), forms.size() });
+         if (!misses.isEmpty()) {
+            Map<String, List<String>> fetched = source.lemmatize(misses);
+            storeCached(fetched);
+            result.putAll(fetched);
+         }
+         return result;
+      } catch (SQLException ex) {
+         throw new IOException(ex);
+      }
+   }
+
+   private Map<String, List<String>> loadCached(Collection<String> forms) throws SQLException {
+      Map<String, List<String>> result = new HashMap<>();
+      List<String> lookups = new ArrayList<>(forms);
+      for (int i = 0; i < lookups.size(); i += QUERY_CHUNK) {
+         List<String> chunk = lookups.subList(i, Math.min(i + QUERY_CHUNK, lookups.size()));
+         // Forms with no headwords may just have been missing from a degraded response, so those results
+         // expire and are looked up again.
+         StringBuilder query = new StringBuilder("SELECT `form`, `headwords` FROM `lemmas` WHERE `source` = ? AND `form` IN (");
+         for (int j = 0; j < chunk.size(); j++) {
+            query.append(j > 0 ? ", ?" : "?");
+         }
+         query.append(") AND (`headwords` <> '' OR `created` > NOW() - INTERVAL ? DAY)");
+         try (PreparedStatement stmt = conn.prepareStatement(query.toString())) {
+            stmt.setString(1, source.getName());
+            for (int j = 0; j < chunk.size(); j++) {
+               stmt.setString(j + 2, chunk.get(j));
+            }
+            stmt.setInt(chunk.size() + 2, EMPTY_RESULT_DAYS);
+            ResultSet rs = stmt.executeQuery();
+            while (rs.next()) {
+               String hdwds = rs.getString(2);
+               result.put(rs.getString(1), hdwds.isEmpty() ? Collections.<String>emptyList() : Arrays.asList(hdwds.split("\t")));
+            }
+         }
+      }
+      return result;
+   }
+
+   private void storeCached(Map<String, List<String>> fetched) throws SQLException {
+      try (PreparedStatement stmt = conn.prepareStatement("INSERT INTO `lemmas` (`source`, `form`, `headwords`) VALUES (?, ?, ?) " +
+              "ON DUPLICATE KEY UPDATE `headwords` = VALUES(`headwords`), `created` = NOW()")) {
+         int batched = 0;
+         for (Map.Entry<String, List<String>> e: fetched.entrySet()) {
+            if (e.getKey() != null && e.getKey().length() <= MAX_FORM_LENGTH) {
+               StringBuilder hdwds = new StringBuilder();
+               for (String h: e.getValue()) {
+                  if (hdwds.length() > 0) {
+                     hdwds.append('\t');
+                  }
+                  hdwds.append(h);
+               }
+               stmt.setString(1, source.getName());
+               stmt.setString(2, e.getKey());
+               stmt.setString(3, hdwds.toString());
+               stmt.addBatch();
+               if (++batched % QUERY_CHUNK == 0) {
+                  stmt.executeBatch();
+               }
+            }
+         }
+         if (batched % QUERY_CHUNK != 0) {
+            stmt.executeBatch();
+         }
+      }
+   }
+
+   /** Number of forms per query when reading or writing the cache. */
+   private static final int QUERY_CHUNK = 500;
+
+   /** Number of days for which a lookup which found no headwords is trusted. */
+   private static final int EMPTY_RESULT_DAYS = 7;
+
+   /** Longest form which will fit into the <code>lemmas</code> table. */
+   private static final int MAX_FORM_LENGTH = 200;
+
+   private static final Logger LOG = Logger.getLogger(CachingLemmatizer.class.getName());
+}
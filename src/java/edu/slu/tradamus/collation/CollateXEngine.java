@@ -14,7 +14,12 @@
  */
 package edu.slu.tradamus.collation;
 
+import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 import eu.interedition.collatex.*;
 import eu.interedition.collatex.jung.JungVariantGraph;
@@ -27,7 +32,43 @@ import edu.slu.tradamus.text.TextAnchor;
  * @author tarkvara
  */
 public class CollateXEngine {
-   
+
+   /**
+    * If true, use CollateX' own JUNG-based variant graph rather than our compact one.  Only really useful
+    * for comparing the two implementations.
+    */
+   private final boolean usingJungGraph;
+
+   /**
+    * If true, long witnesses are split at shared anchor tokens and the segments are collated in parallel.
+    */
+   private final boolean segmenting;
+
+   /**
+    * Order in which witnesses are added to the variant graph.
+    */
+   private final WitnessOrder witnessOrder;
+
+   public CollateXEngine() {
+      this(false, false, WitnessOrder.GIVEN);
+   }
+
+   /**
+    * Create an engine, specifying which variant graph implementation to use.
+    *
+    * @param useJungGraph if true, collate using <code>JungVariantGraph</code> instead of
+    * <code>CompactVariantGraph</code>
+    * @param segment if true, split the witnesses at shared anchors and collate the segments in parallel;
+    * the witnesses must have been encoded with a <code>TokenDictionary</code>
+    * @param order order in which witnesses are added to the graph; <code>SIMILARITY</code> also requires
+    * the witnesses to have been encoded
+    */
+   public CollateXEngine(boolean useJungGraph, boolean segment, WitnessOrder order) {
+      usingJungGraph = useJungGraph;
+      segmenting = segment;
+      witnessOrder = order;
+   }
+
    /**
     * Wrapper around the CollateX engine.
     *
@@ -36,26 +77,149 @@ public class CollateXEngine {
     * @return list of motes which represent the collation
     */
    public List<Mote> collate(List<CollationWitness> wits, Comparator<Token> comp) {
-      CollationAlgorithm collationAlgorithm = CollationAlgorithmFactory.dekker(comp);
-      VariantGraph variantGraph = new JungVariantGraph();
+      MoteCollector result = new MoteCollector();
+      try {
+         collate(wits, comp, result);
+      } catch (IOException ex) {
+         // Can't happen, since our visitor does no I/O.
+         throw new IllegalStateException(ex);
+      }
+      return result.motes;
+   }
+
+   /**
+    * Collate the witnesses, handing each mote to the visitor as soon as it has been produced rather than
+    * accumulating the whole collation in memory.
+    *
+    * @param wits witnesses to be collated
+    * @param comp comparator object to make the comparisons between tokens
+    * @param visitor receives the motes, in collation order
+    * @throws IOException if the visitor fails to write a mote
+    */
+   public void collate(List<CollationWitness> wits, Comparator<Token> comp, MoteVisitor visitor) throws IOException {
+      long startTime = System.currentTimeMillis();
+      if (witnessOrder == WitnessOrder.SIMILARITY && wits.size() > 2) {
+         wits = GuideTree.order(wits);
+         LOG.log(Level.INFO, "Ordered {0} witnesses by similarity in {1}ms: {2}", new Object[] { wits.size(), System.currentTimeMillis() - startTime, getSigils(wits) });
+      }
+      if (segmenting && wits.size() > 1) {
+         List<List<List<Token>>> segments = splitAtAnchors(wits);
+         if (segments.size() > 1) {
+            LOG.log(Level.INFO, "Collating {0} witnesses in {1} segments.", new Object[] { wits.size(), segments.size() });
+            collateSegments(segments, comp, visitor);
+            logCollationTime(wits, startTime);
+            return;
+         }
+      }
+      collateTokens(wits, comp, visitor);
+      logCollationTime(wits, startTime);
+   }
+
+   private void logCollationTime(List<CollationWitness> wits, long startTime) {
+      LOG.log(Level.INFO, "Collated {0} witnesses in {1} order in {2}ms.", new Object[] { wits.size(), witnessOrder, System.currentTimeMillis() - startTime });
+   }
+
+   private static String getSigils(List<CollationWitness> wits) {
+      StringBuilder buf = new StringBuilder();
+      String sep = "";
       for (CollationWitness w: wits) {
+         buf.append(sep);
+         buf.append(w.getSigil());
+         sep = ",";
+      }
+      return buf.toString();
+   }
+
+   /**
+    * Collate the segments in parallel.  Motes are passed on to the visitor segment by segment, in order, so
+    * only the segments which have finished ahead of their predecessors need to be held in memory.
+    *
+    * @param segments token streams for each segment, as returned by <code>splitAtAnchors</code>
+    * @param comp comparator object to make the comparisons between tokens
+    * @param visitor receives the motes, in collation order
+    * @throws IOException if the visitor fails to write a mote
+    */
+   private void collateSegments(List<List<List<Token>>> segments, Comparator<Token> comp, MoteVisitor visitor) throws IOException {
+      List<ForkJoinTask<List<Mote>>> tasks = new ArrayList<>(segments.size());
+      for (List<List<Token>> seg: segments) {
+         tasks.add(SEGMENT_POOL.submit(new SegmentTask(this, seg, comp)));
+      }
+      try {
+         for (int i = 0; i < tasks.size(); i++) {
+            for (Mote m: tasks.get(i).join()) {
+               visitor.visitMote(m);
+            }
+            // Let the segment's motes be collected once they've been written.
+            tasks.set(i, null);
+         }
+      } finally {
+         for (ForkJoinTask<List<Mote>> t: tasks) {
+            if (t != null) {
+               t.cancel(false);
+            }
+         }
+      }
+   }
+
+   /**
+    * Run the Dekker algorithm over the given token streams, and convert the resulting graph into motes.
+    *
+    * @param wits token streams to be collated; each must be non-empty and come from a single witness
+    * @param comp comparator object to make the comparisons between tokens
+    * @param visitor receives the motes, in collation order
+    * @throws IOException if the visitor fails to write a mote
+    */
+   private void collateTokens(List<? extends Iterable<Token>> wits, Comparator<Token> comp, MoteVisitor visitor) throws IOException {
+      visitMotes(buildGraph(wits, comp), visitor);
+   }
+
+   /**
+    * Run the Dekker algorithm over the given token streams, producing a variant graph whose sequences of
+    * matches have been joined.  Public so that the alignment can be benchmarked separately from the
+    * conversion into motes.
+    *
+    * @param wits token streams to be collated; each must be non-empty and come from a single witness
+    * @param comp comparator object to make the comparisons between tokens
+    * @return the joined variant graph
+    */
+   public VariantGraph buildGraph(List<? extends Iterable<Token>> wits, Comparator<Token> comp) {
+      CollationAlgorithm collationAlgorithm = CollationAlgorithmFactory.dekker(comp);
+      VariantGraph variantGraph = usingJungGraph ? new JungVariantGraph() : new CompactVariantGraph(wits.size());
+      for (Iterable<Token> w: wits) {
          collationAlgorithm.collate(variantGraph, w);
       }
       
       // Merge sequences of matches into a single edge.
       VariantGraph.JOIN.apply(variantGraph);
+      return variantGraph;
+   }
 
-      List<Mote> result = new ArrayList<>();
-      
+   /**
+    * Convert each vertex of a joined variant graph into a mote.  This should take time proportional to
+    * the number of tokens in the graph; <code>MoteScalingBenchmark</code> checks that it does.
+    *
+    * @param variantGraph graph returned by <code>buildGraph</code>
+    * @param visitor receives the motes, in collation order
+    * @throws IOException if the visitor fails to write a mote
+    */
+   public static void visitMotes(VariantGraph variantGraph, MoteVisitor visitor) throws IOException {
       for (VariantGraph.Vertex v: variantGraph.vertices()) {
          Map<Integer, TextAnchor> moteContents = new HashMap<>(v.witnesses().size());
          String moteText = null;
          for (Witness w: v.witnesses()) {
-            List<Token> sortedToks = new ArrayList<>(v.tokens(Collections.singleton(w)));
-            if (sortedToks.size() > 0) {
-               Collections.sort(sortedToks, (CollationWitness)w);
-               CollationToken firstTok = (CollationToken)sortedToks.get(0);
-               CollationToken lastTok = (CollationToken)sortedToks.get(sortedToks.size() - 1);
+            // Rather than sorting the vertex' tokens, just find the ones with the lowest and highest ordinals.
+            CollationToken firstTok = null;
+            CollationToken lastTok = null;
+            for (Token t: v.tokens(Collections.singleton(w))) {
+               CollationToken tok = (CollationToken)t;
+               if (firstTok == null || tok.ordinal < firstTok.ordinal) {
+                  firstTok = tok;
+               }
+               if (lastTok == null || tok.ordinal > lastTok.ordinal) {
+                  lastTok = tok;
+               }
+            }
+            if (firstTok != null) {
                TextAnchor anch = new TextAnchor(firstTok.getStartPage(), firstTok.getStartOffset(), lastTok.getEndPage(), lastTok.getEndOffset());
                moteContents.put(Integer.parseInt(w.getSigil()), anch);
                if (moteText == null) {
@@ -64,12 +228,167 @@ public class CollateXEngine {
             }
          }
          if (!moteContents.isEmpty()) {
-           result.add(new Mote(moteText, moteContents));
+           visitor.visitMote(new Mote(moteText, moteContents));
+         }
+      }
+   }
+
+   /**
+    * Split the witnesses into segments which can be collated independently.  Segment boundaries are placed
+    * at anchors: tokens whose text occurs exactly once in every witness, in the same relative order in all
+    * of them.  Each anchor starts a new segment.
+    *
+    * @param wits encoded witnesses to be split
+    * @return for each segment, the tokens of each witness which fall within it (empty witness segments
+    * are omitted)
+    */
+   private List<List<List<Token>>> splitAtAnchors(List<CollationWitness> wits) {
+      int numWits = wits.size();
+      int numForms = 0;
+      for (CollationWitness w: wits) {
+         if (w.getFormIDs() == null) {
+            throw new IllegalStateException("Witnesses must be encoded before segmented collation.");
+         }
+         for (int id: w.getFormIDs()) {
+            numForms = Math.max(numForms, id + 1);
+         }
+      }
+
+      // For each witness, the position of each form which occurs exactly once in that witness, or -1.
+      int[][] positions = new int[numWits][numForms];
+      for (int i = 0; i < numWits; i++) {
+         int[] pos = positions[i];
+         Arrays.fill(pos, -1);
+         int[] ids = wits.get(i).getFormIDs();
+         for (int j = 0; j < ids.length; j++) {
+            pos[ids[j]] = pos[ids[j]] == -1 ? j : -2;
+         }
+      }
+
+      // Candidates are forms which occur once in every witness, ordered by their position in the first one.
+      int[] firstIDs = wits.get(0).getFormIDs();
+      List<Integer> anchors = new ArrayList<>();
+      for (int id: firstIDs) {
+         boolean unique = true;
+         for (int i = 0; i < numWits && unique; i++) {
+            unique = positions[i][id] >= 0;
+         }
+         if (unique) {
+            anchors.add(id);
+         }
+      }
+
+      // Keep only those anchors which occur in the same order in every witness.
+      for (int i = 1; i < numWits && !anchors.isEmpty(); i++) {
+         anchors = longestIncreasingRun(anchors, positions[i]);
+      }
+
+      // Don't bother making segments which are too short to be worth collating separately.
+      List<Integer> cuts = new ArrayList<>();
+      int lastCut = 0;
+      for (int id: anchors) {
+         int pos = positions[0][id];
+         if (pos - lastCut >= MIN_SEGMENT_TOKENS && firstIDs.length - pos >= MIN_SEGMENT_TOKENS) {
+            cuts.add(id);
+            lastCut = pos;
+         }
+      }
+
+      List<List<List<Token>>> result = new ArrayList<>();
+      for (int s = 0; s <= cuts.size(); s++) {
+         List<List<Token>> segment = new ArrayList<>();
+         for (int i = 0; i < numWits; i++) {
+            List<Token> toks = wits.get(i).getTokens();
+            int from = s > 0 ? positions[i][cuts.get(s - 1)] : 0;
+            int to = s < cuts.size() ? positions[i][cuts.get(s)] : toks.size();
+            if (to > from) {
+               segment.add(toks.subList(from, to));
+            }
+         }
+         if (!segment.isEmpty()) {
+            result.add(segment);
          }
       }
       return result;
    }
 
+   /**
+    * Find the longest subsequence of the given anchors whose positions are strictly increasing.
+    *
+    * @param anchors form IDs of the candidate anchors, in their current order
+    * @param pos position of each form within the witness being considered
+    * @return the longest subsequence of <code>anchors</code> which is in order within the witness
+    */
+   private static List<Integer> longestIncreasingRun(List<Integer> anchors, int[] pos) {
+      int n = anchors.size();
+      int[] tails = new int[n];     // Index of smallest tail for runs of each length.
+      int[] prev = new int[n];
+      int len = 0;
+      for (int i = 0; i < n; i++) {
+         int p = pos[anchors.get(i)];
+         int lo = 0, hi = len;
+         while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (pos[anchors.get(tails[mid])] < p) {
+               lo = mid + 1;
+            } else {
+               hi = mid;
+            }
+         }
+         prev[i] = lo > 0 ? tails[lo - 1] : -1;
+         tails[lo] = i;
+         if (lo == len) {
+            len++;
+         }
+      }
+      Integer[] result = new Integer[len];
+      for (int i = len > 0 ? tails[len - 1] : -1, j = len - 1; i >= 0; i = prev[i], j--) {
+         result[j] = anchors.get(i);
+      }
+      return Arrays.asList(result);
+   }
+
+   /**
+    * Collates a single segment into a list of motes, using the settings of the given engine.
+    */
+   private static class SegmentTask extends RecursiveTask<List<Mote>> {
+      private static final long serialVersionUID = 1L;
+
+      private final transient CollateXEngine engine;
+      private final transient List<List<Token>> segment;
+      private final transient Comparator<Token> comp;
+
+      SegmentTask(CollateXEngine eng, List<List<Token>> seg, Comparator<Token> c) {
+         engine = eng;
+         segment = seg;
+         comp = c;
+      }
+
+      @Override
+      protected List<Mote> compute() {
+         MoteCollector result = new MoteCollector();
+         try {
+            engine.collateTokens(segment, comp, result);
+         } catch (IOException ex) {
+            // Can't happen, since our visitor does no I/O.
+            throw new IllegalStateException(ex);
+         }
+         return result.motes;
+      }
+   }
+
+   /**
+    * Visitor which just accumulates the motes in a list.
+    */
+   private static class MoteCollector implements MoteVisitor {
+      final List<Mote> motes = new ArrayList<>();
+
+      @Override
+      public void visitMote(Mote m) {
+         motes.add(m);
+      }
+   }
+
    /**
     * For debug purposes, make a string representation of a vertex' contents.
     * @param v vertex to be dumped
@@ -92,5 +411,30 @@ public class CollateXEngine {
       return buf.toString();
    }
    
+   /**
+    * Segments shorter than this (in tokens of the first witness) aren't worth collating separately.
+    */
+   private static final int MIN_SEGMENT_TOKENS = 500;
+
+   /**
+    * Shared by all segmented collations.
+    */
+   private static final ForkJoinPool SEGMENT_POOL = new ForkJoinPool();
+
    private static final Logger LOG = Logger.getLogger(CollateXEngine.class.getName());
+
+   /**
+    * Two ways of choosing the order in which witnesses are added to the variant graph.
+    */
+   public static enum WitnessOrder {
+      GIVEN,
+      SIMILARITY;
+
+      public static WitnessOrder fromString(String s) {
+         if (s == null) {
+            return GIVEN;
+         }
+         return Enum.valueOf(WitnessOrder.class, s.toUpperCase());
+      }
+   }
 }
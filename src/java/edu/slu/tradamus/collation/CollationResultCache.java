@@ -0,0 +1,340 @@
+/*
+ * Copyright 2013-2014 Saint Louis University. Licensed under the
+ *	Educational Community License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package edu.slu.tradamus.collation;
+
+import java.io.*;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.Multimap;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import edu.slu.tradamus.text.Page;
+import edu.slu.tradamus.text.Transcription;
+import edu.slu.tradamus.util.LangUtils;
+
+
+/**
+ * Cache of collation results, keyed by a hash of everything which goes into the collation: the collation
+ * options and, for each witness, its text and annotation anchors.  Since the key is built from the inputs,
+ * a hit doesn't need the witnesses to be tokenised.  Results are spooled to temporary files and evicted
+ * least-recently-used first once their total size exceeds the limit.  Identical requests which arrive while
+ * a collation is still running wait for it and share its result rather than starting their own.
+ *
+ * @author tarkvara
+ */
+public class CollationResultCache {
+   /** Upper limit on the total size of the cached results. */
+   private final long maxBytes;
+
+   /** Current total size of the cached results. */
+   private long totalBytes;
+
+   /** Cached and in-progress results, in least-recently-used order. */
+   private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+   /** For invalidation, the entries which depend on each page. */
+   private final Multimap<Integer, Entry> pageEntries = HashMultimap.create();
+
+   /**
+    * Create a cache with the given size limit.
+    *
+    * @param max maximum number of bytes of results to retain
+    */
+   public CollationResultCache(long max) {
+      maxBytes = max;
+   }
+
+   /**
+    * Get the cache which is shared by all collation requests.
+    */
+   public static CollationResultCache getSharedCache() {
+      return SHARED;
+   }
+
+   /**
+    * Get the results for the given collation, producing them if they aren't already available.
+    *
+    * @param k key identifying the collation's inputs
+    * @param producer called to tokenise and collate the witnesses if the results aren't already cached or
+    * being produced
+    * @return stream from which the results can be read; must be closed by the caller
+    * @throws IOException if the results couldn't be produced
+    */
+   public InputStream open(Key k, ResultWriter producer) throws IOException {
+      String key = k.toString();
+      Entry ent;
+      boolean producing = false;
+      synchronized (this) {
+         ent = entries.get(key);
+         if (ent == null) {
+            ent = new Entry(key, k.pageIDs);
+            entries.put(key, ent);
+            for (Integer pgID: k.pageIDs) {
+               pageEntries.put(pgID, ent);
+            }
+            producing = true;
+         } else {
+            LOG.log(Level.INFO, "Using {0} collation results for {1}.", new Object[] { ent.ready ? "cached" : "in-progress", key });
+         }
+         ent.readers++;
+      }
+
+      boolean opened = false;
+      try {
+         if (producing) {
+            produce(ent, producer);
+         } else {
+            await(ent);
+         }
+         InputStream result = new EntryInputStream(ent);
+         opened = true;
+         return result;
+      } finally {
+         if (!opened) {
+            release(ent);
+         }
+      }
+   }
+
+   /**
+    * Discard any results which depend on the given page.  Results which are still being produced are
+    * delivered to the requests which are waiting for them, but are not retained.
+    *
+    * @param pgID ID of page whose text has changed
+    */
+   public synchronized void invalidatePage(int pgID) {
+      for (Entry ent: new ArrayList<>(pageEntries.get(pgID))) {
+         entries.remove(ent.key);
+         discard(ent);
+      }
+   }
+
+   /**
+    * Write the results for a new entry to a temporary file, and make them available to any other requests
+    * which are waiting for them.
+    */
+   private void produce(Entry ent, ResultWriter producer) throws IOException {
+      try {
+         ent.file = File.createTempFile("collation", ".json");
+         try (OutputStream out = new FileOutputStream(ent.file)) {
+            producer.write(out);
+         }
+         synchronized (this) {
+            ent.size = ent.file.length();
+            ent.ready = true;
+            if (!ent.evicted) {
+               totalBytes += ent.size;
+               evict();
+            }
+            notifyAll();
+         }
+      } catch (Throwable ex) {
+         // Errors such as OutOfMemoryError must also be recorded, or the waiters would never wake up.
+         synchronized (this) {
+            ent.failure = ex;
+            if (entries.get(ent.key) == ent) {
+               entries.remove(ent.key);
+               discard(ent);
+            }
+            notifyAll();
+         }
+         throw ex;
+      }
+   }
+
+   /**
+    * Wait for another request to finish producing the results for an entry.
+    */
+   private synchronized void await(Entry ent) throws IOException {
+      while (!ent.ready && ent.failure == null) {
+         try {
+            wait();
+         } catch (InterruptedException ex) {
+            throw new InterruptedIOException("Interrupted while waiting for collation results.");
+         }
+      }
+      if (ent.failure != null) {
+         throw new IOException("Unable to produce collation results.", ent.failure);
+      }
+   }
+
+   /**
+    * Drop least-recently-used results until we're back within our size limit.  Entries which are still
+    * being produced don't count towards the total, so they are left alone.
+    */
+   private void evict() {
+      Iterator<Entry> iter = entries.values().iterator();
+      while (totalBytes > maxBytes && iter.hasNext()) {
+         Entry ent = iter.next();
+         if (ent.ready) {
+            iter.remove();
+            discard(ent);
+         }
+      }
+   }
+
+   /**
+    * Forget about an entry which has already been removed from <code>entries</code>.  The file is deleted
+    * once the last reader has finished with it.
+    */
+   private void discard(Entry ent) {
+      ent.evicted = true;
+      if (ent.ready) {
+         totalBytes -= ent.size;
+      }
+      for (Integer pgID: ent.pageIDs) {
+         pageEntries.remove(pgID, ent);
+      }
+      if (ent.readers == 0) {
+         deleteFile(ent);
+      }
+   }
+
+   private synchronized void release(Entry ent) {
+      ent.readers--;
+      if (ent.evicted && ent.readers == 0) {
+         deleteFile(ent);
+      }
+   }
+
+   private static void deleteFile(Entry ent) {
+      if (ent.file != null && !ent.file.delete()) {
+         LOG.log(Level.WARNING, "Unable to delete cached collation results {0}.", ent.file);
+      }
+   }
+
+   /**
+    * Identifies a collation by its inputs: the options (including any dictionary signature), and for each
+    * witness, the range being collated, the text of the pages it covers, and the anchors of its
+    * transcription's non-line annotations.  Editing an annotation changes the key, so results which depend
+    * on the old anchors are never looked up again, and drop out of the cache in the normal way.
+    */
+   public static class Key {
+      private final Hasher hasher = Hashing.sha1().newHasher();
+      private final Set<Integer> pageIDs = new HashSet<>();
+      private String value;
+
+      /**
+       * Start a key for a collation.
+       *
+       * @param options string which identifies all settings other than the witnesses which affect the
+       * collation's output
+       */
+      public Key(String options) {
+         hasher.putInt(options.length()).putString(options, LangUtils.UTF8);
+      }
+
+      /**
+       * Add a witness to the key.  Witnesses must be added in the order in which they'll be collated.
+       *
+       * @param conn connection to SQL database, used for fetching the annotation anchors
+       * @param transcr transcription being collated, with its pages loaded
+       * @param pg1 starting page index within transcription
+       * @param offset1 starting text start within <code>pg1</code>
+       * @param pg2 ending page index within transcription
+       * @param offset2 ending text start within <code>pg2</code>, or -1 for the end of the page
+       */
+      public void addWitness(Connection conn, Transcription transcr, int pg1, int offset1, int pg2, int offset2) throws SQLException {
+         if (value != null) {
+            throw new IllegalStateException("Collation key is already complete.");
+         }
+         hasher.putInt(transcr.getID());
+         hasher.putInt(pg1).putInt(offset1).putInt(pg2).putInt(offset2);
+         for (int i = pg1; i <= pg2; i++) {
+            Page pg = transcr.getPage(i);
+            String text = pg.getText();
+            pageIDs.add(pg.getID());
+            hasher.putInt(pg.getID());
+            hasher.putInt(text.length()).putString(text, LangUtils.UTF8);
+         }
+         PageTokenCache.fingerprintAnnotations(conn, transcr.getID(), hasher);
+      }
+
+      /**
+       * The finished key.  No more witnesses can be added once this has been called.
+       */
+      @Override
+      public String toString() {
+         if (value == null) {
+            value = hasher.hash().toString();
+         }
+         return value;
+      }
+   }
+
+   /**
+    * Callback which writes a collation's results when they aren't available from the cache.
+    */
+   public interface ResultWriter {
+      void write(OutputStream out) throws IOException;
+   }
+
+   /**
+    * Results for a single collation.  All fields are guarded by the cache's monitor.
+    */
+   private static class Entry {
+      final String key;
+      final Set<Integer> pageIDs;
+      File file;
+      long size;
+      int readers;
+      boolean ready;
+      boolean evicted;
+      Throwable failure;
+
+      Entry(String k, Set<Integer> pgIDs) {
+         key = k;
+         pageIDs = pgIDs;
+      }
+   }
+
+   /**
+    * Stream for reading an entry's results, which keeps the file around until it has been closed.
+    */
+   private class EntryInputStream extends FilterInputStream {
+      private final Entry entry;
+      private boolean closed;
+
+      EntryInputStream(Entry ent) throws FileNotFoundException {
+         super(new FileInputStream(ent.file));
+         entry = ent;
+      }
+
+      @Override
+      public void close() throws IOException {
+         if (!closed) {
+            closed = true;
+            try {
+               super.close();
+            } finally {
+               release(entry);
+            }
+         }
+      }
+   }
+
+   /**
+    * Limit on the size of the shared cache.
+    */
+   private static final long SHARED_CACHE_BYTES = 256L * 1024 * 1024;
+
+   private static final CollationResultCache SHARED = new CollationResultCache(SHARED_CACHE_BYTES);
+
+   private static final Logger LOG = Logger.getLogger(CollationResultCache.class.getName());
+}
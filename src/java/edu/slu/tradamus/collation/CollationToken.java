@@ -29,6 +29,24 @@ class CollationToken extends TextAnchor implements Token {
    private final CollationWitness witness;
    String text;
 
+   /**
+    * Normalised form of <code>text</code> which is used when comparing tokens.  Filled in by the witness
+    * once tokenisation is complete.
+    */
+   String key;
+
+   /**
+    * Position of this token within its witness.  Assigned when the token is created, and renumbered by the
+    * witness once tokenisation is complete, so that tokens can be ordered without searching the token list.
+    */
+   int ordinal;
+
+   /**
+    * ID of this token's text within the collation's <code>TokenDictionary</code>; -1 until the witness
+    * has been encoded.
+    */
+   int formID = -1;
+
    /**
     * Construct a new token for analysis by CollateX.
     *
@@ -55,6 +73,18 @@ class CollationToken extends TextAnchor implements Token {
       return text;
    }
 
+   public String getKey() {
+      return key;
+   }
+
+   public int getOrdinal() {
+      return ordinal;
+   }
+
+   public int getFormID() {
+      return formID;
+   }
+
    @Override
    public Witness getWitness() {
       return witness;
@@ -18,6 +18,8 @@ import java.io.IOException;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
@@ -29,6 +31,7 @@ import edu.slu.tradamus.annotation.Annotation;
 import edu.slu.tradamus.text.Page;
 import edu.slu.tradamus.text.TextAnchor;
 import edu.slu.tradamus.text.TextRange;
+import edu.slu.tradamus.text.TextRangeIndex;
 import edu.slu.tradamus.text.Transcription;
 
 
@@ -41,16 +44,19 @@ import edu.slu.tradamus.text.Transcription;
 public class CollationWitness implements Witness, Iterable<Token>, Comparator<Token> {
    private final Transcription transcription;
    protected final List<Token> tokens = new ArrayList<>();
+
+   /**
+    * Dictionary IDs of our tokens' text, in token order.  Filled in by <code>encode</code>.
+    */
+   private int[] formIDs;
    private final IgnoreLineBreaks ignoringLineBreaks;
-   private final boolean ignoringCase;
-   private final boolean ignoringPunctuation;
+   private final TokenNormalizer normalizer;
    private final boolean usingTEITags;
 
-   public CollationWitness(Transcription transcr, IgnoreLineBreaks ignoreLineBreaks, boolean ignoreCase, boolean ignorePunct, boolean useTEITags) {
+   public CollationWitness(Transcription transcr, IgnoreLineBreaks ignoreLineBreaks, TokenNormalizer norm, boolean useTEITags) {
       transcription = transcr;
       ignoringLineBreaks = ignoreLineBreaks;
-      ignoringCase = ignoreCase;
-      ignoringPunctuation = ignorePunct;
+      normalizer = norm;
       usingTEITags = useTEITags;
    }
 
@@ -64,11 +70,54 @@ public class CollationWitness implements Witness, Iterable<Token>, Comparator<To
     * @throws IOException
     */
    public void tokenise(Connection conn, int pg1, int offset1, int pg2, int offset2) throws IOException, SQLException, ReflectiveOperationException {
+      PageTokenCache cache = new PageTokenCache(transcription, String.format("%b|%s", usingTEITags, normalizer), pg1, pg2);
+      cache.load(conn);
+      tokenise(cache.getAnnotations(), cache, pg1, offset1, pg2, offset2);
+      cache.store(conn);
+   }
+
+   /**
+    * Tokenise our content, using annotations which have already been loaded.  This lets witnesses be
+    * built without a database, e.g. for benchmarking.
+    *
+    * @param anns the transcription's non-line annotations, with their pages resolved
+    * @param pg1 starting page index within transcription
+    * @param offset1 starting text start within <code>pg1</code>
+    * @param pg2 ending page index within transcription
+    * @param offset2 ending text start within <code>pg2</code>
+    */
+   public void tokenise(List<Annotation> anns, int pg1, int offset1, int pg2, int offset2) {
+      tokenise(anns, null, pg1, offset1, pg2, offset2);
+   }
+
+   /**
+    * Tokenise our content, taking whole pages from the page-token cache where possible.
+    *
+    * @param anns the transcription's non-line annotations, with their pages resolved
+    * @param cache cache of previously-tokenised pages, may be null
+    */
+   private void tokenise(List<Annotation> anns, PageTokenCache cache, int pg1, int offset1, int pg2, int offset2) {
+      // Pages whose tokens came from the cache have already had their TEI tags handled.  Pages which were
+      // tokenised in their entirety can be saved to the cache.
+      BitSet cachedPages = new BitSet();
+      BitSet wholePages = new BitSet();
       for (int pageNum = pg1; pageNum <= pg2; pageNum++) {
          Page page = transcription.getPage(pageNum);
          String pageText = page.getText();
          int pageStart = pageNum == pg1 ? offset1 : 0;
          int pageEnd = pageNum == pg2 && offset2 >= 0 ? offset2 : pageText.length();
+         if (pageStart == 0 && pageEnd == pageText.length()) {
+            wholePages.set(pageNum);
+            List<CollationToken> cachedToks = cache != null ? cache.getTokens(this, pageNum) : null;
+            if (cachedToks != null) {
+               for (CollationToken tok: cachedToks) {
+                  tok.ordinal = tokens.size();
+                  tokens.add(tok);
+               }
+               cachedPages.set(pageNum);
+               continue;
+            }
+         }
          int tokenStart = -1;
          for (int i = pageStart; i < pageEnd; i++) {
             if (isSeparator(pageText.charAt(i))) {
@@ -86,37 +135,61 @@ public class CollationWitness implements Witness, Iterable<Token>, Comparator<To
          }
       }
       
-      List<Annotation> anns = transcription.loadNonLineAnnotations(conn);
+      // Index the annotations once, so that boundary checks don't have to scan all of them for every gap.
+      TextRangeIndex<Annotation> annIndex = new TextRangeIndex<>(anns);
 
       if (usingTEITags) {
-         handleTEITags(anns);
+         handleTEITags(anns, cachedPages);
       }
 
-      // If we're ignoring linefeeds, merge any tokens which are separated only by a linefeed.
+      // Save the pages we had to tokenise, before line-break merging joins any of their tokens to those of
+      // neighbouring pages.
+      if (cache != null) {
+         wholePages.andNot(cachedPages);
+         int i = 0;
+         for (int pageNum = wholePages.nextSetBit(0); pageNum >= 0; pageNum = wholePages.nextSetBit(pageNum + 1)) {
+            while (i < tokens.size() && ((CollationToken)tokens.get(i)).getStartPage().getIndex() < pageNum) {
+               i++;
+            }
+            List<CollationToken> pageToks = new ArrayList<>();
+            for (; i < tokens.size() && ((CollationToken)tokens.get(i)).getStartPage().getIndex() == pageNum; i++) {
+               CollationToken tok = (CollationToken)tokens.get(i);
+               tok.key = normalizer.normalize(tok.text);
+               pageToks.add(tok);
+            }
+            cache.put(pageNum, pageToks);
+         }
+      }
+
+      // If we're ignoring linefeeds, merge any tokens which are separated only by a linefeed.  Merged tokens
+      // are dropped by compacting the list in place, rather than removing them one at a time.
       if (ignoringLineBreaks != IgnoreLineBreaks.FALSE) {
-         for (int i = 0; i < tokens.size() - 1; i++) {
+         int dest = 0;
+         for (int i = 0; i < tokens.size(); i++) {
             CollationToken tok = (CollationToken)tokens.get(i);
-            CollationToken nextTok = (CollationToken)tokens.get(i + 1);
-            TextAnchor gap = TextAnchor.gapBetween(tok, nextTok);
-            String gapText = getText(gap);
-            if (gapText.charAt(0) == '\n') {
-               if (ignoringLineBreaks == IgnoreLineBreaks.TRUE || tok.getText().endsWith("-")) {
-                  if (containsBoundary(gap, anns)) {
-                     LOG.log(Level.INFO, "Can''t ignore line-break between {0} and {1} due to annotation.", new Object[] { tok, nextTok });
-                  } else {
-                     mergeTokenWithNext(i);
+            if (i < tokens.size() - 1) {
+               CollationToken nextTok = (CollationToken)tokens.get(i + 1);
+               TextAnchor gap = TextAnchor.gapBetween(tok, nextTok);
+               String gapText = getText(gap);
+               if (gapText.charAt(0) == '\n') {
+                  if (ignoringLineBreaks == IgnoreLineBreaks.TRUE || tok.getText().endsWith("-")) {
+                     if (containsBoundary(gap, annIndex)) {
+                        LOG.log(Level.INFO, "Can''t ignore line-break between {0} and {1} due to annotation.", new Object[] { tok, nextTok });
+                     } else {
+                        mergeTokenWithNext(tok, nextTok);
+                        i++;
+                     }
                   }
                }
             }
-            if (ignoringCase) {
-               tok.text = tok.text.toLowerCase();
-            }
-            if (ignoringPunctuation) {
-               tok.text = tok.text.replaceAll("\\p{Punct}", "");
-            }
+            tokens.set(dest++, tok);
          }
+         tokens.subList(dest, tokens.size()).clear();
       }
 
+      renumberTokens();
+      normalizeTokens();
+
       // For debug purposes.
 /*      StringBuilder buf = new StringBuilder();
       for (int i = 0; i < Math.min(100, tokens.size()); i++) {
@@ -133,6 +206,35 @@ public class CollationWitness implements Witness, Iterable<Token>, Comparator<To
       tokenise(conn, 0, 0, transcription.getPageCount() - 1, -1);
    }
 
+   /**
+    * Once tokenisation is complete, look up each token's normalised key in the collation's dictionary so that
+    * comparators can work with integer IDs instead of strings.
+    *
+    * @param dict dictionary shared by all witnesses in the collation
+    */
+   public void encode(TokenDictionary dict) {
+      formIDs = new int[tokens.size()];
+      for (int i = 0; i < formIDs.length; i++) {
+         CollationToken tok = (CollationToken)tokens.get(i);
+         tok.formID = dict.intern(tok.key);
+         formIDs[i] = tok.formID;
+      }
+   }
+
+   /**
+    * Our tokens, in order, for collating a portion of the witness.
+    */
+   List<Token> getTokens() {
+      return Collections.unmodifiableList(tokens);
+   }
+
+   /**
+    * Our token stream as dictionary IDs.  Only valid after <code>encode</code> has been called.
+    */
+   public int[] getFormIDs() {
+      return formIDs;
+   }
+
    @Override
    public String getSigil() {
       return Integer.toString(transcription.getWitness().getID());
@@ -151,9 +253,13 @@ public class CollationWitness implements Witness, Iterable<Token>, Comparator<To
       return Character.isWhitespace(c);
    }
 
-   private void handleTEITags(List<Annotation> anns) {
-      int startIndex = 0;
-      
+   /**
+    * Process the TEI annotations which affect the collation.
+    *
+    * @param anns the transcription's non-line annotations
+    * @param cachedPages pages whose tokens came from the cache, and have therefore already been processed
+    */
+   private void handleTEITags(List<Annotation> anns, BitSet cachedPages) {
       // First, extract the <choice> annotations because they're important for processing other ones.
       List<Annotation> choices = new ArrayList<>();
       for (Annotation ann: anns) {
@@ -161,6 +267,15 @@ public class CollationWitness implements Witness, Iterable<Token>, Comparator<To
             choices.add(ann);
          }
       }
+      TextRangeIndex<Annotation> choiceIndex = new TextRangeIndex<>(choices);
+
+      // Tokens are in document order, so their end positions form a sorted array which we can binary-search.
+      // Deleted tokens are only marked here, and dropped in a single pass once all the tags are handled.
+      long[] tokenEnds = new long[tokens.size()];
+      for (int i = 0; i < tokenEnds.length; i++) {
+         tokenEnds[i] = TextRangeIndex.getEndPosition((CollationToken)tokens.get(i));
+      }
+      BitSet deleted = new BitSet(tokens.size());
 
       for (Annotation ann: anns) {
          switch (ann.getType()) {
@@ -174,19 +289,19 @@ public class CollationWitness implements Witness, Iterable<Token>, Comparator<To
             case "del":
             case "surplus":
                // Erroneous or extra text which shouldn't participate in the collation.
-               startIndex = deleteTokensInRange(ann, startIndex);
+               deleteTokensInRange(ann, tokenEnds, deleted, cachedPages);
                break;
             case "abbr":
                // Content of an <abbr> may be replaced by an <expan>.
-               startIndex = deleteIfUnchosen(ann, choices, startIndex);
+               deleteIfUnchosen(ann, choiceIndex, tokenEnds, deleted, cachedPages);
                break;
             case "sic":
                // Content of a <sic> may be replaced by a <corr>.
-               startIndex = deleteIfUnchosen(ann, choices, startIndex);
+               deleteIfUnchosen(ann, choiceIndex, tokenEnds, deleted, cachedPages);
                break;
             case "orig":
                // Content of an <orig> may be replaced by a <reg>.
-               startIndex = deleteIfUnchosen(ann, choices, startIndex);
+               deleteIfUnchosen(ann, choiceIndex, tokenEnds, deleted, cachedPages);
                break;
             case "subst":
             case "gap":
@@ -195,27 +310,60 @@ public class CollationWitness implements Witness, Iterable<Token>, Comparator<To
                break;
          }
       }
+
+      if (!deleted.isEmpty()) {
+         int dest = 0;
+         for (int i = 0; i < tokens.size(); i++) {
+            if (!deleted.get(i)) {
+               tokens.set(dest++, tokens.get(i));
+            }
+         }
+         tokens.subList(dest, tokens.size()).clear();
+      }
    }
 
    /**
     * Handle an &lt;abbr>, &lt;orig>, or &lt;sic> element within a &lt;choice> by deleting its content.
-    * @param choices all &lt;choice> annotations in the transcription
     * @param ann annotation to be deleted if it lies within a &lt;choice>
-    * @param startIndex start token for tokens
-    * @return new value of <code>startIndex</code>
+    * @param choiceIndex index of all &lt;choice> annotations in the transcription
+    * @param tokenEnds sorted end positions of our tokens
+    * @param deleted tokens which have been marked for deletion
+    * @param cachedPages pages whose tokens have already been processed
     */
-   private int deleteIfUnchosen(Annotation ann, List<Annotation> choices, int startIndex) {
-      for (Annotation choice: choices) {
-         if (TextAnchor.contains(choice, ann)) {
-            startIndex = deleteTokensInRange(ann, startIndex);
-            break;
-         }
+   private void deleteIfUnchosen(Annotation ann, TextRangeIndex<Annotation> choiceIndex, long[] tokenEnds, BitSet deleted, BitSet cachedPages) {
+      if (choiceIndex.anyContains(ann)) {
+         deleteTokensInRange(ann, tokenEnds, deleted, cachedPages);
       }
-      return startIndex;
    }
 
    protected void addToken(Page pg, int start, int end) {
-      tokens.add(new CollationToken(this, pg.getText().substring(start, end), pg, start));
+      CollationToken tok = new CollationToken(this, pg.getText().substring(start, end), pg, start);
+      tok.ordinal = tokens.size();
+      tokens.add(tok);
+   }
+
+   /**
+    * Once merging and TEI handling have settled each token's text, compute the key which will be used for
+    * comparing it.  The text itself is kept as-is.  Tokens which came from (or went into) the page-token
+    * cache unmerged already have their keys.
+    */
+   private void normalizeTokens() {
+      for (Token t: tokens) {
+         CollationToken tok = (CollationToken)t;
+         if (tok.key == null) {
+            tok.key = normalizer.normalize(tok.text);
+         }
+      }
+   }
+
+   /**
+    * Deletions and merges leave gaps in the token ordinals.  Once tokenisation is complete, renumber them so
+    * that each token's ordinal is its index within <code>tokens</code>.
+    */
+   private void renumberTokens() {
+      for (int i = 0; i < tokens.size(); i++) {
+         ((CollationToken)tokens.get(i)).ordinal = i;
+      }
    }
 
    /**
@@ -223,97 +371,94 @@ public class CollationWitness implements Witness, Iterable<Token>, Comparator<To
     * which straddle the range's boundaries.
     *
     * @param range range to be checked
-    * @param startIndex point in <code>tokens</code> array to start looking for a match
+    * @param tokenEnds sorted end positions of our tokens
     * @return a 2-element array with the start and finish indices of the found tokens
     */
-   private int[] findTokensInRange(TextRange range, int startIndex) {
-      int[] result = null;
-      for (int i = startIndex; i < tokens.size(); i++) {
-         CollationToken tok = (CollationToken)tokens.get(i);
-         if (TextAnchor.intersects(range, tok)) {
-            int j = i;
-            while (TextAnchor.intersects(range, (CollationToken)tokens.get(j + 1))) {
-               j++;
-            }
-            // Range i–j now contains all tokens which are wholly or partially contained within the range.
-            result = new int[] { i, j };
-            break;
+   private int[] findTokensInRange(TextRange range, long[] tokenEnds) {
+      // Every token before i ends before the range starts.  If token i doesn't intersect the range, it must
+      // end after the range does, so no later token can intersect it either.
+      int i = TextRangeIndex.lowerBound(tokenEnds, tokenEnds.length, TextRangeIndex.getStartPosition(range));
+      if (i < tokenEnds.length && TextAnchor.intersects(range, (CollationToken)tokens.get(i))) {
+         int j = i;
+         while (j + 1 < tokenEnds.length && TextAnchor.intersects(range, (CollationToken)tokens.get(j + 1))) {
+            j++;
          }
+         // Range i–j now contains all tokens which are wholly or partially contained within the range.
+         return new int[] { i, j };
       }
-      return result;
+      return null;
    }
 
    /**
-    * Given a range (typically an annotation), delete any tokens which lie therein.
+    * Given a range (typically an annotation), mark any tokens which lie therein for deletion.
     *
     * @param ann annotation whose contents need to be deleted
-    * @param startIndex
-    * @return 
+    * @param tokenEnds sorted end positions of our tokens
+    * @param deleted tokens which have been marked for deletion
+    * @param cachedPages pages whose tokens have already been processed, and mustn't be touched again
     */
-   private int deleteTokensInRange(TextRange ann, int startIndex) {
-      int[] range = findTokensInRange(ann, startIndex);
+   private void deleteTokensInRange(TextRange ann, long[] tokenEnds, BitSet deleted, BitSet cachedPages) {
+      int[] range = findTokensInRange(ann, tokenEnds);
       if (range != null) {
-         // Future searches can start here.
-         startIndex = range[0];         
-
          // Deal with any tokens which may straddle the range boundary.
          CollationToken firstTok = (CollationToken)tokens.get(range[0]);
          if (!TextAnchor.contains(ann, firstTok.getStartPage(), firstTok.getStartOffset())) {
-            // Tail of first token is part of the deletion.
-            String newText = firstTok.text.substring(0, ann.getStartOffset() - firstTok.getStartOffset());
-            LOG.log(Level.INFO, "{0} truncating \"{1}\" to \"{2}\"", new Object[] { ann, firstTok.text, newText });
-            firstTok.text = newText;
+            if (!cachedPages.get(firstTok.getStartPage().getIndex())) {
+               // Tail of first token is part of the deletion.
+               String newText = firstTok.text.substring(0, ann.getStartOffset() - firstTok.getStartOffset());
+               LOG.log(Level.INFO, "{0} truncating \"{1}\" to \"{2}\"", new Object[] { ann, firstTok.text, newText });
+               firstTok.text = newText;
+            }
             range[0]++;
          }
          CollationToken lastTok = (CollationToken)tokens.get(range[1]);
          if (!TextAnchor.contains(ann, lastTok.getEndPage(), lastTok.getEndOffset())) {
-            // Head of the last token is part of the deletion.
-            String newText = lastTok.text.substring(lastTok.text.length() - (lastTok.getEndOffset() - ann.getEndOffset()));
-            LOG.log(Level.INFO, "{0} truncating \"{1}\" to \"{2}\"", new Object[] { ann, lastTok.text, newText });
-            lastTok.text = newText;
+            if (!cachedPages.get(lastTok.getStartPage().getIndex())) {
+               // Head of the last token is part of the deletion.
+               String newText = lastTok.text.substring(lastTok.text.length() - (lastTok.getEndOffset() - ann.getEndOffset()));
+               LOG.log(Level.INFO, "{0} truncating \"{1}\" to \"{2}\"", new Object[] { ann, lastTok.text, newText });
+               lastTok.text = newText;
+            }
             range[1]--;
          }
 
-         if (range[1] >= range[0]) {
-            tokens.subList(range[0], range[1]).clear();
+         for (int i = range[0]; i < range[1]; i++) {
+            if (!cachedPages.get(((CollationToken)tokens.get(i)).getStartPage().getIndex())) {
+               deleted.set(i);
+            }
          }
       }
-      return startIndex;
    }
 
    /**
-    * A straight merge of two tokens.
-    * @param i the first of the tokens to be merged
-    * @param trimHyphens if true, any final hyphen will be trimmed from the first token before merging
+    * A straight merge of two tokens.  The caller is responsible for dropping <code>nextTok</code> from the
+    * token list; <code>tok</code> keeps its ordinal, so token order is unaffected.
+    * @param tok the first of the tokens to be merged
+    * @param nextTok the token which follows <code>tok</code>
     */
-   private void mergeTokenWithNext(int i) {
-      CollationToken tok = (CollationToken)tokens.get(i);
-      if (i < tokens.size() - 1) {
-         CollationToken nextTok = (CollationToken)tokens.get(i + 1);
-         if (ignoringLineBreaks == IgnoreLineBreaks.HYPHENS && tok.text.endsWith("-")) {
-            tok.text = tok.text.substring(0, tok.text.length() - 1) + nextTok.text;
-         } else {
-            tok.text += nextTok.text;
-         }
-         tok.setEndPage(nextTok.getEndPage());
-         tok.setEndOffset(nextTok.getEndOffset());
-         tokens.remove(i + 1);
+   private void mergeTokenWithNext(CollationToken tok, CollationToken nextTok) {
+      if (ignoringLineBreaks == IgnoreLineBreaks.HYPHENS && tok.text.endsWith("-")) {
+         tok.text = tok.text.substring(0, tok.text.length() - 1) + nextTok.text;
+      } else {
+         tok.text += nextTok.text;
       }
+      tok.setEndPage(nextTok.getEndPage());
+      tok.setEndOffset(nextTok.getEndOffset());
+      tok.key = null;
    }
 
    /**
     * Does the given text anchor contain an annotation boundary, preventing line-break suppression from
     * occurring.
     * @param anch the range being evaluated
-    * @param anns all annotations associated with this transcription
+    * @param annIndex index of all annotations associated with this transcription
     * @return true if the range contains an annotation boundary
     */
-   private boolean containsBoundary(TextAnchor anch, List<Annotation> anns) {
-      for (Annotation ann: anns) {
-         if (anch.contains(ann.getEndPage(), ann.getEndOffset())) {
-            LOG.log(Level.INFO, "{0} contains end of {1}", new Object[] { getText(anch), ann });
-            return true;
-         }
+   private boolean containsBoundary(TextAnchor anch, TextRangeIndex<Annotation> annIndex) {
+      Annotation ann = annIndex.findEndWithin(anch);
+      if (ann != null) {
+         LOG.log(Level.INFO, "{0} contains end of {1}", new Object[] { getText(anch), ann });
+         return true;
       }
       return false;
    }
@@ -329,9 +474,7 @@ public class CollationWitness implements Witness, Iterable<Token>, Comparator<To
     */
    @Override
    public int compare(Token o1, Token o2) {
-      final int o1Index = tokens.indexOf(o1);
-      final int o2Index = tokens.indexOf(o2);
-      return o1Index - o2Index;
+      return Integer.compare(((CollationToken)o1).ordinal, ((CollationToken)o2).ordinal);
    }
    
    private static final Logger LOG = Logger.getLogger(CollationWitness.class.getName());
@@ -0,0 +1,730 @@
+/*
+ * Copyright 2013-2014 Saint Louis University. Licensed under the
+ *	Educational Community License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package edu.slu.tradamus.collation;
+
+import java.util.*;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Multimap;
+import com.google.common.collect.Sets;
+import eu.interedition.collatex.Token;
+import eu.interedition.collatex.VariantGraph;
+import eu.interedition.collatex.Witness;
+import eu.interedition.collatex.util.VariantGraphTraversal;
+
+
+/**
+ * Array-backed implementation of CollateX' <code>VariantGraph</code>.  Behaves like
+ * <code>JungVariantGraph</code>, but instead of keeping hash-based collections for every vertex and edge,
+ * the graph structure lives in parallel int arrays and each edge's witnesses are stored as a bitset within
+ * a shared long array.  The only per-vertex and per-edge objects are small handles which CollateX' algorithms
+ * use as keys.
+ *
+ * @author tarkvara
+ */
+public class CompactVariantGraph implements VariantGraph {
+
+   /** For each vertex, the first and last entries in its token list. */
+   private int[] firstToken, lastToken;
+
+   /** For each vertex, the heads of its outgoing and incoming edge lists. */
+   private int[] firstOut, firstIn;
+
+   /** Handle objects for the vertices, created on demand. */
+   private VertexHandle[] vertexHandles;
+
+   private int vertexCount;
+
+   private final BitSet deletedVertices = new BitSet();
+
+   /** All tokens in the graph, chained together into per-vertex lists by <code>nextToken</code>. */
+   private Token[] tokens;
+   private int[] nextToken;
+   private int tokenCount;
+
+   /** Endpoints of each edge. */
+   private int[] edgeFrom, edgeTo;
+
+   /** Doubly-linked lists of the outgoing edges of each vertex, and the incoming edges of each vertex. */
+   private int[] nextOut, prevOut, nextIn, prevIn;
+
+   /** Witness bitsets for all edges; each edge occupies <code>stride</code> consecutive words. */
+   private long[] edgeWitnesses;
+   private int stride;
+
+   /** Handle objects for the edges, created on demand. */
+   private EdgeHandle[] edgeHandles;
+
+   private int edgeCount;
+
+   private final BitSet deletedEdges = new BitSet();
+
+   /** Maps each witness to its bit position within the witness bitsets. */
+   private final Map<Witness, Integer> witnessIndices = new HashMap<>();
+   private final List<Witness> witnessList = new ArrayList<>();
+
+   /** Transpositions are rare, so they're kept as ordinary objects. */
+   private final Multimap<Vertex, Transposition> transpositionIndex = HashMultimap.create();
+
+   private final Vertex start;
+   private final Vertex end;
+
+   public CompactVariantGraph() {
+      this(16);
+   }
+
+   /**
+    * Create a graph with room for the given number of witnesses before any resizing is needed.
+    *
+    * @param numWitnesses expected number of witnesses
+    */
+   public CompactVariantGraph(int numWitnesses) {
+      int initialVertices = 1024;
+      firstToken = new int[initialVertices];
+      lastToken = new int[initialVertices];
+      firstOut = new int[initialVertices];
+      firstIn = new int[initialVertices];
+      vertexHandles = new VertexHandle[initialVertices];
+
+      tokens = new Token[initialVertices];
+      nextToken = new int[initialVertices];
+
+      edgeFrom = new int[initialVertices];
+      edgeTo = new int[initialVertices];
+      nextOut = new int[initialVertices];
+      prevOut = new int[initialVertices];
+      nextIn = new int[initialVertices];
+      prevIn = new int[initialVertices];
+      edgeHandles = new EdgeHandle[initialVertices];
+      stride = Math.max(1, (numWitnesses + 63) / 64);
+      edgeWitnesses = new long[initialVertices * stride];
+
+      start = vertexHandle(addVertex());
+      end = vertexHandle(addVertex());
+      connect(start, end, Collections.<Witness>emptySet());
+   }
+
+   @Override
+   public Vertex getStart() {
+      return start;
+   }
+
+   @Override
+   public Vertex getEnd() {
+      return end;
+   }
+
+   @Override
+   public Set<Transposition> transpositions() {
+      return Sets.newHashSet(transpositionIndex.values());
+   }
+
+   @Override
+   public Iterable<Vertex> vertices() {
+      return vertices(null);
+   }
+
+   @Override
+   public Iterable<Vertex> vertices(Set<Witness> witnesses) {
+      return VariantGraphTraversal.of(this, witnesses);
+   }
+
+   @Override
+   public Iterable<Edge> edges() {
+      return edges(null);
+   }
+
+   @Override
+   public Iterable<Edge> edges(Set<Witness> witnesses) {
+      return VariantGraphTraversal.of(this, witnesses).edges();
+   }
+
+   @Override
+   public Vertex add(Token tok) {
+      int v = addVertex();
+      addToken(v, tok);
+      return vertexHandle(v);
+   }
+
+   @Override
+   public Edge connect(Vertex from, Vertex to, Set<Witness> witnesses) {
+      Preconditions.checkArgument(!from.equals(to));
+
+      if (from.equals(start)) {
+         Edge startEndEdge = edgeBetween(start, end);
+         if (startEndEdge != null) {
+            if (to.equals(end)) {
+               witnesses = Sets.newHashSet(witnesses);
+               witnesses.addAll(startEndEdge.witnesses());
+            }
+            startEndEdge.delete();
+         }
+      }
+
+      int f = ((VertexHandle)from).index;
+      int t = ((VertexHandle)to).index;
+      for (int e = firstOut[f]; e >= 0; e = nextOut[e]) {
+         if (edgeTo[e] == t) {
+            addWitnesses(e, witnesses);
+            return edgeHandle(e);
+         }
+      }
+      int e = addEdge(f, t);
+      addWitnesses(e, witnesses);
+      return edgeHandle(e);
+   }
+
+   @Override
+   public Edge register(Witness w) {
+      return connect(start, end, Collections.singleton(w));
+   }
+
+   @Override
+   public Transposition transpose(Set<Vertex> vertices) {
+      Preconditions.checkArgument(!vertices.isEmpty());
+      for (Transposition transp: vertices.iterator().next().transpositions()) {
+         if (Sets.newHashSet(transp).equals(vertices)) {
+            return transp;
+         }
+      }
+      return new CompactTransposition(vertices);
+   }
+
+   @Override
+   public Edge edgeBetween(Vertex a, Vertex b) {
+      int f = ((VertexHandle)a).index;
+      int t = ((VertexHandle)b).index;
+      for (int e = firstOut[f]; e >= 0; e = nextOut[e]) {
+         if (edgeTo[e] == t) {
+            return edgeHandle(e);
+         }
+      }
+      return null;
+   }
+
+   @Override
+   public Set<Witness> witnesses() {
+      long[] bits = new long[stride];
+      for (int e = firstOut[((VertexHandle)start).index]; e >= 0; e = nextOut[e]) {
+         orWitnesses(e, bits);
+      }
+      return new WitnessSet(bits);
+   }
+
+   /**
+    * Number of live vertices, including the start and end vertices.
+    */
+   public int vertexCount() {
+      return vertexCount - deletedVertices.cardinality();
+   }
+
+   /**
+    * Number of live edges.
+    */
+   public int edgeCount() {
+      return edgeCount - deletedEdges.cardinality();
+   }
+
+   @Override
+   public String toString() {
+      return Iterables.toString(witnesses());
+   }
+
+   private int addVertex() {
+      if (vertexCount == firstToken.length) {
+         int newLen = vertexCount * 2;
+         firstToken = Arrays.copyOf(firstToken, newLen);
+         lastToken = Arrays.copyOf(lastToken, newLen);
+         firstOut = Arrays.copyOf(firstOut, newLen);
+         firstIn = Arrays.copyOf(firstIn, newLen);
+         vertexHandles = Arrays.copyOf(vertexHandles, newLen);
+      }
+      int v = vertexCount++;
+      firstToken[v] = -1;
+      lastToken[v] = -1;
+      firstOut[v] = -1;
+      firstIn[v] = -1;
+      return v;
+   }
+
+   private void addToken(int v, Token tok) {
+      if (tokenCount == tokens.length) {
+         int newLen = tokenCount * 2;
+         tokens = Arrays.copyOf(tokens, newLen);
+         nextToken = Arrays.copyOf(nextToken, newLen);
+      }
+      int t = tokenCount++;
+      tokens[t] = tok;
+      nextToken[t] = -1;
+      if (lastToken[v] >= 0) {
+         nextToken[lastToken[v]] = t;
+      } else {
+         firstToken[v] = t;
+      }
+      lastToken[v] = t;
+   }
+
+   private int addEdge(int f, int t) {
+      if (edgeCount == edgeFrom.length) {
+         int newLen = edgeCount * 2;
+         edgeFrom = Arrays.copyOf(edgeFrom, newLen);
+         edgeTo = Arrays.copyOf(edgeTo, newLen);
+         nextOut = Arrays.copyOf(nextOut, newLen);
+         prevOut = Arrays.copyOf(prevOut, newLen);
+         nextIn = Arrays.copyOf(nextIn, newLen);
+         prevIn = Arrays.copyOf(prevIn, newLen);
+         edgeHandles = Arrays.copyOf(edgeHandles, newLen);
+         edgeWitnesses = Arrays.copyOf(edgeWitnesses, newLen * stride);
+      }
+      int e = edgeCount++;
+      edgeFrom[e] = f;
+      edgeTo[e] = t;
+
+      prevOut[e] = -1;
+      nextOut[e] = firstOut[f];
+      if (firstOut[f] >= 0) {
+         prevOut[firstOut[f]] = e;
+      }
+      firstOut[f] = e;
+
+      prevIn[e] = -1;
+      nextIn[e] = firstIn[t];
+      if (firstIn[t] >= 0) {
+         prevIn[firstIn[t]] = e;
+      }
+      firstIn[t] = e;
+      return e;
+   }
+
+   private void deleteEdge(int e) {
+      if (!deletedEdges.get(e)) {
+         if (prevOut[e] >= 0) {
+            nextOut[prevOut[e]] = nextOut[e];
+         } else {
+            firstOut[edgeFrom[e]] = nextOut[e];
+         }
+         if (nextOut[e] >= 0) {
+            prevOut[nextOut[e]] = prevOut[e];
+         }
+         if (prevIn[e] >= 0) {
+            nextIn[prevIn[e]] = nextIn[e];
+         } else {
+            firstIn[edgeTo[e]] = nextIn[e];
+         }
+         if (nextIn[e] >= 0) {
+            prevIn[nextIn[e]] = prevIn[e];
+         }
+         Arrays.fill(edgeWitnesses, e * stride, (e + 1) * stride, 0L);
+         edgeHandles[e] = null;
+         deletedEdges.set(e);
+      }
+   }
+
+   private void deleteVertex(int v) {
+      if (!deletedVertices.get(v)) {
+         while (firstOut[v] >= 0) {
+            deleteEdge(firstOut[v]);
+         }
+         while (firstIn[v] >= 0) {
+            deleteEdge(firstIn[v]);
+         }
+         deletedVertices.set(v);
+      }
+   }
+
+   /**
+    * Get the bit position for the given witness, assigning one if this is the first time we've seen it.
+    */
+   private int witnessIndex(Witness w) {
+      Integer result = witnessIndices.get(w);
+      if (result == null) {
+         result = witnessList.size();
+         if (result >= stride * 64) {
+            widenWitnessBits();
+         }
+         witnessIndices.put(w, result);
+         witnessList.add(w);
+      }
+      return result;
+   }
+
+   /**
+    * More witnesses than we were expecting, so add another word to every edge's bitset.
+    */
+   private void widenWitnessBits() {
+      int newStride = stride + 1;
+      long[] newBits = new long[edgeFrom.length * newStride];
+      for (int e = 0; e < edgeCount; e++) {
+         System.arraycopy(edgeWitnesses, e * stride, newBits, e * newStride, stride);
+      }
+      edgeWitnesses = newBits;
+      stride = newStride;
+   }
+
+   private void addWitnesses(int e, Set<Witness> witnesses) {
+      for (Witness w: witnesses) {
+         int i = witnessIndex(w);
+         edgeWitnesses[e * stride + (i >>> 6)] |= 1L << i;
+      }
+   }
+
+   private void orWitnesses(int e, long[] dest) {
+      int base = e * stride;
+      for (int i = 0; i < stride; i++) {
+         dest[i] |= edgeWitnesses[base + i];
+      }
+   }
+
+   /**
+    * Does the given edge carry any of the witnesses in the filter?
+    *
+    * @param e edge index
+    * @param filter witness bits to check, or null to accept every edge
+    */
+   private boolean edgeMatches(int e, long[] filter) {
+      if (filter == null) {
+         return true;
+      }
+      int base = e * stride;
+      for (int i = 0; i < filter.length && i < stride; i++) {
+         if ((edgeWitnesses[base + i] & filter[i]) != 0) {
+            return true;
+         }
+      }
+      return false;
+   }
+
+   /**
+    * Convert a set of witnesses into bits.  Witnesses which aren't part of the graph are ignored.
+    */
+   private long[] toBits(Set<Witness> witnesses) {
+      if (witnesses == null) {
+         return null;
+      }
+      long[] result = new long[stride];
+      for (Witness w: witnesses) {
+         Integer i = witnessIndices.get(w);
+         if (i != null) {
+            result[i >>> 6] |= 1L << i;
+         }
+      }
+      return result;
+   }
+
+   private VertexHandle vertexHandle(int v) {
+      VertexHandle result = vertexHandles[v];
+      if (result == null) {
+         result = new VertexHandle(v);
+         vertexHandles[v] = result;
+      }
+      return result;
+   }
+
+   private EdgeHandle edgeHandle(int e) {
+      EdgeHandle result = edgeHandles[e];
+      if (result == null) {
+         result = new EdgeHandle(e);
+         edgeHandles[e] = result;
+      }
+      return result;
+   }
+
+   /**
+    * Lightweight vertex object handed out to CollateX.  All of the vertex' state lives in the graph's arrays.
+    */
+   private class VertexHandle implements Vertex {
+      final int index;
+
+      VertexHandle(int i) {
+         index = i;
+      }
+
+      @Override
+      public Iterable<? extends Edge> incoming() {
+         return incoming(null);
+      }
+
+      @Override
+      public Iterable<? extends Edge> incoming(Set<Witness> witnesses) {
+         long[] filter = toBits(witnesses);
+         List<Edge> result = new ArrayList<>();
+         for (int e = firstIn[index]; e >= 0; e = nextIn[e]) {
+            if (edgeMatches(e, filter)) {
+               result.add(edgeHandle(e));
+            }
+         }
+         return result;
+      }
+
+      @Override
+      public Iterable<? extends Edge> outgoing() {
+         return outgoing(null);
+      }
+
+      @Override
+      public Iterable<? extends Edge> outgoing(Set<Witness> witnesses) {
+         long[] filter = toBits(witnesses);
+         List<Edge> result = new ArrayList<>();
+         for (int e = firstOut[index]; e >= 0; e = nextOut[e]) {
+            if (edgeMatches(e, filter)) {
+               result.add(edgeHandle(e));
+            }
+         }
+         return result;
+      }
+
+      @Override
+      public Iterable<? extends Transposition> transpositions() {
+         return transpositionIndex.get(this);
+      }
+
+      @Override
+      public Set<Token> tokens() {
+         return tokens(null);
+      }
+
+      @Override
+      public Set<Token> tokens(Set<Witness> witnesses) {
+         return new TokenSet(index, witnesses);
+      }
+
+      @Override
+      public Set<Witness> witnesses() {
+         long[] bits = new long[stride];
+         for (int e = firstIn[index]; e >= 0; e = nextIn[e]) {
+            orWitnesses(e, bits);
+         }
+         return new WitnessSet(bits);
+      }
+
+      @Override
+      public void add(Iterable<Token> toks) {
+         for (Token t: toks) {
+            addToken(index, t);
+         }
+      }
+
+      @Override
+      public VariantGraph graph() {
+         return CompactVariantGraph.this;
+      }
+
+      @Override
+      public void delete() {
+         deleteVertex(index);
+      }
+
+      @Override
+      public String toString() {
+         return Iterables.toString(tokens());
+      }
+   }
+
+   /**
+    * Lightweight edge object handed out to CollateX.  All of the edge's state lives in the graph's arrays.
+    */
+   private class EdgeHandle implements Edge {
+      final int index;
+
+      EdgeHandle(int i) {
+         index = i;
+      }
+
+      @Override
+      public VariantGraph graph() {
+         return CompactVariantGraph.this;
+      }
+
+      @Override
+      public Edge add(Set<Witness> witnesses) {
+         addWitnesses(index, witnesses);
+         return this;
+      }
+
+      @Override
+      public Set<Witness> witnesses() {
+         long[] bits = new long[stride];
+         orWitnesses(index, bits);
+         return new WitnessSet(bits);
+      }
+
+      @Override
+      public Vertex from() {
+         return vertexHandle(edgeFrom[index]);
+      }
+
+      @Override
+      public Vertex to() {
+         return vertexHandle(edgeTo[index]);
+      }
+
+      @Override
+      public void delete() {
+         deleteEdge(index);
+      }
+
+      @Override
+      public String toString() {
+         return Iterables.toString(witnesses());
+      }
+   }
+
+   /**
+    * Read-only view of a vertex' tokens, optionally restricted to a set of witnesses.
+    */
+   private class TokenSet extends AbstractSet<Token> {
+      private final int vertex;
+      private final Set<Witness> witnesses;
+
+      TokenSet(int v, Set<Witness> wits) {
+         vertex = v;
+         witnesses = wits;
+      }
+
+      @Override
+      public Iterator<Token> iterator() {
+         return new Iterator<Token>() {
+            private int next = advance(firstToken[vertex]);
+
+            private int advance(int t) {
+               while (t >= 0 && witnesses != null && !witnesses.contains(tokens[t].getWitness())) {
+                  t = nextToken[t];
+               }
+               return t;
+            }
+
+            @Override
+            public boolean hasNext() {
+               return next >= 0;
+            }
+
+            @Override
+            public Token next() {
+               if (next < 0) {
+                  throw new NoSuchElementException();
+               }
+               Token result = tokens[next];
+               next = advance(nextToken[next]);
+               return result;
+            }
+
+            @Override
+            public void remove() {
+               throw new UnsupportedOperationException();
+            }
+         };
+      }
+
+      @Override
+      public int size() {
+         int result = 0;
+         for (Iterator<Token> iter = iterator(); iter.hasNext(); iter.next()) {
+            result++;
+         }
+         return result;
+      }
+   }
+
+   /**
+    * Read-only set of witnesses, backed by a snapshot of a witness bitset.
+    */
+   private class WitnessSet extends AbstractSet<Witness> {
+      private final long[] bits;
+
+      WitnessSet(long[] b) {
+         bits = b;
+      }
+
+      @Override
+      public Iterator<Witness> iterator() {
+         return new Iterator<Witness>() {
+            private int next = nextBit(0);
+
+            private int nextBit(int from) {
+               for (int i = from; i < bits.length * 64; i++) {
+                  if ((bits[i >>> 6] & (1L << i)) != 0) {
+                     return i;
+                  }
+               }
+               return -1;
+            }
+
+            @Override
+            public boolean hasNext() {
+               return next >= 0;
+            }
+
+            @Override
+            public Witness next() {
+               if (next < 0) {
+                  throw new NoSuchElementException();
+               }
+               Witness result = witnessList.get(next);
+               next = nextBit(next + 1);
+               return result;
+            }
+
+            @Override
+            public void remove() {
+               throw new UnsupportedOperationException();
+            }
+         };
+      }
+
+      @Override
+      public boolean contains(Object o) {
+         Integer i = witnessIndices.get(o);
+         return i != null && (i >>> 6) < bits.length && (bits[i >>> 6] & (1L << i)) != 0;
+      }
+
+      @Override
+      public int size() {
+         int result = 0;
+         for (long word: bits) {
+            result += Long.bitCount(word);
+         }
+         return result;
+      }
+   }
+
+   private class CompactTransposition implements Transposition {
+      private final Set<Vertex> vertices;
+
+      CompactTransposition(Set<Vertex> verts) {
+         vertices = Sets.newHashSet(verts);
+         for (Vertex v: vertices) {
+            transpositionIndex.put(v, this);
+         }
+      }
+
+      @Override
+      public void delete() {
+         for (Vertex v: vertices) {
+            transpositionIndex.remove(v, this);
+         }
+      }
+
+      @Override
+      public Iterator<Vertex> iterator() {
+         return vertices.iterator();
+      }
+
+      @Override
+      public String toString() {
+         return Iterables.toString(vertices);
+      }
+   }
+}
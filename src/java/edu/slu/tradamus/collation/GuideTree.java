@@ -0,0 +1,225 @@
+/*
+ * Copyright 2015 Saint Louis University. Licensed under the
+ *	Educational Community License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package edu.slu.tradamus.collation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+
+/**
+ * Guide tree for progressive collation.  Each witness' token stream is reduced to a MinHash signature over
+ * its shingles of consecutive form IDs; the estimated Jaccard similarities are then clustered by average
+ * linkage (UPGMA).  Adding witnesses to the variant graph in the tree's leaf order means that the graph is
+ * built up from the closest witnesses first, rather than being inflated by an outlier at the start.
+ *
+ * @author tarkvara
+ */
+public class GuideTree {
+   private final Node root;
+
+   /**
+    * Build the guide tree for a set of encoded witnesses.
+    *
+    * @param wits witnesses which have been encoded with a <code>TokenDictionary</code>
+    */
+   public GuideTree(List<CollationWitness> wits) {
+      int n = wits.size();
+      long[][] sigs = new long[n][];
+      for (int i = 0; i < n; i++) {
+         int[] ids = wits.get(i).getFormIDs();
+         if (ids == null) {
+            throw new IllegalStateException("Witnesses must be encoded before they can be ordered by similarity.");
+         }
+         sigs[i] = getSignature(ids);
+      }
+
+      // Distances between the current clusters, which start out as single witnesses.
+      List<Node> clusters = new ArrayList<>(n);
+      double[][] dist = new double[n][n];
+      for (int i = 0; i < n; i++) {
+         clusters.add(new Node(i));
+         for (int j = 0; j < i; j++) {
+            dist[i][j] = dist[j][i] = 1.0 - getSimilarity(sigs[i], sigs[j]);
+         }
+      }
+
+      while (clusters.size() > 1) {
+         // Find the closest pair of clusters.
+         int bestI = 0, bestJ = 1;
+         for (int i = 0; i < clusters.size(); i++) {
+            for (int j = i + 1; j < clusters.size(); j++) {
+               if (dist[i][j] < dist[bestI][bestJ]) {
+                  bestI = i;
+                  bestJ = j;
+               }
+            }
+         }
+         Node a = clusters.get(bestI);
+         Node b = clusters.get(bestJ);
+         Node merged = new Node(a, b, dist[bestI][bestJ]);
+
+         // Merged cluster replaces a; its distance to everything else is the size-weighted average.
+         for (int k = 0; k < clusters.size(); k++) {
+            if (k != bestI && k != bestJ) {
+               double d = (dist[bestI][k] * a.size + dist[bestJ][k] * b.size) / merged.size;
+               dist[bestI][k] = dist[k][bestI] = d;
+            }
+         }
+         // Drop b's row and column from the distance matrix.
+         int m = clusters.size();
+         for (int k = 0; k < m; k++) {
+            System.arraycopy(dist[k], bestJ + 1, dist[k], bestJ, m - bestJ - 1);
+         }
+         double[] dropped = dist[bestJ];
+         System.arraycopy(dist, bestJ + 1, dist, bestJ, m - bestJ - 1);
+         dist[m - 1] = dropped;
+         clusters.set(bestI, merged);
+         clusters.remove(bestJ);
+      }
+      root = clusters.isEmpty() ? null : clusters.get(0);
+   }
+
+   /**
+    * Indices of the witnesses in the order in which they should be added to the variant graph.  At each
+    * node, the larger subtree goes first, and between subtrees of equal size, the more tightly-knit one.
+    *
+    * @return a permutation of the witness indices
+    */
+   public int[] getOrder() {
+      int[] result = new int[root != null ? root.size : 0];
+      if (root != null) {
+         root.collectLeaves(result, 0);
+      }
+      return result;
+   }
+
+   /**
+    * Reorder the witnesses into guide-tree order.
+    *
+    * @param wits encoded witnesses
+    * @return a new list containing the same witnesses
+    */
+   public static List<CollationWitness> order(List<CollationWitness> wits) {
+      int[] order = new GuideTree(wits).getOrder();
+      List<CollationWitness> result = new ArrayList<>(order.length);
+      for (int i: order) {
+         result.add(wits.get(i));
+      }
+      return result;
+   }
+
+   /**
+    * Compute the MinHash signature of a token stream.  Each shingle is hashed once, and the per-function
+    * hashes are derived by mixing that value with a different seed.
+    *
+    * @param ids encoded token stream
+    * @return minimum hash value for each of the hash functions
+    */
+   static long[] getSignature(int[] ids) {
+      long[] result = new long[NUM_HASHES];
+      Arrays.fill(result, Long.MAX_VALUE);
+      int len = Math.min(SHINGLE_LENGTH, ids.length);
+      for (int i = 0; len > 0 && i + len <= ids.length; i++) {
+         long h = 0;
+         for (int j = i; j < i + len; j++) {
+            h = h * 0x9E3779B97F4A7C15L + ids[j];
+         }
+         for (int k = 0; k < NUM_HASHES; k++) {
+            long v = mix(h ^ SEEDS[k]);
+            if (v < result[k]) {
+               result[k] = v;
+            }
+         }
+      }
+      return result;
+   }
+
+   /**
+    * Estimated Jaccard similarity of the shingle sets, as the fraction of hash functions whose minima agree.
+    */
+   static double getSimilarity(long[] sig1, long[] sig2) {
+      int matches = 0;
+      for (int k = 0; k < NUM_HASHES; k++) {
+         if (sig1[k] == sig2[k] && sig1[k] != Long.MAX_VALUE) {
+            matches++;
+         }
+      }
+      return (double)matches / NUM_HASHES;
+   }
+
+   /**
+    * Finalisation step of the SplitMix64 generator, which is a good cheap 64-bit mixing function.
+    */
+   private static long mix(long z) {
+      z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+      z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+      return z ^ (z >>> 31);
+   }
+
+   /**
+    * Node of the guide tree.  Leaves identify a single witness.
+    */
+   private static class Node {
+      final int witness;
+      final Node left;
+      final Node right;
+      final double height;
+      final int size;
+
+      Node(int w) {
+         witness = w;
+         left = null;
+         right = null;
+         height = 0.0;
+         size = 1;
+      }
+
+      Node(Node a, Node b, double h) {
+         witness = -1;
+         // Put the larger (or tighter) subtree first.
+         boolean aFirst = a.size != b.size ? a.size > b.size : a.height <= b.height;
+         left = aFirst ? a : b;
+         right = aFirst ? b : a;
+         height = h;
+         size = a.size + b.size;
+      }
+
+      int collectLeaves(int[] dest, int pos) {
+         if (left == null) {
+            dest[pos++] = witness;
+         } else {
+            pos = left.collectLeaves(dest, pos);
+            pos = right.collectLeaves(dest, pos);
+         }
+         return pos;
+      }
+   }
+
+   /** Number of hash functions in each signature. */
+   private static final int NUM_HASHES = 128;
+
+   /** Number of consecutive tokens in each shingle. */
+   private static final int SHINGLE_LENGTH = 3;
+
+   private static final long[] SEEDS = new long[NUM_HASHES];
+   static {
+      long s = 0x2545F4914F6CDD1DL;
+      for (int k = 0; k < NUM_HASHES; k++) {
+         s += 0x9E3779B97F4A7C15L;
+         SEEDS[k] = mix(s);
+      }
+   }
+}
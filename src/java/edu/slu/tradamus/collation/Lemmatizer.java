@@ -0,0 +1,44 @@
+/*
+ * Copyright 2013-2014 Saint Louis University. Licensed under the
+ *	Educational Community License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package edu.slu.tradamus.collation;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Source of morphological data for <code>MorphologicalComparator</code>, which maps token forms to the
+ * headwords they might be inflections of.
+ *
+ * @author tarkvara
+ */
+public interface Lemmatizer {
+   /**
+    * Identifies the lemmatiser, so that cached results from different sources don't get mixed up.
+    */
+   String getName();
+
+   /**
+    * Look up the headwords for the given forms.
+    *
+    * @param forms distinct token forms to be looked up
+    * @return headwords for each form which was successfully looked up (an empty list if the lemmatiser
+    * has no analysis for it); forms which couldn't be looked up are omitted
+    * @throws IOException if the lemmatiser is unavailable
+    */
+   Map<String, List<String>> lemmatize(Collection<String> forms) throws IOException;
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2013-2014 Saint Louis University. Licensed under the
+ *	Educational Community License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package edu.slu.tradamus.collation;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.*;
+import edu.slu.tradamus.util.LangUtils;
+
+
+/**
+ * Lemmatiser which gets its headwords from a local lexicon file rather than a remote service.  Useful for
+ * testing and for servers which can't reach Perseus.
+ * <p>
+ * The file is UTF-8 text with one form per line, followed by its headwords, all separated by tabs.  Lines
+ * starting with '#' are ignored.
+ *
+ * @author tarkvara
+ */
+public class LexiconLemmatizer implements Lemmatizer {
+   private final String name;
+   private final Map<String, List<String>> lexicon = new HashMap<>();
+
+   /**
+    * Load the lexicon from a file.
+    *
+    * @param f lexicon file
+    * @throws IOException 
+    */
+   public LexiconLemmatizer(File f) throws IOException {
+      name = "lexicon:" + f.getName();
+      try (BufferedReader reader = Files.newBufferedReader(f.toPath(), LangUtils.UTF8)) {
+         String line;
+         while ((line = reader.readLine()) != null) {
+            if (!line.isEmpty() && line.charAt(0) != '#') {
+               String[] fields = line.split("\t");
+               if (fields.length > 1) {
+                  List<String> hdwds = lexicon.get(fields[0]);
+                  if (hdwds == null) {
+                     hdwds = new ArrayList<>();
+                     lexicon.put(fields[0], hdwds);
+                  }
+                  hdwds.addAll(Arrays.asList(fields).subList(1, fields.length));
+               }
+            }
+         }
+      }
+   }
+
+   @Override
+   public String getName() {
+      return name;
+   }
+
+   @Override
+   public Map<String, List<String>> lemmatize(Collection<String> forms) {
+      Map<String, List<String>> result = new HashMap<>();
+      for (String f: forms) {
+         List<String> hdwds = lexicon.get(f);
+         result.put(f, hdwds != null ? hdwds : Collections.<String>emptyList());
+      }
+      return result;
+   }
+}
@@ -33,14 +33,47 @@ public class Misspelling {
       incorrect = Pattern.compile(incorr);
    }
 
+   /**
+    * True if neither the pattern nor the replacement use any regular-expression features, so the rule
+    * amounts to a plain substitution which can be applied in either direction.
+    */
+   public boolean isLiteral() {
+      return !REGEX_CHARS.matcher(incorrect.pattern()).find() && correct.indexOf('$') < 0 && correct.indexOf('\\') < 0;
+   }
+
+   /**
+    * Apply the rule at the first place in the word where the result sorts before the word itself (shorter
+    * first, then alphabetically).
+    *
+    * @param word word to be reduced
+    * @return the reduced word, or <code>null</code> if the rule can't reduce it
+    */
+   public String reduce(String word) {
+      Matcher mat = incorrect.matcher(word);
+      int pos = 0;
+      while (pos <= word.length() && mat.find(pos)) {
+         // find(int) resets the matcher, so appendReplacement starts from the beginning of the word.
+         StringBuffer buf = new StringBuffer();
+         mat.appendReplacement(buf, correct);
+         buf.append(word, mat.end(), word.length());
+         String fixed = buf.toString();
+         if (precedes(fixed, word)) {
+            return fixed;
+         }
+         pos = mat.start() + 1;
+      }
+      return null;
+   }
+
    /**
     * If we have a match, fix it.  Also try to find other matches further in the word and in the fixed word.
     * @param mat matcher being processed
     * @param pos position at which to start matching
     * @param fixes accumulates our fixed forms
+    * @param limit stop once <code>fixes</code> has this many entries
     */
-   private void tryToFix(Matcher mat, int pos, Set<String> fixes) {
-      if (mat.find(pos)) {
+   private void tryToFix(Matcher mat, int pos, Set<String> fixes, int limit) {
+      if (fixes.size() < limit && mat.find(pos)) {
          StringBuffer buf = new StringBuffer();
          mat.appendReplacement(buf, correct);
          int pos1 = buf.length();
@@ -50,12 +83,12 @@ public class Misspelling {
          
          // Look for subsequent matches in the original word.
          pos = mat.end();
-         tryToFix(mat, pos, fixes);
+         tryToFix(mat, pos, fixes, limit);
 
          // Look for subsequent matches in the fixed word.
          // We use pos1 rather than pos to avoid tractatus → tracctatus → traccctatus.
          mat = incorrect.matcher(fixed);
-         tryToFix(mat, pos1, fixes);
+         tryToFix(mat, pos1, fixes, limit);
       }
    }
    
@@ -64,17 +97,29 @@ public class Misspelling {
     *
     * @param word word to be fixed
     * @param fixes existing fixes introduced by other misspellings
+    * @param limit maximum number of forms which <code>fixes</code> may grow to
     */
-   public void fixAll(String word, Set<String> fixes) {
+   public void fixAll(String word, Set<String> fixes, int limit) {
       Matcher mat = incorrect.matcher(word);
       if (mat.find()) {
          // Misspelling is found in the base word, so run the fix against all the possible forms.
          Set<String> newFixes = new HashSet<>();
          for (String form: fixes) {
             mat = incorrect.matcher(form);
-            tryToFix(mat, 0, newFixes);
+            tryToFix(mat, 0, newFixes, limit - fixes.size());
          }
          fixes.addAll(newFixes);
       }
    }
+
+   /**
+    * Ordering used for canonical forms: shorter words come first, and words of the same length are
+    * ordered alphabetically.  Reductions always move down this ordering, so they're guaranteed to
+    * terminate.
+    */
+   static boolean precedes(String a, String b) {
+      return a.length() < b.length() || (a.length() == b.length() && a.compareTo(b) < 0);
+   }
+
+   private static final Pattern REGEX_CHARS = Pattern.compile("[\\\\^$.|?*+()\\[\\]{}]");
 }
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2013-2014 Saint Louis University. Licensed under the
+ *	Educational Community License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package edu.slu.tradamus.collation;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import edu.slu.tradamus.text.TextAnchor;
+import edu.slu.tradamus.text.Transcription;
+import static edu.slu.tradamus.util.JsonUtils.getObjectMapper;
+
+
+/**
+ * Writes motes to a stream as they are produced, as a JSON array containing one array of "tr-mote"
+ * annotations per mote.  Only the fields relevant to a raw mote annotation are written.
+ *
+ * @author tarkvara
+ */
+public class MoteJsonWriter implements MoteVisitor, Closeable {
+   private final JsonGenerator jGen;
+
+   /**
+    * Start writing a collation result.
+    *
+    * @param dest stream to which the results will be written; it is closed when the writer is closed
+    * @throws IOException 
+    */
+   public MoteJsonWriter(OutputStream dest) throws IOException {
+      jGen = getObjectMapper().getFactory().createGenerator(dest, JsonEncoding.UTF8);
+      jGen.writeStartArray();
+   }
+
+   @Override
+   public void visitMote(Mote m) throws IOException {
+      jGen.writeStartArray();
+      for (TextAnchor anch: m.getAnchors()) {
+         Transcription t = anch.getStartPage().getTranscription();
+         jGen.writeStartObject();
+         jGen.writeStringField("type", "tr-mote");
+         jGen.writeNumberField("startPage", anch.getStartPage().getID());
+         jGen.writeNumberField("startOffset", anch.getStartOffset());
+         jGen.writeNumberField("endPage", anch.getEndPage().getID());
+         jGen.writeNumberField("endOffset", anch.getEndOffset());
+         jGen.writeStringField("content", t.getText(anch));
+         jGen.writeStringField("target", "#" + t.getWitnessID());
+         jGen.writeEndObject();
+      }
+      jGen.writeEndArray();
+   }
+
+   /**
+    * Close off the outer array and flush everything to the underlying stream.
+    */
+   @Override
+   public void close() throws IOException {
+      jGen.writeEndArray();
+      jGen.close();
+   }
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright 2013-2014 Saint Louis University. Licensed under the
+ *	Educational Community License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package edu.slu.tradamus.collation;
+
+import java.io.IOException;
+
+
+/**
+ * Callback which receives motes one at a time as the collation engine produces them, so that the
+ * results can be written out without first being collected into a list.
+ *
+ * @author tarkvara
+ */
+public interface MoteVisitor {
+   /**
+    * Called for each mote, in collation order.
+    *
+    * @param m the mote which has just been produced
+    * @throws IOException if the mote could not be written
+    */
+   void visitMote(Mote m) throws IOException;
+}
@@ -15,10 +15,8 @@
 package edu.slu.tradamus.collation;
 
 import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.util.*;
+import java.util.Comparator;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import eu.interedition.collatex.Token;
@@ -29,27 +27,47 @@ import eu.interedition.collatex.Token;
  * @author tarkvara
  */
 public class OrthographicComparator implements Comparator<Token> {
-   private final List<Misspelling> rules = new ArrayList<>();
-   private final Map<String, Set<String>> corrections = new HashMap<>();
+   /** Compiled misspelling dictionaries, shared with other collations. */
+   private OrthographicNormalizer normalizer;
+
+   /**
+    * For each token form in the collation's dictionary, the sorted IDs of its canonical keys.
+    */
+   private int[][] equivalents;
 
    public OrthographicComparator() {
    }
+
+   /**
+    * Create a comparator which uses an already-compiled normaliser.
+    *
+    * @param norm compiled misspelling rules
+    */
+   public OrthographicComparator(OrthographicNormalizer norm) {
+      normalizer = norm;
+   }
    
    /**
-    * Loads our misspelling rules from the database.
+    * Get our misspelling rules, compiled from the database.
     *
     * @param conn connection to MySQL database
     * @throws SQLException 
     */
    public void loadDictionaries(Connection conn, String... dicts) throws SQLException {
-      try (PreparedStatement stmt = conn.prepareStatement("SELECT `correct`, `incorrect` FROM `misspellings` WHERE `dictionary` = ?")) {
-         for (String d: dicts) {
-            stmt.setString(1, d);
-            ResultSet rs = stmt.executeQuery();
-            while (rs.next()) {
-               rules.add(new Misspelling(rs.getString(1), rs.getString(2)));
-            }
-         }
+      normalizer = OrthographicNormalizer.getNormalizer(conn, dicts);
+   }
+
+   /**
+    * Once the witnesses have been encoded, look up the canonical keys for every token form, so that
+    * comparison doesn't need to touch any strings.
+    *
+    * @param dict dictionary used to encode the witnesses being collated
+    */
+   public void buildEquivalences(TokenDictionary dict) {
+      TokenDictionary keyDict = new TokenDictionary();
+      equivalents = new int[dict.size()][];
+      for (int i = 0; i < equivalents.length; i++) {
+         equivalents[i] = keyDict.internAll(normalizer.getKeys(dict.getForm(i)));
       }
    }
 
@@ -62,39 +80,18 @@ public class OrthographicComparator implements Comparator<Token> {
     */
    @Override
    public int compare(Token tok1, Token tok2) {
-      String word1 = ((CollationToken)tok1).text;
-      String word2 = ((CollationToken)tok2).text;
+      int id1 = ((CollationToken)tok1).formID;
+      int id2 = ((CollationToken)tok2).formID;
       
-      int result = word1.compareTo(word2);
+      int result = Integer.compare(id1, id2);
       if (result != 0) {
-         Set<String> corr1 = getCorrections(word1);
-         Set<String> corr2 = getCorrections(word2);
-         if (!Collections.disjoint(corr1, corr2)) {
-            LOG.log(Level.INFO, "{0} ≈ {1}", new Object[] { word1, word2 });
+         if (TokenDictionary.intersects(equivalents[id1], equivalents[id2])) {
+            LOG.log(Level.INFO, "{0} ≈ {1}", new Object[] { ((CollationToken)tok1).text, ((CollationToken)tok2).text });
             result = 0;
          }
       }
       return result;
    }
    
-   /**
-    * Use all rules which apply to make a set of all the possible words of which this is a misspelling.
-    * @param word misspelled word to be fixed
-    * @param pos position at which to apply the fix
-    * @return all possible correct words which might correspond to <c>word</c>
-    */
-   private Set<String> getCorrections(String word) {
-      Set<String> result = corrections.get(word);
-      if (result == null) {
-         result = new HashSet<>();
-         result.add(word);
-         for (Misspelling r: rules) {
-            r.fixAll(word, result);
-         }
-         corrections.put(word, result);
-      }
-      return result;
-   }
-
    private static final Logger LOG = Logger.getLogger(OrthographicComparator.class.getName());
 }
@@ -0,0 +1,222 @@
+/*
+ * Copyright 2013-2014 Saint Louis University. Licensed under the
+ *	Educational Community License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package edu.slu.tradamus.collation;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+
+/**
+ * A set of misspelling dictionaries compiled into a normaliser which maps each word to a canonical key.
+ * Rules are applied only in the direction which makes the word shorter (or, for equal lengths, earlier in
+ * the alphabet), so normalisation always terminates, and words which normalise to the same key are
+ * orthographic variants of each other.
+ * <p>
+ * Plain substitutions (e.g. ph ↔ f) can be applied in either direction, so they're fully handled by
+ * normalisation.  Regular-expression rules which only make words longer (e.g. c → ch before a vowel)
+ * can't be reversed, so for those we fall back on expanding the word's possible corrections, up to a
+ * fixed limit, and normalising each of them.
+ * <p>
+ * Compiled dictionaries are shared by all collations, and are recompiled when the contents of the
+ * <code>misspellings</code> table change.
+ *
+ * @author tarkvara
+ */
+public class OrthographicNormalizer {
+   /** Signature of the misspellings table contents this normaliser was compiled from. */
+   private final String signature;
+
+   /** Plain substitutions, as pairs of (from, to), where <code>to</code> precedes <code>from</code>. */
+   private final List<String[]> substitutions = new ArrayList<>();
+
+   /** Regular-expression rules, which are applied wherever they reduce the word. */
+   private final List<Misspelling> patterns = new ArrayList<>();
+
+   /** Keys for words we've already seen. */
+   private final Map<String, Set<String>> keys = new ConcurrentHashMap<>();
+
+   private OrthographicNormalizer(String sig, List<Misspelling> rules) {
+      signature = sig;
+      Set<String> seen = new HashSet<>();
+      for (Misspelling r: rules) {
+         if (r.isLiteral()) {
+            String a = r.incorrect.pattern();
+            String b = r.correct;
+            if (!a.equals(b)) {
+               String[] subst = Misspelling.precedes(b, a) ? new String[] { a, b } : new String[] { b, a };
+               if (seen.add(subst[0] + '\t' + subst[1])) {
+                  substitutions.add(subst);
+               }
+            }
+         } else {
+            patterns.add(r);
+         }
+      }
+   }
+
+   /**
+    * Get the compiled normaliser for the given dictionaries, compiling it if necessary.
+    *
+    * @param conn connection to MySQL database
+    * @param dicts names of the misspelling dictionaries to be used
+    * @return a normaliser which reflects the current contents of the dictionaries
+    */
+   public static OrthographicNormalizer getNormalizer(Connection conn, String... dicts) throws SQLException {
+      String[] sortedDicts = dicts.clone();
+      Arrays.sort(sortedDicts);
+      String cacheKey = Arrays.toString(sortedDicts);
+      String sig = getSignature(conn, sortedDicts);
+
+      OrthographicNormalizer result = COMPILED.get(cacheKey);
+      if (result == null || !result.signature.equals(sig)) {
+         List<Misspelling> rules = new ArrayList<>();
+         try (PreparedStatement stmt = conn.prepareStatement("SELECT `correct`, `incorrect` FROM `misspellings` WHERE `dictionary` = ? ORDER BY `id`")) {
+            for (String d: sortedDicts) {
+               stmt.setString(1, d);
+               ResultSet rs = stmt.executeQuery();
+               while (rs.next()) {
+                  rules.add(new Misspelling(rs.getString(1), rs.getString(2)));
+               }
+            }
+         }
+         result = new OrthographicNormalizer(sig, rules);
+         COMPILED.put(cacheKey, result);
+         LOG.log(Level.INFO, "Compiled {0} into {1} substitutions and {2} patterns.", new Object[] { cacheKey, result.substitutions.size(), result.patterns.size() });
+      }
+      return result;
+   }
+
+   /**
+    * Signature of the dictionary contents this normaliser was compiled from, so that anything derived from
+    * it can tell when the dictionaries have been edited.
+    *
+    * @return signature, or an empty string if the rules didn't come from the database
+    */
+   public String getSignature() {
+      return signature;
+   }
+
+   /**
+    * Compile a normaliser from rules which didn't come from the database.  The result isn't shared.
+    *
+    * @param rules misspelling rules to be compiled
+    * @return a normaliser for the given rules
+    */
+   public static OrthographicNormalizer compile(List<Misspelling> rules) {
+      return new OrthographicNormalizer("", rules);
+   }
+
+   /**
+    * Cheap check for whether the dictionaries have changed since we compiled them.
+    */
+   private static String getSignature(Connection conn, String[] dicts) throws SQLException {
+      StringBuilder buf = new StringBuilder();
+      try (PreparedStatement stmt = conn.prepareStatement("SELECT COUNT(*), COALESCE(SUM(CRC32(CONCAT(`id`, '\\t', `correct`, '\\t', `incorrect`))), 0) " +
+              "FROM `misspellings` WHERE `dictionary` = ?")) {
+         for (String d: dicts) {
+            stmt.setString(1, d);
+            ResultSet rs = stmt.executeQuery();
+            if (rs.next()) {
+               buf.append(rs.getLong(1)).append(':').append(rs.getLong(2)).append(';');
+            }
+         }
+      }
+      return buf.toString();
+   }
+
+   /**
+    * Reduce a word to its canonical form by applying the rules until none of them reduces it any further.
+    *
+    * @param word word to be normalised
+    * @return canonical form of <code>word</code>
+    */
+   public String normalize(String word) {
+      String result = word;
+      for (int i = 0; i < MAX_REDUCTIONS; i++) {
+         String reduced = reduceOnce(result);
+         if (reduced == null) {
+            break;
+         }
+         result = reduced;
+      }
+      return result;
+   }
+
+   private String reduceOnce(String word) {
+      for (String[] subst: substitutions) {
+         if (word.contains(subst[0])) {
+            return word.replace(subst[0], subst[1]);
+         }
+      }
+      for (Misspelling r: patterns) {
+         String reduced = r.reduce(word);
+         if (reduced != null) {
+            return reduced;
+         }
+      }
+      return null;
+   }
+
+   /**
+    * Get the canonical keys for a word.  Usually there is just one, but if any of the regular-expression
+    * rules can make the word longer, each of the resulting corrections contributes its own key.
+    *
+    * @param word word to be looked up
+    * @return canonical keys; two words are orthographic variants if their keys overlap
+    */
+   public Set<String> getKeys(String word) {
+      Set<String> result = keys.get(word);
+      if (result == null) {
+         Set<String> variants = new HashSet<>();
+         variants.add(word);
+         for (Misspelling r: patterns) {
+            if (variants.size() >= MAX_VARIANTS) {
+               LOG.log(Level.FINE, "Variants of {0} truncated at {1}.", new Object[] { word, MAX_VARIANTS });
+               break;
+            }
+            r.fixAll(word, variants, MAX_VARIANTS);
+         }
+         result = new HashSet<>();
+         for (String v: variants) {
+            result.add(normalize(v));
+         }
+         if (keys.size() >= MAX_CACHED_WORDS) {
+            keys.clear();
+         }
+         keys.put(word, result);
+      }
+      return result;
+   }
+
+   /** Compiled normalisers, keyed by their list of dictionary names. */
+   private static final Map<String, OrthographicNormalizer> COMPILED = new ConcurrentHashMap<>();
+
+   /** Upper limit on the number of corrections generated for a single word. */
+   private static final int MAX_VARIANTS = 64;
+
+   /** Safety limit on the number of reductions applied to a single word. */
+   private static final int MAX_REDUCTIONS = 100;
+
+   /** Once this many words have been looked up, we start the cache of keys afresh. */
+   private static final int MAX_CACHED_WORDS = 100000;
+
+   private static final Logger LOG = Logger.getLogger(OrthographicNormalizer.class.getName());
+}
@@ -0,0 +1,304 @@
+/*
+ * Copyright 2015 Saint Louis University. Licensed under the
+ *	Educational Community License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package edu.slu.tradamus.collation;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import edu.slu.tradamus.annotation.Annotation;
+import edu.slu.tradamus.text.Page;
+import edu.slu.tradamus.text.Transcription;
+import edu.slu.tradamus.util.LangUtils;
+
+
+/**
+ * Persistent cache of tokenised pages, so that pages which haven't changed since the last collation don't
+ * have to be tokenised again.  Each page's token stream is stored after TEI handling but before line-break
+ * merging (which can join tokens across pages), together with a fingerprint of everything which went into
+ * it: the page text and every non-line annotation which touches the page.  A stream is only used if its
+ * fingerprint still matches, so edits to annotations are caught however they were made; changes to the
+ * page text also delete the page's entries outright.
+ * <p>
+ * Streams are stored per set of tokenising options, since TEI handling and normalisation affect them.
+ *
+ * @author tarkvara
+ */
+public class PageTokenCache {
+   private final Transcription transcription;
+   private final String options;
+   private final int firstPage;
+   private final int lastPage;
+
+   /** Non-line annotations for the whole transcription. */
+   private List<Annotation> annotations;
+
+   /** Fingerprint of each page in our range, indexed from <code>firstPage</code>. */
+   private String[] fingerprints;
+
+   /** Stored token streams whose fingerprints matched, indexed from <code>firstPage</code>. */
+   private byte[][] cached;
+
+   /** Newly-tokenised pages which need to be stored, by page index. */
+   private final Map<Integer, byte[]> fresh = new LinkedHashMap<>();
+
+   /**
+    * Create a cache for a range of pages within a transcription.
+    *
+    * @param transcr transcription being tokenised, with its pages loaded
+    * @param opts tokenising options which affect the token streams
+    * @param pg1 index of first page being tokenised
+    * @param pg2 index of last page being tokenised
+    */
+   PageTokenCache(Transcription transcr, String opts, int pg1, int pg2) {
+      transcription = transcr;
+      options = opts;
+      firstPage = pg1;
+      lastPage = pg2;
+   }
+
+   /**
+    * Load the transcription's annotations, fingerprint our pages, and fetch any stored streams which are
+    * still valid.  The annotations are read without going through <code>Entity.loadFields</code>, since
+    * tokenising only needs their types and anchors.
+    *
+    * @param conn connection to SQL database
+    */
+   void load(Connection conn) throws SQLException {
+      Map<Integer, Page> pagesByID = new HashMap<>();
+      for (Page pg: transcription.getPages()) {
+         pagesByID.put(pg.getID(), pg);
+      }
+
+      int numPages = lastPage - firstPage + 1;
+      Hasher[] hashers = new Hasher[numPages];
+      for (int i = 0; i < numPages; i++) {
+         hashers[i] = Hashing.murmur3_128().newHasher();
+         hashers[i].putString(transcription.getPage(firstPage + i).getText(), LangUtils.UTF8);
+      }
+
+      annotations = new ArrayList<>();
+      try (PreparedStatement stmt = conn.prepareStatement(SELECT_ANCHORS)) {
+         stmt.setInt(1, transcription.getID());
+         ResultSet rs = stmt.executeQuery();
+         while (rs.next()) {
+            Page startPage = pagesByID.get(rs.getInt(3));
+            Page endPage = pagesByID.get(rs.getInt(5));
+            if (startPage == null || endPage == null) {
+               // Not fully anchored within this transcription, so it can't affect tokenisation.
+               continue;
+            }
+            Annotation ann = new Annotation(rs.getInt(1));
+            ann.setType(rs.getString(2));
+            ann.setStartPage(startPage);
+            ann.setStartOffset(rs.getInt(4));
+            ann.setEndPage(endPage);
+            ann.setEndOffset(rs.getInt(6));
+            annotations.add(ann);
+
+            for (int i = Math.max(startPage.getIndex(), firstPage); i <= Math.min(endPage.getIndex(), lastPage); i++) {
+               Hasher h = hashers[i - firstPage];
+               h.putString(ann.getType(), LangUtils.UTF8);
+               h.putInt(startPage.getIndex()).putInt(ann.getStartOffset());
+               h.putInt(endPage.getIndex()).putInt(ann.getEndOffset());
+            }
+         }
+      }
+
+      fingerprints = new String[numPages];
+      for (int i = 0; i < numPages; i++) {
+         fingerprints[i] = hashers[i].hash().toString();
+      }
+
+      cached = new byte[numPages][];
+      int hits = 0;
+      try (PreparedStatement stmt = conn.prepareStatement(SELECT_TOKENS)) {
+         stmt.setInt(1, transcription.getID());
+         stmt.setString(2, options);
+         stmt.setInt(3, firstPage);
+         stmt.setInt(4, lastPage);
+         ResultSet rs = stmt.executeQuery();
+         while (rs.next()) {
+            int i = rs.getInt(1) - firstPage;
+            if (fingerprints[i].equals(rs.getString(2))) {
+               cached[i] = rs.getBytes(3);
+               hits++;
+            }
+         }
+      }
+      LOG.log(Level.FINE, "Transcription {0}: {1} of {2} pages tokenised from cache.", new Object[] { transcription.getID(), hits, numPages });
+   }
+
+   /**
+    * Non-line annotations for the transcription.
+    */
+   List<Annotation> getAnnotations() {
+      return annotations;
+   }
+
+   /**
+    * Get the stored tokens for a page, if they're still valid.
+    *
+    * @param w witness to which the tokens will belong
+    * @param pageIndex index of page within transcription
+    * @return the page's tokens, or null if the page needs to be tokenised
+    */
+   List<CollationToken> getTokens(CollationWitness w, int pageIndex) {
+      byte[] data = cached[pageIndex - firstPage];
+      if (data != null) {
+         Page pg = transcription.getPage(pageIndex);
+         try (DataInputStream input = new DataInputStream(new ByteArrayInputStream(data))) {
+            if (input.readByte() == FORMAT_VERSION) {
+               int n = input.readInt();
+               List<CollationToken> result = new ArrayList<>(n);
+               for (int i = 0; i < n; i++) {
+                  int start = input.readInt();
+                  int end = input.readInt();
+                  CollationToken tok = new CollationToken(w, input.readUTF(), pg, start);
+                  tok.setEndOffset(end);
+                  tok.key = input.readUTF();
+                  result.add(tok);
+               }
+               return result;
+            }
+         } catch (IOException ex) {
+            LOG.log(Level.WARNING, "Unable to read cached tokens for page {0}: {1}", new Object[] { pg.getID(), LangUtils.getMessage(ex) });
+         }
+         cached[pageIndex - firstPage] = null;
+      }
+      return null;
+   }
+
+   /**
+    * Record a freshly-tokenised page, to be saved by <code>store</code>.
+    *
+    * @param pageIndex index of page within transcription
+    * @param toks the page's tokens, after TEI handling, with their keys already filled in
+    */
+   void put(int pageIndex, List<CollationToken> toks) {
+      try {
+         ByteArrayOutputStream bytes = new ByteArrayOutputStream(toks.size() * 24 + 8);
+         try (DataOutputStream output = new DataOutputStream(bytes)) {
+            output.writeByte(FORMAT_VERSION);
+            output.writeInt(toks.size());
+            for (CollationToken tok: toks) {
+               output.writeInt(tok.getStartOffset());
+               output.writeInt(tok.getEndOffset());
+               output.writeUTF(tok.text);
+               output.writeUTF(tok.key);
+            }
+         }
+         fresh.put(pageIndex, bytes.toByteArray());
+      } catch (IOException ex) {
+         // Can't happen with a ByteArrayOutputStream.
+         throw new IllegalStateException(ex);
+      }
+   }
+
+   /**
+    * Is the given page's stored stream still valid?
+    */
+   boolean isCached(int pageIndex) {
+      return cached[pageIndex - firstPage] != null;
+   }
+
+   /**
+    * Save any pages which were tokenised from scratch.
+    *
+    * @param conn connection to SQL database
+    */
+   void store(Connection conn) throws SQLException {
+      if (!fresh.isEmpty()) {
+         try (PreparedStatement stmt = conn.prepareStatement("REPLACE INTO `page_tokens` (`page`, `options`, `fingerprint`, `tokens`) VALUES (?, ?, ?, ?)")) {
+            for (Map.Entry<Integer, byte[]> e: fresh.entrySet()) {
+               stmt.setInt(1, transcription.getPage(e.getKey()).getID());
+               stmt.setString(2, options);
+               stmt.setString(3, fingerprints[e.getKey() - firstPage]);
+               stmt.setBytes(4, e.getValue());
+               stmt.addBatch();
+            }
+            stmt.executeBatch();
+         }
+         fresh.clear();
+      }
+   }
+
+   /**
+    * Feed the types and anchors of a transcription's non-line annotations into a hash, so that callers
+    * can tell whether tokenising the transcription might give a different result without doing it.
+    *
+    * @param conn connection to SQL database
+    * @param transcrID ID of transcription whose annotations are to be hashed
+    * @param h hasher which receives the anchors
+    */
+   static void fingerprintAnnotations(Connection conn, int transcrID, Hasher h) throws SQLException {
+      int count = 0;
+      try (PreparedStatement stmt = conn.prepareStatement(SELECT_ANCHORS)) {
+         stmt.setInt(1, transcrID);
+         ResultSet rs = stmt.executeQuery();
+         while (rs.next()) {
+            String type = rs.getString(2);
+            h.putInt(type.length()).putString(type, LangUtils.UTF8);
+            h.putInt(rs.getInt(3)).putInt(rs.getInt(4));
+            h.putInt(rs.getInt(5)).putInt(rs.getInt(6));
+            count++;
+         }
+      }
+      h.putInt(count);
+   }
+
+   /**
+    * The page's text has changed, so any stored streams for it are useless.
+    *
+    * @param conn connection to SQL database
+    * @param pageID ID of modified page
+    */
+   public static void invalidatePage(Connection conn, int pageID) throws SQLException {
+      try (PreparedStatement stmt = conn.prepareStatement("DELETE FROM `page_tokens` WHERE `page` = ?")) {
+         stmt.setInt(1, pageID);
+         stmt.executeUpdate();
+      }
+   }
+
+   /**
+    * Bumped whenever the tokeniser or the stored format changes, so that old streams are ignored.
+    */
+   private static final byte FORMAT_VERSION = 1;
+
+   /**
+    * Anchors of the non-line annotations, in the same order every time so that fingerprints are stable.
+    */
+   private static final String SELECT_ANCHORS = "SELECT annotations.id, annotations.`type`, `start_page`, `start_offset`, `end_page`, `end_offset` " +
+         "FROM `annotations` " +
+         "JOIN `pages` ON `start_page` = pages.id " +
+         "WHERE pages.`transcription` = ? AND annotations.`type` <> 'line' AND annotations.`type` <> 'note' " +
+         "ORDER BY annotations.id";
+
+   private static final String SELECT_TOKENS = "SELECT pages.index, page_tokens.`fingerprint`, page_tokens.`tokens` FROM `page_tokens` " +
+         "JOIN `pages` ON page_tokens.`page` = pages.id " +
+         "WHERE pages.`transcription` = ? AND page_tokens.`options` = ? AND pages.index BETWEEN ? AND ?";
+
+   private static final Logger LOG = Logger.getLogger(PageTokenCache.class.getName());
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright 2013-2014 Saint Louis University. Licensed under the
+ *	Educational Community License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package edu.slu.tradamus.collation;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import edu.slu.tradamus.util.LangUtils;
+
+
+/**
+ * Lemmatiser which uses the Perseus (Tufts) morphology service.  Requests are split into chunks which are
+ * sent concurrently, each with its own timeout.  A chunk which fails or times out is simply omitted from
+ * the results, so that its forms will be tried again next time.
+ *
+ * @author tarkvara
+ */
+public class PerseusLemmatizer implements Lemmatizer {
+
+   /** For extracting the entry from an rdf:about attribute. */
+   private final Pattern rdfAboutPattern = Pattern.compile("urn:TuftsMorphologyService:(.*):morpheuslat");
+
+   /** Sends chunks to Perseus, shared by all collations so we don't swamp the service. */
+   private final ExecutorService chunkPool = Executors.newFixedThreadPool(PERSEUS_THREADS, new ThreadFactory() {
+      private final AtomicInteger threadNum = new AtomicInteger();
+
+      @Override
+      public Thread newThread(Runnable r) {
+         Thread t = new Thread(r, "perseus-lookup-" + threadNum.incrementAndGet());
+         t.setDaemon(true);
+         return t;
+      }
+   });
+
+   @Override
+   public String getName() {
+      return "morpheuslat";
+   }
+
+   @Override
+   public Map<String, List<String>> lemmatize(Collection<String> forms) throws IOException {
+      LOG.log(Level.INFO, "Sending {0} tokens to Perseus for processing.", forms.size());
+
+      List<String> lookups = new ArrayList<>(forms);
+      List<Future<Map<String, List<String>>>> chunks = new ArrayList<>();
+      for (int i = 0; i < lookups.size(); i += PERSEUS_CHUNK) {
+         final List<String> chunk = lookups.subList(i, Math.min(i + PERSEUS_CHUNK, lookups.size()));
+         chunks.add(chunkPool.submit(new Callable<Map<String, List<String>>>() {
+            @Override
+            public Map<String, List<String>> call() throws IOException, XMLStreamException {
+               return lookUpChunk(chunk);
+            }
+         }));
+      }
+
+      Map<String, List<String>> result = new HashMap<>();
+      long deadline = System.currentTimeMillis() + TOTAL_TIMEOUT;
+      int failures = 0;
+      for (Future<Map<String, List<String>>> f: chunks) {
+         try {
+            result.putAll(f.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS));
+         } catch (ExecutionException | TimeoutException ex) {
+            LOG.log(Level.WARNING, "Perseus lookup failed", ex instanceof ExecutionException ? ex.getCause() : ex);
+            f.cancel(true);
+            failures++;
+         } catch (InterruptedException ex) {
+            for (Future<Map<String, List<String>>> f2: chunks) {
+               f2.cancel(true);
+            }
+            throw new IOException("Interrupted while waiting for Perseus.", ex);
+         }
+      }
+      if (failures == chunks.size() && failures > 0) {
+         throw new IOException("Unable to get morphology from Perseus.");
+      }
+      LOG.log(Level.INFO, "{0} forms analysed by Perseus, {1} of {2} chunks failed.", new Object[] { result.size(), failures, chunks.size() });
+      return result;
+   }
+
+   /**
+    * Post a single chunk of forms to Perseus.
+    *
+    * @param chunk forms to be looked up
+    * @return headwords for every form in the chunk
+    */
+   private Map<String, List<String>> lookUpChunk(List<String> chunk) throws IOException, XMLStreamException {
+      URL morphURL = new URL("http://services.perseids.org/bsp/morphologyservice/analysis/text");
+      HttpURLConnection morphConn = (HttpURLConnection)morphURL.openConnection();
+      morphConn.setConnectTimeout(CONNECT_TIMEOUT);
+      morphConn.setReadTimeout(READ_TIMEOUT);
+      morphConn.setRequestMethod("POST");
+      morphConn.setRequestProperty("Content-Type", "application/x-www-form-urlencoded; charset=UTF-8");
+      morphConn.setDoOutput(true);
+
+      try (OutputStream contStrm = morphConn.getOutputStream()) {
+         contStrm.write("lang=lat&engine=morpheuslat&mime_type=text/plain&wait=true&text=".getBytes(LangUtils.UTF8));
+         for (String form: chunk) {
+            contStrm.write(form.getBytes(LangUtils.UTF8));
+            contStrm.write(' ');
+         }
+      }
+      morphConn.connect();
+
+      Map<String, List<String>> morphemes;
+      try (InputStream input = morphConn.getInputStream()) {
+         morphemes = parsePerseusOutput(input);
+      }
+
+      // Forms which Perseus didn't mention have no analysis, which is also worth knowing.
+      Map<String, List<String>> result = new HashMap<>();
+      for (String form: chunk) {
+         List<String> hdwds = morphemes.get(form);
+         result.put(form, hdwds != null ? hdwds : Collections.<String>emptyList());
+      }
+      return result;
+   }
+
+   /**
+    * Parse the output we get back from the Perseus morphology service.  It's a big mass of OAC-style XML.
+    * The results for each word come back as an OAC:Annotation tag, containing a number of dict entries.
+    * Within the dict entries, we are currently only interested in the hdwd tags.
+    * @param input stream of XML output from Perseus
+    * @return headwords for each entry which Perseus was able to analyse
+    * @throws XMLStreamException 
+    */
+   private Map<String, List<String>> parsePerseusOutput(InputStream input) throws XMLStreamException {
+      XMLInputFactory factory = XMLInputFactory.newInstance();
+      XMLStreamReader reader = null;
+      Map<String, List<String>> morphemes = new HashMap<>();
+
+      try {
+         reader = factory.createXMLStreamReader(input);
+         String entry = null;
+         List<String> headwords = new ArrayList<>();
+         while (reader.hasNext()) {
+            switch (reader.next()) {
+               case XMLStreamConstants.START_ELEMENT:
+                  switch (reader.getLocalName()) {
+                     case "Annotation":
+                        entry = processEntry(reader);
+                        break;
+                     case "hdwd":
+                        if (entry != null) {
+                           headwords.add(reader.getElementText());
+                        }
+                        break;
+                     default:
+                        LOG.log(Level.FINE, "Ignoring {0}", reader.getLocalName());
+                        break;
+                  }
+                  break;
+               case XMLStreamConstants.END_ELEMENT:
+                  switch (reader.getLocalName()) {
+                     case "Annotation":
+                        if (headwords.size() > 0) {
+                           morphemes.put(entry, headwords);
+                           headwords = new ArrayList<>();
+                        }
+                        entry = null;
+                        break;
+                  }
+            }
+         }
+      } finally {
+         if (reader != null) {
+            reader.close();
+         }
+      }
+      return morphemes;
+   }
+
+   /**
+    * Process an oac:Annotation element which represents a single looked-up entry.
+    *
+    * @param reader parser positioned at the element
+    * @return the entry being processed
+    */
+   private String processEntry(XMLStreamReader reader) {
+      String about = reader.getAttributeValue(null, "about");
+      Matcher matcher = rdfAboutPattern.matcher(about);
+      if (matcher.find()) {
+         return matcher.group(1);
+      }
+      return null;
+   }
+
+   /**
+    * If we send too much to Perseus in one request, it blows up with a 500 error. Limit our calls to
+    * 1000 tokens at a time.
+    */
+   private static final int PERSEUS_CHUNK = 1000;
+
+   /** Number of chunks which may be in flight at once. */
+   private static final int PERSEUS_THREADS = 4;
+
+   /** Timeouts (in milliseconds) for each chunk's HTTP connection. */
+   private static final int CONNECT_TIMEOUT = 10000;
+   private static final int READ_TIMEOUT = 120000;
+
+   /** Overall limit (in milliseconds) on how long we wait for a single lookup. */
+   private static final long TOTAL_TIMEOUT = 300000;
+
+   private static final Logger LOG = Logger.getLogger(PerseusLemmatizer.class.getName());
+}
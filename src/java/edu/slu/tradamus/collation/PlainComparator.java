@@ -26,12 +26,13 @@ import eu.interedition.collatex.Token;
  */
 public class PlainComparator implements Comparator<Token> {
    /**
-    * This comparator compares to tokens based on their content.
+    * This comparator compares to tokens based on their content.  Since identical text has been encoded to
+    * the same dictionary ID, this is just an integer comparison.
     */
    @Override
    public int compare(Token base, Token witness) {
-      int result = ((CollationToken)base).text.compareTo(((CollationToken)witness).text);
-      if (result == 0) {
+      int result = Integer.compare(((CollationToken)base).formID, ((CollationToken)witness).formID);
+      if (result == 0 && LOG.isLoggable(Level.FINE)) {
          LOG.log(Level.FINE, "{0} and {1} were equal", new Object[] { base, witness });
       }
       return result;
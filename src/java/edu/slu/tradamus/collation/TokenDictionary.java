@@ -0,0 +1,127 @@
+/*
+ * Copyright 2013-2014 Saint Louis University. Licensed under the
+ *	Educational Community License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package edu.slu.tradamus.collation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Per-collation dictionary which assigns a small integer ID to every distinct token form.  Once the
+ * witnesses have been encoded, comparators can work with the IDs instead of comparing strings.
+ *
+ * @author tarkvara
+ */
+public class TokenDictionary {
+   private final Map<String, Integer> ids = new HashMap<>();
+   private final List<String> forms = new ArrayList<>();
+
+   public TokenDictionary() {
+   }
+
+   /**
+    * Create a dictionary and use it to encode the given witnesses.
+    *
+    * @param wits tokenised witnesses to be encoded
+    */
+   public TokenDictionary(List<CollationWitness> wits) {
+      for (CollationWitness w: wits) {
+         w.encode(this);
+      }
+   }
+
+   /**
+    * Get the ID for the given form, assigning a new one if we haven't seen it before.
+    *
+    * @param form token text to be looked up
+    * @return ID of <code>form</code> within this dictionary
+    */
+   public int intern(String form) {
+      Integer result = ids.get(form);
+      if (result == null) {
+         result = forms.size();
+         ids.put(form, result);
+         forms.add(form);
+      }
+      return result;
+   }
+
+   /**
+    * Look up an existing form without adding it to the dictionary.
+    *
+    * @param form token text to be looked up
+    * @return ID of <code>form</code>, or -1 if it is not in the dictionary
+    */
+   public int find(String form) {
+      Integer result = ids.get(form);
+      return result != null ? result : -1;
+   }
+
+   /**
+    * Get the form which corresponds to the given ID.
+    */
+   public String getForm(int id) {
+      return forms.get(id);
+   }
+
+   /**
+    * Number of distinct forms in the dictionary.
+    */
+   public int size() {
+      return forms.size();
+   }
+
+   /**
+    * Convert a collection of forms into a sorted array of IDs, suitable for passing to
+    * <code>intersects</code>.
+    *
+    * @param vals forms to be converted
+    * @return sorted array of IDs
+    */
+   public int[] internAll(Collection<String> vals) {
+      int[] result = new int[vals.size()];
+      int i = 0;
+      for (String v: vals) {
+         result[i++] = intern(v);
+      }
+      Arrays.sort(result);
+      return result;
+   }
+
+   /**
+    * Check whether two sorted ID arrays have any elements in common.
+    *
+    * @param ids1 first sorted array of IDs
+    * @param ids2 second sorted array of IDs
+    * @return true if the arrays share at least one ID
+    */
+   public static boolean intersects(int[] ids1, int[] ids2) {
+      int i = 0, j = 0;
+      while (i < ids1.length && j < ids2.length) {
+         if (ids1[i] == ids2[j]) {
+            return true;
+         } else if (ids1[i] < ids2[j]) {
+            i++;
+         } else {
+            j++;
+         }
+      }
+      return false;
+   }
+}
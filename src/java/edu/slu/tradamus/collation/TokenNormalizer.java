@@ -0,0 +1,221 @@
+/*
+ * Copyright 2015 Saint Louis University. Licensed under the
+ *	Educational Community License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package edu.slu.tradamus.collation;
+
+import java.text.Normalizer;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+
+/**
+ * Pipeline which turns a token's text into the key used when comparing tokens.  The stages are chosen per
+ * collation request; everything they need is compiled once, so normalising a token involves no regex
+ * compilation.  The token's own text is left untouched for display.
+ *
+ * @author tarkvara
+ */
+public class TokenNormalizer {
+   private final Set<Stage> stages;
+
+   /**
+    * Create a normaliser which applies the given stages.  Regardless of the order in which they're
+    * specified, stages are applied in the order in which they're declared in <code>Stage</code>.
+    *
+    * @param stages stages to be applied
+    */
+   public TokenNormalizer(Set<Stage> stages) {
+      this.stages = stages.isEmpty() ? EnumSet.noneOf(Stage.class) : EnumSet.copyOf(stages);
+   }
+
+   /**
+    * Produce the comparison key for a token's text.
+    *
+    * @param text token text as it appears in the transcription
+    * @return normalised form of <code>text</code>
+    */
+   public String normalize(String text) {
+      String result = text;
+      for (Stage s: stages) {
+         result = s.apply(result);
+      }
+      return result;
+   }
+
+   public Set<Stage> getStages() {
+      return stages;
+   }
+
+   /**
+    * Is this normaliser a no-op?
+    */
+   public boolean isIdentity() {
+      return stages.isEmpty();
+   }
+
+   /**
+    * Stage names, in a form suitable for inclusion in a cache key.
+    */
+   @Override
+   public String toString() {
+      return stages.toString();
+   }
+
+   /**
+    * Build a normaliser from the request parameters.  The <code>normalize</code> parameter is a
+    * comma-separated list of stage names; the older <code>ignoreCase</code> and
+    * <code>ignorePunctuation</code> flags are still honoured.
+    *
+    * @param normalize comma-separated stage names, may be null
+    * @param ignoreCase true to include the <code>CASE</code> stage
+    * @param ignorePunct true to include the <code>PUNCTUATION</code> stage
+    * @return a normaliser with the requested stages
+    */
+   public static TokenNormalizer fromParameters(String normalize, boolean ignoreCase, boolean ignorePunct) {
+      Set<Stage> stages = EnumSet.noneOf(Stage.class);
+      if (normalize != null) {
+         for (String s: normalize.split(",")) {
+            s = s.trim();
+            if (!s.isEmpty()) {
+               stages.add(Stage.fromString(s));
+            }
+         }
+      }
+      if (ignoreCase) {
+         stages.add(Stage.CASE);
+      }
+      if (ignorePunct) {
+         stages.add(Stage.PUNCTUATION);
+      }
+      return new TokenNormalizer(stages);
+   }
+
+   /**
+    * Replace each occurrence of a single character with its mapped value.
+    */
+   private static String replaceChars(String s, Map<Character, String> map) {
+      StringBuilder buf = null;
+      for (int i = 0; i < s.length(); i++) {
+         char c = s.charAt(i);
+         String repl = map.get(c);
+         if (repl != null) {
+            if (buf == null) {
+               buf = new StringBuilder(s.length() + 8);
+               buf.append(s, 0, i);
+            }
+            buf.append(repl);
+         } else if (buf != null) {
+            buf.append(c);
+         }
+      }
+      return buf != null ? buf.toString() : s;
+   }
+
+   private static String removeAll(String s, Pattern pat) {
+      Matcher m = pat.matcher(s);
+      return m.find() ? m.replaceAll("") : s;
+   }
+
+   /**
+    * Scribal abbreviation characters with an unambiguous expansion.
+    */
+   private static final Map<Character, String> ABBREVIATIONS = new HashMap<>();
+   static {
+      ABBREVIATIONS.put('&', "et");
+      ABBREVIATIONS.put('⁊', "et");     // Tironian et
+      ABBREVIATIONS.put('ꝑ', "per");    // p with stroke through descender
+      ABBREVIATIONS.put('Ꝑ', "Per");
+      ABBREVIATIONS.put('ꝓ', "pro");    // p with flourish
+      ABBREVIATIONS.put('Ꝓ', "Pro");
+      ABBREVIATIONS.put('ꝯ', "con");    // reversed c
+      ABBREVIATIONS.put('Ꝯ', "Con");
+      ABBREVIATIONS.put('ꝝ', "rum");    // rum rotunda
+      ABBREVIATIONS.put('ꝰ', "us");     // modifier us
+   }
+
+   private static final Map<Character, String> U_V = new HashMap<>();
+   static {
+      U_V.put('v', "u");
+      U_V.put('V', "U");
+   }
+
+   private static final Map<Character, String> I_J = new HashMap<>();
+   static {
+      I_J.put('j', "i");
+      I_J.put('J', "I");
+   }
+
+   /** Combining marks left behind by compatibility decomposition. */
+   private static final Pattern COMBINING_MARKS = Pattern.compile("\\p{M}+");
+
+   /** ASCII punctuation (as before), plus Unicode punctuation such as ¶, · and typographic quotes. */
+   private static final Pattern PUNCTUATION = Pattern.compile("[\\p{Punct}\\p{IsPunctuation}]+");
+
+   /**
+    * The available normalisation stages, in the order in which they're applied.  Abbreviations are
+    * expanded first so that "&amp;" isn't lost to punctuation stripping, and decomposition comes before case
+    * folding so that compatibility forms like "ﬀ" fold properly.
+    */
+   public static enum Stage {
+      ABBREVIATIONS {
+         @Override
+         String apply(String s) {
+            return replaceChars(s, TokenNormalizer.ABBREVIATIONS);
+         }
+      },
+      NFKD {
+         @Override
+         String apply(String s) {
+            if (Normalizer.isNormalized(s, Normalizer.Form.NFKD)) {
+               return removeAll(s, COMBINING_MARKS);
+            }
+            return removeAll(Normalizer.normalize(s, Normalizer.Form.NFKD), COMBINING_MARKS);
+         }
+      },
+      CASE {
+         @Override
+         String apply(String s) {
+            return s.toLowerCase();
+         }
+      },
+      UV {
+         @Override
+         String apply(String s) {
+            return replaceChars(s, U_V);
+         }
+      },
+      IJ {
+         @Override
+         String apply(String s) {
+            return replaceChars(s, I_J);
+         }
+      },
+      PUNCTUATION {
+         @Override
+         String apply(String s) {
+            return removeAll(s, TokenNormalizer.PUNCTUATION);
+         }
+      };
+
+      abstract String apply(String s);
+
+      public static Stage fromString(String s) {
+         return Enum.valueOf(Stage.class, s.toUpperCase());
+      }
+   }
+}
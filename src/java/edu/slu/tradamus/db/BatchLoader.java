@@ -0,0 +1,131 @@
+/*
+ * Copyright 2015 Saint Louis University. Licensed under the
+ *	Educational Community License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package edu.slu.tradamus.db;
+
+import java.lang.reflect.Constructor;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.*;
+import static edu.slu.tradamus.db.Entity.TABLE_NAMES;
+
+
+/**
+ * Loads the children of many parents at once, so that a deep load issues one query per level of the
+ * entity tree rather than one (or more) per entity.  Queries are written with a <code>%s</code> where
+ * the list of parent IDs belongs, e.g. <code>"SELECT * FROM pages WHERE transcription IN (%s)"</code>.
+ *
+ * @author tarkvara
+ */
+public class BatchLoader {
+   /**
+    * Maximum number of IDs in a single IN list, or rows in a multi-row INSERT.  Larger sets are split
+    * across several statements.
+    */
+   public static final int BATCH_SIZE = 1000;
+
+   private BatchLoader() {
+   }
+
+   /**
+    * Load the children of a collection of parents, grouped by the parent to which they belong.  Only the
+    * children's own rows are loaded; it's up to the caller to load the next level down.  Within each
+    * group, children keep the order in which the query returned them.
+    *
+    * @param <T> type of child entity
+    * @param conn connection to SQL database
+    * @param stmtText query text, with <code>%s</code> where the parent IDs should go
+    * @param parentCol column which identifies the parent of each row
+    * @param parents entities whose children are being loaded
+    * @param childClazz class of child entity
+    * @return children, keyed by parent ID; parents without children have no entry
+    */
+   public static <T extends Entity> Map<Integer, List<T>> loadGrouped(Connection conn, String stmtText, String parentCol, Collection<? extends Entity> parents, Class<T> childClazz) throws SQLException, ReflectiveOperationException {
+      Map<Integer, List<T>> result = new HashMap<>();
+      Constructor<T> constr = childClazz.getConstructor(Integer.TYPE);
+      String idColName = TABLE_NAMES.get(childClazz.getSimpleName()) + ".id";
+
+      List<Integer> ids = getIDs(parents);
+      for (int i = 0; i < ids.size(); i += BATCH_SIZE) {
+         List<Integer> batch = ids.subList(i, Math.min(i + BATCH_SIZE, ids.size()));
+         try (PreparedStatement stmt = GroupedRowReader.prepareStreaming(conn, String.format(stmtText, getPlaceholders(batch.size())))) {
+            int j = 1;
+            for (Integer id: batch) {
+               stmt.setInt(j++, id);
+            }
+            ResultSet rs = stmt.executeQuery();
+            int idCol = -1, parentColIndex = -1;
+            int[] columns = null;
+            while (rs.next()) {
+               if (idCol < 0) {
+                  idCol = rs.findColumn(idColName);
+                  parentColIndex = rs.findColumn(parentCol);
+               }
+               T t = constr.newInstance(rs.getInt(idCol));
+               if (columns == null) {
+                  columns = RowMapper.getMapper(t).bind(rs);
+               }
+               t.loadFields(rs, columns, false);
+               int parentID = rs.getInt(parentColIndex);
+               List<T> group = result.get(parentID);
+               if (group == null) {
+                  group = new ArrayList<>();
+                  result.put(parentID, group);
+               }
+               group.add(t);
+            }
+         }
+      }
+      return result;
+   }
+
+   /**
+    * Get the children which <code>loadGrouped</code> found for a particular parent.
+    *
+    * @param groups result of <code>loadGrouped</code>
+    * @param parent parent entity
+    * @return the parent's children, or an empty list if it had none
+    */
+   public static <T extends Entity> List<T> getGroup(Map<Integer, List<T>> groups, Entity parent) {
+      List<T> result = groups.get(parent.getID());
+      return result != null ? result : new ArrayList<T>();
+   }
+
+   /**
+    * Get the distinct IDs of a collection of entities, in their original order.
+    */
+   public static List<Integer> getIDs(Collection<? extends Entity> ents) {
+      Set<Integer> result = new LinkedHashSet<>();
+      for (Entity e: ents) {
+         result.add(e.getID());
+      }
+      return new ArrayList<>(result);
+   }
+
+   /**
+    * Build the "?, ?, ?" list for an IN clause.
+    */
+   public static String getPlaceholders(int n) {
+      StringBuilder buf = new StringBuilder(n * 3);
+      for (int i = 0; i < n; i++) {
+         if (i > 0) {
+            buf.append(", ");
+         }
+         buf.append('?');
+      }
+      return buf.toString();
+   }
+}
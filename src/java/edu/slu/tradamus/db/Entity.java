@@ -19,6 +19,7 @@ import java.lang.reflect.Constructor;
 import java.lang.reflect.Method;
 import java.sql.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import com.fasterxml.jackson.annotation.JsonIgnore;
@@ -39,6 +40,11 @@ public abstract class Entity {
     */
    protected int id;
 
+   /**
+    * Content fingerprint as stored in the database, or 0 if there is no stored value.
+    */
+   protected long fingerprint;
+
    /**
     * The unique auto-generated ID associated with this entity.
     * @return 
@@ -64,6 +70,34 @@ public abstract class Entity {
       return getClass().getSimpleName().toUpperCase();
    }
 
+   /**
+    * Fingerprint of this entity's content, used by <code>mergeChildren</code> to recognise children which
+    * haven't changed.  The stored value is used if we have one, otherwise it is computed from the fields.
+    * @return the fingerprint, or 0 if this class doesn't support fingerprinting
+    */
+   @JsonIgnore
+   public long getFingerprint() {
+      return fingerprint != 0L ? fingerprint : computeFingerprint();
+   }
+
+   /**
+    * Subclasses which support fingerprinting should feed their content fields (but not their ID, or
+    * bookkeeping fields such as modification times) into a <code>FingerprintBuilder</code>.  Entities with
+    * children shouldn't bother, since their merges have to descend to the children anyway.
+    * @return fingerprint of the entity's content, or 0 for the default implementation
+    */
+   protected long computeFingerprint() {
+      return 0L;
+   }
+
+   /**
+    * Does this entity's table have a <code>fingerprint</code> column which needs to be invalidated when
+    * the entity is modified?
+    */
+   protected boolean hasFingerprintColumn() {
+      return false;
+   }
+
    /**
     * Utility function which allows us to pass varargs to an SQL statement which is
     * being used to create an entity.  The entity's ID value will be set to the returned
@@ -90,15 +124,92 @@ public abstract class Entity {
 
    /**
     * Utility function which uses reflection to load an entity's fields from the specified SQL statement.
+    * Since <code>loadGroup</code> doesn't issue any queries of its own, the results are streamed.
     */
    protected final void executeLoad(Connection conn, String stmtText, boolean deep) throws SQLException, ReflectiveOperationException {
-      try (PreparedStatement stmt = conn.prepareStatement(stmtText)) {
+      try (PreparedStatement stmt = GroupedRowReader.prepareStreaming(conn, stmtText)) {
          stmt.setInt(1, id);
-         ResultSet rs = stmt.executeQuery();
-         if (!rs.next()) {
+         GroupedRowReader rows = new GroupedRowReader(stmt.executeQuery());
+         if (!rows.next()) {
             throw new NoSuchEntityException(this);
          }
-         loadFields(rs, deep);
+         loadGroup(rows, deep);
+      }
+   }
+
+   /**
+    * For tables whose keys come from an {@link IdAllocator}, assign this entity a new ID before inserting.
+    *
+    * @param conn connection to SQL database
+    */
+   protected final void allocateID(Connection conn) throws SQLException {
+      id = IdAllocator.getAllocator(TABLE_NAMES.get(getClass().getSimpleName())).allocate(conn);
+   }
+
+   /**
+    * Assign consecutive IDs to a list of entities which all live in the same table.
+    *
+    * @param conn connection to SQL database
+    * @param ents entities which are about to be inserted
+    */
+   public static void allocateIDs(Connection conn, List<? extends Entity> ents) throws SQLException {
+      if (!ents.isEmpty()) {
+         int first = IdAllocator.getAllocator(TABLE_NAMES.get(ents.get(0).getClass().getSimpleName())).allocate(conn, ents.size());
+         for (Entity e: ents) {
+            e.id = first++;
+         }
+      }
+   }
+
+   /**
+    * Utility function which writes the rows for several entities with multi-row INSERT statements.  Each
+    * entity which doesn't already have an allocated ID is given the auto-generated primary key for its row.
+    *
+    * @param conn connection to SQL database
+    * @param stmtHead text of INSERT statement, up to and including <code>VALUES</code>
+    * @param ents entities being inserted
+    * @param rows values for each entity's row, in the same order as <code>ents</code>
+    */
+   protected static void executeBatchInsert(Connection conn, String stmtHead, List<? extends Entity> ents, List<Object[]> rows) throws SQLException {
+      for (int i = 0; i < rows.size(); ) {
+         // Stop short of BatchLoader.BATCH_SIZE rows if they contain a lot of text, so we stay well inside MySQL's
+         // max_allowed_packet.
+         int n = 0, chars = 0;
+         while (i + n < rows.size() && n < BatchLoader.BATCH_SIZE && (n == 0 || chars < MAX_BATCH_CHARS)) {
+            for (Object arg: rows.get(i + n)) {
+               if (arg instanceof String) {
+                  chars += ((String)arg).length();
+               }
+            }
+            n++;
+         }
+         StringBuilder buf = new StringBuilder(stmtHead);
+         for (int j = 0; j < n; j++) {
+            buf.append(j > 0 ? ", (" : " (");
+            for (int k = 0; k < rows.get(i + j).length; k++) {
+               buf.append(k > 0 ? ", ?" : "?");
+            }
+            buf.append(')');
+         }
+         boolean generated = ents.get(i).id == 0;
+         try (PreparedStatement stmt = generated ? conn.prepareStatement(buf.toString(), Statement.RETURN_GENERATED_KEYS) : conn.prepareStatement(buf.toString())) {
+            int k = 1;
+            for (int j = 0; j < n; j++) {
+               for (Object arg: rows.get(i + j)) {
+                  stmt.setObject(k++, arg);
+               }
+            }
+            stmt.executeUpdate();
+
+            if (generated) {
+               // MySQL hands out consecutive keys for the rows of a multi-row INSERT.
+               ResultSet rs = stmt.getGeneratedKeys();
+               for (int j = 0; j < n && rs.next(); j++) {
+                  ents.get(i + j).id = rs.getInt(1);
+               }
+            }
+         }
+         i += n;
       }
    }
 
@@ -130,35 +241,31 @@ public abstract class Entity {
       executeLoad(conn, String.format("SELECT * from `%s` WHERE id = ?", TABLE_NAMES.get(getClass().getSimpleName())), deep);
    }
 
-   public void loadFields(ResultSet rs, boolean deep) throws SQLException, ReflectiveOperationException {
-      Map<String, Method> setters = getSetters();
-		setters.remove("id");	// Don't want setID to load a field.
-      for (String key: setters.keySet()) {
-         Method meth = setters.get(key);
-         String col = camelCaseToUnderscores(key);
-         Class argClazz = meth.getParameterTypes()[0];
-         if (argClazz.isEnum()) {
-            // Special treatment for enums which have to be parsed from string values.
-            Method valueMeth = argClazz.getMethod("valueOf", String.class);
-            meth.invoke(this, valueMeth.invoke(null, rs.getString(col)));
-         } else if (argClazz == Integer.TYPE) {
-            meth.invoke(this, rs.getInt(col));
-         } else if (argClazz == String.class) {
-            meth.invoke(this, rs.getString(col));
-         } else if (argClazz == Integer.class) {
-            meth.invoke(this, (Integer)rs.getObject(col));
-         } else if (argClazz.isPrimitive()) {
-            meth.invoke(this, rs.getObject(col));
-         } else if (argClazz == List.class || argClazz == Map.class) {
-            // We have some collection setters, but these only work for JSON, not for SQL.  The
-            // derived class will have to overload loadFields to provide the correct behaviour.
-         } else {
-            // Class is something like URI, which will need to be constructed.
-            // For now, we assume that the object will have a one-argument string constructor.
-            Constructor argConstr = argClazz.getConstructor(String.class);
-            meth.invoke(this, argConstr.newInstance(rs.getString(col)));
-         }
-      }
+   /**
+    * Load the current row of the result set into our fields.  The mapping between columns and setters
+    * is worked out once per class by {@link RowMapper}.
+    *
+    * @param rs result set positioned at the row to be loaded
+    * @param columns indices of our mapped columns within <code>rs</code>, as returned by
+    * <code>RowMapper.bind</code>, or null to look them up for just this row
+    * @param deep if true, derived classes may also load their constituents
+    */
+   public void loadFields(ResultSet rs, int[] columns, boolean deep) throws SQLException, ReflectiveOperationException {
+      RowMapper mapper = RowMapper.getMapper(this);
+      mapper.load(this, rs, columns != null ? columns : mapper.bind(rs));
+   }
+
+   /**
+    * Load this entity from the group of rows which belong to it, starting at the reader's current row.
+    * Entities which are spread across several joined rows override this to consume the rest of their
+    * group, leaving the first row of the next group for the caller.  The default just loads the current
+    * row.
+    *
+    * @param rows reader positioned at the first row for this entity
+    * @param deep if true, derived classes may also load their constituents
+    */
+   public void loadGroup(GroupedRowReader rows, boolean deep) throws SQLException, ReflectiveOperationException {
+      loadFields(rows.getResultSet(), rows.getColumns(this), deep);
    }
 
    /**
@@ -173,17 +280,23 @@ public abstract class Entity {
     */
    public <T extends Entity> List<T> loadChildren(Connection conn, String stmtText, Class<T> childClazz, boolean deep) throws SQLException, ReflectiveOperationException {
       List<T> result = new ArrayList<>();
-      try (PreparedStatement stmt = conn.prepareStatement(stmtText)) {
+      // A deep load queries each child while we're still reading, so only a shallow load can be streamed.
+      try (PreparedStatement stmt = deep ? conn.prepareStatement(stmtText) : GroupedRowReader.prepareStreaming(conn, stmtText)) {
          stmt.setInt(1, id);
-         ResultSet rs = stmt.executeQuery();
-         while (rs.next()) {
-            // Find the constructor which takes an ID as its only parameter.
-            Constructor constr = childClazz.getConstructor(Integer.TYPE);
-            T t = (T)constr.newInstance(rs.getInt(TABLE_NAMES.get(childClazz.getSimpleName()) + ".id"));
+         GroupedRowReader rows = new GroupedRowReader(stmt.executeQuery());
+         ResultSet rs = rows.getResultSet();
+         // Find the constructor which takes an ID as its only parameter.
+         Constructor<T> constr = childClazz.getConstructor(Integer.TYPE);
+         int idCol = -1;
+         while (rows.next()) {
+            if (idCol < 0) {
+               idCol = rs.findColumn(TABLE_NAMES.get(childClazz.getSimpleName()) + ".id");
+            }
+            T t = constr.newInstance(rs.getInt(idCol));
             if (deep) {
                t.load(conn, true);
             } else {
-               t.loadFields(rs, false);
+               t.loadGroup(rows, false);
             }
             result.add(t);
          }
@@ -199,7 +312,12 @@ public abstract class Entity {
    public abstract void merge(Connection conn, Entity newEnt) throws IOException, SQLException, PermissionException, ReflectiveOperationException;
 
    /**
-    * Merge two lists of child entities, adding/deleting/updating the database as necessary.
+    * Merge two lists of child entities, adding/deleting/updating the database as necessary.  Old and new
+    * children are matched with a single sort-merge pass, after which the obsolete children are deleted
+    * and the new ones inserted in batches wherever their classes allow it.  On return,
+    * <code>oldOnes</code> contains only those existing children which had no counterpart among the new
+    * ones.
+    *
     * @param <T> type of children being merged
     * @param conn connection to SQL database
     * @param oldOnes existing children
@@ -207,54 +325,149 @@ public abstract class Entity {
     * @param comp method for comparing children
     * @param filt filter for making sure we only modify children we're allowed to
     * @param replacing if <code>true</code>, we're overwriting all children
+    * @return counts of children added, deleted, modified, and rejected
     */
-   public <T extends Entity> void mergeChildren(Connection conn, List<T> oldOnes, List<T> newOnes, Comparator<T> comp, PermissionFilter<T> filt, boolean replacing) throws IOException, SQLException, PermissionException, ReflectiveOperationException, IOException {
-      int added = 0, deleted = 0, modified = 0, rejected = 0;
-      List<T> addedOnes = new ArrayList<>();
+   public <T extends Entity> MergeResult mergeChildren(Connection conn, List<T> oldOnes, List<T> newOnes, final Comparator<T> comp, PermissionFilter<T> filt, boolean replacing) throws IOException, SQLException, PermissionException, ReflectiveOperationException, IOException {
+      MergeResult result = new MergeResult();
+
+      // Sort the old children, and sort the new ones indirectly so that we can still process them in
+      // their original order.
       Collections.sort(oldOnes, comp);
-      for (T t: newOnes) {
-         int oldIndex = Collections.binarySearch(oldOnes, t, comp);
-         if (oldIndex >= 0) {
-            // Found a match, so call the child's merge method.
-            T oldT = oldOnes.get(oldIndex);
+      final List<T> news = newOnes;
+      Integer[] newOrder = new Integer[newOnes.size()];
+      for (int i = 0; i < newOrder.length; i++) {
+         newOrder[i] = i;
+      }
+      Arrays.sort(newOrder, new Comparator<Integer>() {
+         @Override
+         public int compare(Integer i1, Integer i2) {
+            return comp.compare(news.get(i1), news.get(i2));
+         }
+      });
+
+      // Walk the two sorted lists together to pair each new child with its old counterpart (if any).
+      List<T> matches = new ArrayList<>(Collections.<T>nCopies(newOnes.size(), null));
+      List<T> unmatched = new ArrayList<>();
+      int i = 0, j = 0;
+      while (i < oldOnes.size()) {
+         int c = j < newOrder.length ? comp.compare(oldOnes.get(i), newOnes.get(newOrder[j])) : -1;
+         if (c < 0) {
+            unmatched.add(oldOnes.get(i++));
+         } else if (c > 0) {
+            j++;
+         } else {
+            matches.set(newOrder[j++], oldOnes.get(i++));
+         }
+      }
+
+      List<T> addedOnes = new ArrayList<>();
+      for (int k = 0; k < newOnes.size(); k++) {
+         T oldT = matches.get(k);
+         if (oldT != null) {
+            // Found a match.  If the content is identical, there's nothing to merge.
+            T newT = newOnes.get(k);
+            long oldPrint = oldT.getFingerprint();
+            if (oldPrint != 0L && oldPrint == newT.getFingerprint()) {
+               newT.id = oldT.id;
+               result.unchanged++;
+               continue;
+            }
+
+            // Otherwise call the child's merge method.
             boolean permitted = true;
             if (filt != null) {
                permitted = filt.canModify(oldT);
             }
             if (permitted) {
-               oldT.merge(conn, t);
-               modified++;
+               oldT.merge(conn, newT);
+               result.modified++;
             } else {
-               rejected++;
+               result.rejected++;
             }
-            oldOnes.remove(oldIndex);
          } else {
-            addedOnes.add(t);
+            addedOnes.add(newOnes.get(k));
          }
       }
+      oldOnes.clear();
+      oldOnes.addAll(unmatched);
 
       if (replacing) {
          // If we're overwriting (rather than just merging), we need to remove the obsolete children.
-         for (T t: oldOnes) {
+         List<T> deletedOnes = new ArrayList<>();
+         for (T t: unmatched) {
             boolean permitted = true;
             if (filt != null) {
                permitted = filt.canModify(t);
             }
             if (permitted) {
-               t.delete(conn);
-               deleted++;
+               deletedOnes.add(t);
             }
          }
+         deleteBatch(conn, deletedOnes);
+         result.deleted = deletedOnes.size();
       }
       
-      // Insert the newly-added children.
-      for (T t: addedOnes) {
-         t.insert(conn);
+      insertAll(conn, addedOnes);
+      result.added = addedOnes.size();
+      LOG.log(Level.INFO, "{0}.mergeChildren {1}.", new Object[] { getClass().getName(), result });
+      return result;
+   }
+
+   /**
+    * Delete a list of entities.  Entities whose classes rely on the basic <code>delete</code> method are
+    * removed with a single DELETE per table; those which do their own clean-up are deleted one at a time.
+    *
+    * @param conn connection to SQL database
+    * @param ents entities to be deleted
+    */
+   public static void deleteBatch(Connection conn, List<? extends Entity> ents) throws SQLException {
+      Map<String, List<Integer>> idsByTable = new LinkedHashMap<>();
+      for (Entity e: ents) {
+         if (hasPlainDelete(e.getClass())) {
+            String tbl = TABLE_NAMES.get(e.getClass().getSimpleName());
+            List<Integer> ids = idsByTable.get(tbl);
+            if (ids == null) {
+               ids = new ArrayList<>();
+               idsByTable.put(tbl, ids);
+            }
+            ids.add(e.id);
+         } else {
+            e.delete(conn);
+         }
+      }
+      for (Map.Entry<String, List<Integer>> tblIDs: idsByTable.entrySet()) {
+         List<Integer> ids = tblIDs.getValue();
+         for (int i = 0; i < ids.size(); i += BatchLoader.BATCH_SIZE) {
+            List<Integer> batch = ids.subList(i, Math.min(i + BatchLoader.BATCH_SIZE, ids.size()));
+            try (PreparedStatement stmt = conn.prepareStatement(String.format("DELETE FROM `%s` WHERE id IN (%s)", tblIDs.getKey(), BatchLoader.getPlaceholders(batch.size())))) {
+               int k = 1;
+               for (Integer id: batch) {
+                  stmt.setInt(k++, id);
+               }
+               stmt.executeUpdate();
+            }
+         }
       }
-      added += addedOnes.size();
-      LOG.log(Level.INFO, "{0}.mergeChildren added {1}, deleted {2}, modified {3}, and rejected {4}.", new Object[] { getClass().getName(), added, deleted, modified, rejected });
    }
-   
+
+   /**
+    * Check whether the given class deletes itself with the basic <code>Entity.delete</code>, in which
+    * case it can be deleted as part of a batch.
+    */
+   private static boolean hasPlainDelete(Class<?> clazz) {
+      Boolean result = PLAIN_DELETES.get(clazz);
+      if (result == null) {
+         try {
+            result = clazz.getMethod("delete", Connection.class).getDeclaringClass() == Entity.class;
+         } catch (NoSuchMethodException ex) {
+            LOG.log(Level.WARNING, "Should never happen, since every Entity has a delete method.", ex);
+            result = false;
+         }
+         PLAIN_DELETES.put(clazz, result);
+      }
+      return result;
+   }
+
    /**
     * Entity subclasses are free to override this method if they need to do extra cleanup on deletion.
     * In many cases, the clean-up is taken care of by cascaded deletes on foreign keys.
@@ -271,6 +484,41 @@ public abstract class Entity {
     */
    public abstract void insert(Connection conn) throws SQLException, IOException;
 
+   /**
+    * Insert a list of entities of the same class as this one.  By default they are just inserted one at a
+    * time, but classes whose rows can be written with multi-row INSERT statements may override this.
+    *
+    * @param conn connection to SQL database
+    * @param ents entities to be inserted, all of the same class as this one
+    */
+   public void insertBatch(Connection conn, List<? extends Entity> ents) throws SQLException, IOException {
+      for (Entity e: ents) {
+         e.insert(conn);
+      }
+   }
+
+   /**
+    * Insert a list of entities which may be of several classes.  The entities are inserted a class at a
+    * time, using each class's <code>insertBatch</code> method.
+    *
+    * @param conn connection to SQL database
+    * @param ents entities to be inserted
+    */
+   public static void insertAll(Connection conn, List<? extends Entity> ents) throws SQLException, IOException {
+      Map<Class<?>, List<Entity>> byClass = new LinkedHashMap<>();
+      for (Entity e: ents) {
+         List<Entity> group = byClass.get(e.getClass());
+         if (group == null) {
+            group = new ArrayList<>();
+            byClass.put(e.getClass(), group);
+         }
+         group.add(e);
+      }
+      for (List<Entity> group: byClass.values()) {
+         group.get(0).insertBatch(conn, group);
+      }
+   }
+
    /**
     * Modify an entity based on a map of values, typically drawn from a JSON object.
     * @param conn connection to SQL database
@@ -297,6 +545,11 @@ public abstract class Entity {
       
       // It's possible that there are no primitive fields in the mods, in which case there is nothing to update.
       if (!first) {
+         if (hasFingerprintColumn()) {
+            // The stored fingerprint no longer reflects the content.
+            stmtText += ", `fingerprint` = NULL";
+            fingerprint = 0L;
+         }
          stmtText += " WHERE `id` = ?";
          try (PreparedStatement stmt = conn.prepareStatement(stmtText)) {
             int i = 1;
@@ -404,6 +657,8 @@ public abstract class Entity {
 
    /**
     * Whenever an entity is modified, the modification time of the containing Edition should be updated.
+    * Edition-based entities do this through <code>ModificationTracker</code>, which writes the time shortly
+    * afterwards, outside the caller's transaction.
     * @param conn connection to database
     */
    public abstract void markTopLevelModified(Connection conn) throws SQLException;
@@ -567,5 +822,15 @@ public abstract class Entity {
       return ent1.id == ent2.id;
    }
 
+   /**
+    * Approximate number of characters of string data after which a multi-row INSERT is cut short.
+    */
+   private static final int MAX_BATCH_CHARS = 1000000;
+
+   /**
+    * For each class, whether it uses the basic <code>delete</code> method.
+    */
+   private static final Map<Class<?>, Boolean> PLAIN_DELETES = new ConcurrentHashMap<>();
+
    private static final Logger LOG = Logger.getLogger(Entity.class.getName());
 }
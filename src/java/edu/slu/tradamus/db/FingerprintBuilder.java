@@ -0,0 +1,97 @@
+/*
+ * Copyright 2015 Saint Louis University. Licensed under the
+ *	Educational Community License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package edu.slu.tradamus.db;
+
+import java.util.Map;
+import java.util.TreeMap;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import edu.slu.tradamus.util.LangUtils;
+
+
+/**
+ * Accumulates an entity's content fields into a 64-bit fingerprint.  Each value is written with a
+ * marker or length prefix, so that nulls and adjacent strings can't collide with one another.
+ *
+ * @author tarkvara
+ */
+public class FingerprintBuilder {
+   private final Hasher hasher = Hashing.murmur3_128().newHasher();
+
+   public FingerprintBuilder add(String val) {
+      if (val == null) {
+         hasher.putInt(-1);
+      } else {
+         hasher.putInt(val.length()).putString(val, LangUtils.UTF8);
+      }
+      return this;
+   }
+
+   public FingerprintBuilder add(int val) {
+      hasher.putInt(val);
+      return this;
+   }
+
+   public FingerprintBuilder add(Integer val) {
+      if (val == null) {
+         hasher.putBoolean(false);
+      } else {
+         hasher.putBoolean(true).putInt(val);
+      }
+      return this;
+   }
+
+   /**
+    * Entities which are referred to by another entity only contribute their type and ID.
+    */
+   public FingerprintBuilder add(Entity ent) {
+      if (ent == null) {
+         hasher.putBoolean(false);
+      } else {
+         hasher.putBoolean(true);
+         add(ent.getEntityType());
+         hasher.putInt(ent.id);
+      }
+      return this;
+   }
+
+   /**
+    * Maps are added in key order, so the fingerprint doesn't depend on how the map was built.
+    */
+   public FingerprintBuilder add(Map<String, String> vals) {
+      if (vals == null) {
+         hasher.putInt(-1);
+      } else {
+         hasher.putInt(vals.size());
+         for (Map.Entry<String, String> ent: new TreeMap<>(vals).entrySet()) {
+            add(ent.getKey());
+            add(ent.getValue());
+         }
+      }
+      return this;
+   }
+
+   public FingerprintBuilder add(Enum<?> val) {
+      return add(val != null ? val.name() : null);
+   }
+
+   /**
+    * Get the finished fingerprint.  Zero is reserved to mean "no fingerprint", so it is never returned.
+    */
+   public long get() {
+      long result = hasher.hash().asLong();
+      return result != 0L ? result : 1L;
+   }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2015 Saint Louis University. Licensed under the
+ *	Educational Community License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package edu.slu.tradamus.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+
+
+/**
+ * Forward-only reader for result sets in which each entity is spread over a group of consecutive rows
+ * (typically a parent joined with its children).  Instead of stepping back with
+ * <code>ResultSet.previous()</code> when it reads past the end of a group, a loader can peek at the next
+ * row and leave it for whoever reads the next group.  Since the result set is never scrolled backwards,
+ * it can be streamed from the server rather than buffered in memory.
+ *
+ * @author tarkvara
+ */
+public class GroupedRowReader {
+   private final ResultSet resultSet;
+
+   /** True if the result set is positioned on a row which has been peeked at but not yet consumed. */
+   private boolean pending;
+
+   /** True once the result set has run out of rows. */
+   private boolean exhausted;
+
+   /** Column indices for each class of entity loaded from this result set, as returned by <code>RowMapper.bind</code>. */
+   private final Map<Class<?>, int[]> columns = new HashMap<>();
+
+   public GroupedRowReader(ResultSet rs) {
+      resultSet = rs;
+   }
+
+   /**
+    * Get the underlying result set, positioned on the current row.
+    */
+   public ResultSet getResultSet() {
+      return resultSet;
+   }
+
+   /**
+    * Get the indices of an entity's mapped columns within our result set.  They're only looked up the
+    * first time an entity of that class is loaded, since every row has the same columns.
+    *
+    * @param ent entity about to be loaded from the current row
+    * @return column indices to be passed to <code>loadFields</code>
+    */
+   public int[] getColumns(Entity ent) throws SQLException, ReflectiveOperationException {
+      int[] result = columns.get(ent.getClass());
+      if (result == null) {
+         result = RowMapper.getMapper(ent).bind(resultSet);
+         columns.put(ent.getClass(), result);
+      }
+      return result;
+   }
+
+   /**
+    * Advance to the next row, which may be one we've already peeked at.
+    *
+    * @return true if there is a next row
+    */
+   public boolean next() throws SQLException {
+      if (pending) {
+         pending = false;
+         return true;
+      }
+      return advance();
+   }
+
+   /**
+    * Move the result set on to the next row without consuming it, so that the following call to
+    * <code>next</code> will return the same row.  Once this has been called, the values from the current
+    * row are no longer available.
+    *
+    * @return true if there is a next row
+    */
+   public boolean peek() throws SQLException {
+      if (!pending) {
+         pending = advance();
+      }
+      return pending;
+   }
+
+   /**
+    * Advance to the next row, but only if it belongs to the same group as the current one.  If it belongs
+    * to another group, it is left unconsumed for the next call to <code>next</code>.
+    *
+    * @param keyCol column which identifies the group
+    * @param key value of <code>keyCol</code> for the current group
+    * @return true if we've advanced to another row within the group
+    */
+   public boolean nextInGroup(String keyCol, int key) throws SQLException {
+      if (peek() && resultSet.getInt(keyCol) == key) {
+         pending = false;
+         return true;
+      }
+      return false;
+   }
+
+   private boolean advance() throws SQLException {
+      if (!exhausted && !resultSet.next()) {
+         exhausted = true;
+      }
+      return !exhausted;
+   }
+
+   /**
+    * Prepare a statement whose results will be streamed from MySQL one row at a time rather than
+    * buffered in their entirety.  While the results are being read, no other statement can be executed
+    * on the same connection, so this is only suitable when each group is loaded without further queries.
+    *
+    * @param conn connection to SQL database
+    * @param stmtText text of query
+    * @return a forward-only, read-only statement with streaming enabled
+    */
+   public static PreparedStatement prepareStreaming(Connection conn, String stmtText) throws SQLException {
+      PreparedStatement result = conn.prepareStatement(stmtText, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+      result.setFetchSize(Integer.MIN_VALUE);
+      return result;
+   }
+}
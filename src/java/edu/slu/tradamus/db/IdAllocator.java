@@ -0,0 +1,150 @@
+/*
+ * Copyright 2015 Saint Louis University. Licensed under the
+ *	Educational Community License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package edu.slu.tradamus.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.servlet.ServletException;
+import static edu.slu.tradamus.util.ServletUtils.getDBConnection;
+
+
+/**
+ * Hands out primary keys for a table from blocks reserved in the <code>id_sequences</code> table.  Each
+ * block is reserved with a single atomic UPDATE, so several servers can share a database without
+ * handing out the same ID twice.  Within a block, IDs are handed out without touching the database,
+ * which lets callers assign IDs up front and insert their rows in batches.
+ *
+ * @author tarkvara
+ */
+public class IdAllocator {
+   /** Row in <code>id_sequences</code> from which we reserve blocks. */
+   private final String sequence;
+
+   /** Next ID to be handed out from the current block. */
+   private int next;
+
+   /** First ID beyond the end of the current block. */
+   private int limit;
+
+   private IdAllocator(String seq) {
+      sequence = seq;
+   }
+
+   /**
+    * Get the allocator for the given sequence, which is generally the name of the table.
+    *
+    * @param seq name of the sequence
+    * @return the shared allocator for <code>seq</code>
+    */
+   public static IdAllocator getAllocator(String seq) {
+      IdAllocator result = ALLOCATORS.get(seq);
+      if (result == null) {
+         result = new IdAllocator(seq);
+         IdAllocator existing = ALLOCATORS.putIfAbsent(seq, result);
+         if (existing != null) {
+            result = existing;
+         }
+      }
+      return result;
+   }
+
+   /**
+    * Allocate a single ID.
+    *
+    * @param conn connection to SQL database
+    * @return a previously unused ID
+    */
+   public int allocate(Connection conn) throws SQLException {
+      return allocate(conn, 1);
+   }
+
+   /**
+    * Allocate a contiguous range of IDs.  If the current block doesn't have enough left, the remainder
+    * is abandoned and a new block is reserved.
+    *
+    * @param conn connection to SQL database
+    * @param count number of IDs required
+    * @return the first ID of the range; the others follow consecutively
+    */
+   public synchronized int allocate(Connection conn, int count) throws SQLException {
+      if (limit - next < count) {
+         int size = Math.max(count, BLOCK_SIZE);
+         limit = reserveBlock(conn, size);
+         next = limit - size;
+      }
+      int result = next;
+      next += count;
+      return result;
+   }
+
+   /**
+    * Reserve a block of IDs in the database.  If the caller is in the middle of a transaction, the
+    * reservation is made on a separate connection, since a rollback would otherwise return the block to
+    * the sequence while we were still handing out IDs from it.  That connection is only held for the two
+    * statements below, and we don't wait on anything else while holding it.
+    *
+    * @param conn caller's connection to SQL database
+    * @param size number of IDs to reserve
+    * @return first ID beyond the end of the reserved block
+    */
+   private int reserveBlock(Connection conn, int size) throws SQLException {
+      Connection seqConn = conn;
+      if (!conn.getAutoCommit()) {
+         try {
+            seqConn = getDBConnection();
+            seqConn.setAutoCommit(true);
+         } catch (ServletException ex) {
+            throw new SQLException("Unable to get a separate connection for reserving IDs.", ex);
+         }
+      }
+      try {
+         try (PreparedStatement stmt = seqConn.prepareStatement("UPDATE `id_sequences` " +
+                 "SET `next_id` = LAST_INSERT_ID(`next_id` + ?) WHERE `sequence` = ?")) {
+            stmt.setInt(1, size);
+            stmt.setString(2, sequence);
+            if (stmt.executeUpdate() == 0) {
+               throw new SQLException(String.format("No ID sequence for %s.", sequence));
+            }
+         }
+         try (PreparedStatement stmt = seqConn.prepareStatement("SELECT LAST_INSERT_ID()")) {
+            ResultSet rs = stmt.executeQuery();
+            rs.next();
+            int result = rs.getInt(1);
+            LOG.log(Level.FINE, "Reserved {0} IDs for {1}, up to {2}.", new Object[] { size, sequence, result });
+            return result;
+         }
+      } finally {
+         if (seqConn != conn) {
+            seqConn.close();
+         }
+      }
+   }
+
+   /**
+    * Normal number of IDs reserved at a time.  Any IDs left over when the server shuts down are lost,
+    * so this shouldn't be too large.
+    */
+   private static final int BLOCK_SIZE = 100;
+
+   private static final Map<String, IdAllocator> ALLOCATORS = new ConcurrentHashMap<>();
+
+   private static final Logger LOG = Logger.getLogger(IdAllocator.class.getName());
+}
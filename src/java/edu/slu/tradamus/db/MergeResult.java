@@ -0,0 +1,70 @@
+/*
+ * Copyright 2015 Saint Louis University. Licensed under the
+ *	Educational Community License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package edu.slu.tradamus.db;
+
+
+/**
+ * Counts of what happened to the children during <code>Entity.mergeChildren</code>.
+ *
+ * @author tarkvara
+ */
+public class MergeResult {
+   int added;
+   int deleted;
+   int modified;
+   int unchanged;
+   int rejected;
+
+   /**
+    * Number of new children which had no match among the existing ones and were inserted.
+    */
+   public int getAdded() {
+      return added;
+   }
+
+   /**
+    * Number of existing children which had no match among the new ones and were deleted.
+    */
+   public int getDeleted() {
+      return deleted;
+   }
+
+   /**
+    * Number of existing children which were merged with their new counterparts.
+    */
+   public int getModified() {
+      return modified;
+   }
+
+   /**
+    * Number of existing children whose fingerprints showed that they were identical to their new
+    * counterparts, so no merge was needed.
+    */
+   public int getUnchanged() {
+      return unchanged;
+   }
+
+   /**
+    * Number of existing children which the permission filter prevented us from modifying.
+    */
+   public int getRejected() {
+      return rejected;
+   }
+
+   @Override
+   public String toString() {
+      return String.format("added %d, deleted %d, modified %d, unchanged %d, and rejected %d", added, deleted, modified, unchanged, rejected);
+   }
+}
@@ -18,9 +18,12 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
- * Class for doing named MySQL locks
+ * Class for doing named MySQL locks.  The time spent waiting for the lock and the time for which it was
+ * held are logged when the lock is released.
  * @author tarkvara
  */
 public class NamedLock implements AutoCloseable {
@@ -30,6 +33,12 @@ public class NamedLock implements AutoCloseable {
    /** Name of database lock. */
    private final String name;
 
+   /** Milliseconds spent waiting for the lock. */
+   private final long waitTime;
+
+   /** Time (from System.nanoTime) at which the lock was acquired. */
+   private final long acquireTime;
+
    /**
     * Create the given named MySQL lock with a default timeout.
     *
@@ -40,15 +49,21 @@ public class NamedLock implements AutoCloseable {
    public NamedLock(Connection conn, String lockName) throws SQLException {
       connection = conn;
       name = lockName;
-      PreparedStatement stmt = conn.prepareStatement("SELECT GET_LOCK(?, ?)");
-      stmt.setString(1, lockName);
-      stmt.setInt(2, DB_LOCK_TIMEOUT);
-      ResultSet rs = stmt.executeQuery();
-      rs.next();
-      boolean locked = rs.getBoolean(1);
+      long startTime = System.nanoTime();
+      boolean locked;
+      try (PreparedStatement stmt = conn.prepareStatement("SELECT GET_LOCK(?, ?)")) {
+         stmt.setString(1, lockName);
+         stmt.setInt(2, DB_LOCK_TIMEOUT);
+         ResultSet rs = stmt.executeQuery();
+         rs.next();
+         locked = rs.getBoolean(1);
+      }
+      acquireTime = System.nanoTime();
+      waitTime = (acquireTime - startTime) / 1000000;
       if (locked) {
          conn.setAutoCommit(false);
       } else {
+         LOG.log(Level.WARNING, "Gave up on lock \"{0}\" after {1} ms.", new Object[] { name, waitTime });
          throw new SQLException(String.format("Unable to get lock \"%s\".", name));
       }
    }
@@ -61,11 +76,16 @@ public class NamedLock implements AutoCloseable {
    @Override
    public void close() throws SQLException {
       connection.commit();
-      PreparedStatement stmt = connection.prepareStatement("SELECT RELEASE_LOCK(?)");
-      stmt.setString(1, name);
-      stmt.executeQuery();
+      try (PreparedStatement stmt = connection.prepareStatement("SELECT RELEASE_LOCK(?)")) {
+         stmt.setString(1, name);
+         stmt.executeQuery();
+      }
+      long holdTime = (System.nanoTime() - acquireTime) / 1000000;
+      LOG.log(Level.INFO, "Lock \"{0}\" waited {1} ms, held {2} ms.", new Object[] { name, waitTime, holdTime });
    }
 
    /** Default timeout (in seconds) for database lock attempts. */
    private static final int DB_LOCK_TIMEOUT = 10;
+
+   private static final Logger LOG = Logger.getLogger(NamedLock.class.getName());
 }
@@ -0,0 +1,184 @@
+/*
+ * Copyright 2015 Saint Louis University. Licensed under the
+ *	Educational Community License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package edu.slu.tradamus.db;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import static edu.slu.tradamus.util.LangUtils.camelCaseToUnderscores;
+
+
+/**
+ * Maps result-set rows onto the setters of an entity class.  All the reflective work (finding the
+ * setters, deriving column names, and deciding how each column should be converted) is done once per
+ * class.  Column indices are looked up by <code>bind</code>, which callers do once per result set, so
+ * loading a row just reads the columns and calls the setters.
+ *
+ * @author tarkvara
+ */
+public class RowMapper {
+   private final Column[] columns;
+
+   /**
+    * Build a mapper from an entity's setters.  The setters only depend on the entity's class, so any
+    * instance will do.
+    */
+   private RowMapper(Entity ent) throws ReflectiveOperationException {
+      Map<String, Method> setters = ent.getSetters();
+      setters.remove("id");      // Don't want setID to load a field.
+      List<Column> cols = new ArrayList<>();
+      for (Map.Entry<String, Method> e: setters.entrySet()) {
+         Method meth = e.getValue();
+         Class<?> argClazz = meth.getParameterTypes()[0];
+         // We have some collection setters, but these only work for JSON, not for SQL.  The derived class
+         // will have to overload loadFields to provide the correct behaviour.
+         if (argClazz != List.class && argClazz != Map.class) {
+            meth.setAccessible(true);
+            cols.add(new Column(camelCaseToUnderscores(e.getKey()), meth, argClazz));
+         }
+      }
+      columns = cols.toArray(new Column[cols.size()]);
+   }
+
+   /**
+    * Get the mapper for the given entity's class, creating it if necessary.
+    *
+    * @param ent entity being loaded
+    * @return mapper for <code>ent</code>'s class
+    */
+   public static RowMapper getMapper(Entity ent) throws ReflectiveOperationException {
+      RowMapper result = MAPPERS.get(ent.getClass());
+      if (result == null) {
+         // Two threads may build the same mapper at once; that's harmless.
+         result = new RowMapper(ent);
+         MAPPERS.put(ent.getClass(), result);
+      }
+      return result;
+   }
+
+   /**
+    * Look up our column indices within the given result set.  Callers which load many rows from the same
+    * result set should do this once and pass the indices to each call to <code>load</code>.
+    *
+    * @param rs result set from which rows will be loaded
+    * @return index of each of our columns within <code>rs</code>
+    */
+   public int[] bind(ResultSet rs) throws SQLException {
+      int[] result = new int[columns.length];
+      for (int i = 0; i < columns.length; i++) {
+         result[i] = rs.findColumn(columns[i].name);
+      }
+      return result;
+   }
+
+   /**
+    * Load the current row of the result set into the entity.
+    *
+    * @param ent entity being loaded
+    * @param rs result set positioned at the row to be loaded
+    * @param indices column indices returned by <code>bind</code> for this result set
+    */
+   public void load(Entity ent, ResultSet rs, int[] indices) throws SQLException, ReflectiveOperationException {
+      for (int i = 0; i < columns.length; i++) {
+         columns[i].load(ent, rs, indices[i]);
+      }
+   }
+
+   /**
+    * How a column's value is converted before being passed to its setter.
+    */
+   private enum Conversion {
+      INT,
+      INTEGER,
+      STRING,
+      ENUM,
+      OBJECT,
+      CONSTRUCTED
+   }
+
+   /**
+    * A column and the setter into which it is loaded.
+    */
+   private static class Column {
+      final String name;
+      final Method setter;
+      final Class<?> argClazz;
+      final Conversion conversion;
+      final Constructor<?> constructor;
+
+      Column(String n, Method meth, Class<?> clazz) throws NoSuchMethodException {
+         name = n;
+         setter = meth;
+         argClazz = clazz;
+         if (clazz.isEnum()) {
+            conversion = Conversion.ENUM;
+         } else if (clazz == Integer.TYPE) {
+            conversion = Conversion.INT;
+         } else if (clazz == String.class) {
+            conversion = Conversion.STRING;
+         } else if (clazz == Integer.class) {
+            conversion = Conversion.INTEGER;
+         } else if (clazz.isPrimitive()) {
+            conversion = Conversion.OBJECT;
+         } else {
+            // Class is something like URI, which will need to be constructed.  For now, we assume that
+            // the object will have a one-argument string constructor.
+            conversion = Conversion.CONSTRUCTED;
+         }
+         constructor = conversion == Conversion.CONSTRUCTED ? clazz.getConstructor(String.class) : null;
+      }
+
+      void load(Entity ent, ResultSet rs, int index) throws SQLException, ReflectiveOperationException {
+         switch (conversion) {
+            case INT:
+               setter.invoke(ent, rs.getInt(index));
+               break;
+            case INTEGER:
+               int i = rs.getInt(index);
+               setter.invoke(ent, rs.wasNull() ? null : i);
+               break;
+            case STRING:
+               setter.invoke(ent, rs.getString(index));
+               break;
+            case ENUM:
+               String s = rs.getString(index);
+               setter.invoke(ent, s != null ? toEnum(argClazz, s) : null);
+               break;
+            case OBJECT:
+               setter.invoke(ent, rs.getObject(index));
+               break;
+            case CONSTRUCTED:
+               setter.invoke(ent, constructor.newInstance(rs.getString(index)));
+               break;
+         }
+      }
+   }
+
+   /**
+    * Convert a string to a value of the given enum class.  The column's class was checked with
+    * <code>isEnum</code> when the column was created, so the cast is safe.
+    */
+   @SuppressWarnings("unchecked")
+   private static <E extends Enum<E>> E toEnum(Class<?> clazz, String s) {
+      return Enum.valueOf((Class<E>)clazz, s);
+   }
+
+   private static final Map<Class<?>, RowMapper> MAPPERS = new ConcurrentHashMap<>();
+}
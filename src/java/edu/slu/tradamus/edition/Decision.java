@@ -101,6 +101,14 @@ public class Decision extends Annotation {
       parallel.merge(conn, ((Decision)newEnt).parallel);
    }
 
+   /**
+    * Decisions can't be skipped by <code>mergeChildren</code> on the strength of their fingerprints, since
+    * merging them also merges their Parallels and motes.
+    */
+   @Override
+   public long getFingerprint() {
+      return 0L;
+   }
    
    void setIndex(int i) {
       parallel.setIndex(i);
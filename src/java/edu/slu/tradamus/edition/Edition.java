@@ -24,7 +24,9 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import edu.slu.tradamus.annotation.Annotation;
+import edu.slu.tradamus.db.BatchLoader;
 import edu.slu.tradamus.db.Entity;
+import edu.slu.tradamus.db.GroupedRowReader;
 import edu.slu.tradamus.db.NoSuchEntityException;
 import edu.slu.tradamus.text.Page;
 import edu.slu.tradamus.text.Transcription;
@@ -208,32 +210,34 @@ public class Edition extends Entity {
    }
 
    /**
-    * We explicitly delete the witnesses first, so that their annotations get cleaned up.
+    * We explicitly delete the witnesses' annotations first, since they aren't cleaned up by cascading.  This
+    * is done for all the witnesses at once, rather than a witness (and a page) at a time.
     * @param conn connection to SQL database
     * @return true if something was deleted
     * @throws SQLException 
     */
    @Override
    public boolean delete(Connection conn) throws SQLException {
-      int deletions = 0;
-
-      // Fetch our witness IDs and delete any intersecting annotations.
-      List<Integer> witIDs = new ArrayList<>();
-      try (PreparedStatement stmt = conn.prepareStatement("SELECT `id` FROM witnesses " +
-              "WHERE `edition` = ?")) {
+      // Delete anything hanging off our witnesses, and then the witnesses themselves.
+      int deletions = Witness.deleteDependents(conn, "edition", id);
+      try (PreparedStatement stmt = conn.prepareStatement("DELETE FROM witnesses WHERE edition = ?")) {
          stmt.setInt(1, id);
-         ResultSet rs = stmt.executeQuery();
-         while (rs.next()) {
-            witIDs.add(rs.getInt(1));
-         }
+         deletions += stmt.executeUpdate();
       }
 
-      if (witIDs.size() > 0) {
-         for (int witID: witIDs) {
-            if (new Witness(witID).delete(conn)) {
-               deletions++;
-            }
-         }
+      // Delete annotations attached to our outlines and their parallels, which will go by cascading.
+      try (PreparedStatement stmt = conn.prepareStatement("DELETE annotations FROM annotations " +
+              "JOIN parallels ON target = parallels.id " +
+              "JOIN outlines ON outline = outlines.id " +
+              "WHERE target_type = 'PARALLEL' AND edition = ?")) {
+         stmt.setInt(1, id);
+         deletions += stmt.executeUpdate();
+      }
+      try (PreparedStatement stmt = conn.prepareStatement("DELETE annotations FROM annotations " +
+              "JOIN outlines ON target = outlines.id " +
+              "WHERE target_type = 'OUTLINE' AND edition = ?")) {
+         stmt.setInt(1, id);
+         deletions += stmt.executeUpdate();
       }
 
       // Delete edition metadata.
@@ -290,25 +294,32 @@ public class Edition extends Entity {
       if (deep) {
          executeLoad(conn, "SELECT editions.title, creator, creation, modification FROM editions " +
                  "WHERE editions.id = ?", true);
-         witnesses = loadChildren(conn, "SELECT * FROM witnesses WHERE edition = ?", Witness.class, true);
+         witnesses = BatchLoader.getGroup(BatchLoader.loadGrouped(conn, Witness.SELECT_FOR_BATCH_LOAD, "edition", Collections.singletonList(this), Witness.class), this);
+         Witness.loadConstituents(conn, witnesses);
       } else {
          executeLoad(conn, "SELECT editions.title, creator, creation, modification, witnesses.id, witnesses.title, siglum FROM editions " +
                  "LEFT JOIN witnesses ON edition = editions.id WHERE editions.id = ?", false);
       }
-      metadata = loadChildren(conn, SELECT_METADATA, Annotation.class, deep);
+      // SELECT_METADATA already returns whole annotation rows, so there's nothing more for a deep load to add.
+      metadata = loadChildren(conn, SELECT_METADATA, Annotation.class, false);
       outlines = loadChildren(conn, SELECT_OUTLINES, Outline.class, deep);
       permissions = loadChildren(conn, SELECT_PERMISSIONS_WITH_USERS, Permission.class, false);
    }
 
    @Override
-   public void loadFields(ResultSet rs, boolean deep) throws SQLException, ReflectiveOperationException {
-      super.loadFields(rs, deep);
+   public void loadFields(ResultSet rs, int[] columns, boolean deep) throws SQLException, ReflectiveOperationException {
+      super.loadFields(rs, columns, deep);
       
       // creation_time and modification_time don't have setters so we have to load them explicitly.
       creation = rs.getTimestamp("creation");
       modification = rs.getTimestamp("modification");
+   }
 
+   @Override
+   public void loadGroup(GroupedRowReader rows, boolean deep) throws SQLException, ReflectiveOperationException {
+      super.loadGroup(rows, deep);
       if (!deep) {
+         ResultSet rs = rows.getResultSet();
          witnesses = new ArrayList<>();
          do {
             int witID = rs.getInt("witnesses.id");
@@ -318,7 +329,7 @@ public class Edition extends Entity {
                wit.setSiglum(rs.getString("siglum"));
                witnesses.add(wit);
             }
-         } while (rs.next());
+         } while (rows.next());
       }
    }
 
@@ -415,10 +426,7 @@ public class Edition extends Entity {
 
    @Override
    public void markTopLevelModified(Connection conn) throws SQLException {
-      try (PreparedStatement stmt = conn.prepareStatement("UPDATE editions SET modification = NOW() WHERE id = ?")) {
-         stmt.setInt(1, id);
-         stmt.executeUpdate();
-      }
+      ModificationTracker.getInstance().markModified(id);
    }
    
    /**
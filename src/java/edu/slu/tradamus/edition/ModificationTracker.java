@@ -0,0 +1,182 @@
+/*
+ * Copyright 2015 Saint Louis University. Licensed under the
+ *	Educational Community License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package edu.slu.tradamus.edition;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.servlet.ServletException;
+import edu.slu.tradamus.db.BatchLoader;
+import edu.slu.tradamus.db.Entity;
+import static edu.slu.tradamus.util.ServletUtils.getDBConnection;
+
+
+/**
+ * Keeps track of which editions have been modified, and writes their modification times in the
+ * background.  However many entities are modified within an edition, the edition's row is only updated
+ * once per flush interval, and the update isn't part of the modifying user's transaction.
+ * <p>
+ * Because of this, an edition's modification time may lag by up to <code>FLUSH_INTERVAL</code>, and is
+ * lost if the server stops before the next flush.  Editions are also marked as soon as the modification
+ * is made, before the caller's transaction commits, so a modification which is later rolled back still
+ * advances the edition's modification time, though nothing in the edition itself has changed.
+ *
+ * @author tarkvara
+ */
+public class ModificationTracker {
+   /** Editions which have been modified since the last flush. */
+   private final Set<Integer> pending = new LinkedHashSet<>();
+
+   /** Edition which contains each entity, keyed by the entity's unique ID. */
+   private final Map<String, Integer> editionIDs = Collections.synchronizedMap(new LinkedHashMap<String, Integer>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+         return size() > MAX_CACHED_ENTITIES;
+      }
+   });
+
+   private final Thread flusher;
+
+   private ModificationTracker() {
+      flusher = new Thread(new Runnable() {
+         @Override
+         public void run() {
+            try {
+               while (true) {
+                  Thread.sleep(FLUSH_INTERVAL);
+                  try {
+                     flush();
+                  } catch (RuntimeException ex) {
+                     // Don't let one bad flush stop modification times from ever being written again.
+                     LOG.log(Level.SEVERE, "Error writing edition modification times.", ex);
+                  }
+               }
+            } catch (InterruptedException ex) {
+               // Tracker is shutting down, so write whatever is left.
+               flush();
+            }
+         }
+      }, "edition-modification-flusher");
+      flusher.setDaemon(true);
+      flusher.start();
+   }
+
+   /**
+    * Get the tracker shared by the whole application, creating it if necessary.
+    */
+   public static synchronized ModificationTracker getInstance() {
+      if (instance == null) {
+         instance = new ModificationTracker();
+      }
+      return instance;
+   }
+
+   /**
+    * Stop the background thread, after it has written any pending modification times.
+    */
+   public static synchronized void shutdown() {
+      if (instance != null) {
+         instance.flusher.interrupt();
+         try {
+            instance.flusher.join(FLUSH_INTERVAL);
+         } catch (InterruptedException ex) {
+            LOG.log(Level.WARNING, "Interrupted while flushing edition modification times.", ex);
+         }
+         instance = null;
+      }
+   }
+
+   /**
+    * Record that the given edition has been modified.
+    *
+    * @param edID ID of the modified edition
+    */
+   public synchronized void markModified(int edID) {
+      pending.add(edID);
+   }
+
+   /**
+    * Record that the edition containing the given entity has been modified.  The first time we see an
+    * entity, its edition is looked up in the database; after that, it comes from our cache.  The edition
+    * is marked straight away, even if <code>conn</code> is in a transaction which is later rolled back.
+    *
+    * @param conn connection to SQL database
+    * @param ent entity which has been modified
+    * @param selectEdition query which takes the entity's ID and returns the ID of its edition
+    */
+   public void markModified(Connection conn, Entity ent, String selectEdition) throws SQLException {
+      String key = ent.getUniqueID();
+      Integer edID = editionIDs.get(key);
+      if (edID == null) {
+         try (PreparedStatement stmt = conn.prepareStatement(selectEdition)) {
+            stmt.setInt(1, ent.getID());
+            ResultSet rs = stmt.executeQuery();
+            if (rs.next()) {
+               edID = rs.getInt(1);
+               editionIDs.put(key, edID);
+            }
+         }
+      }
+      if (edID != null) {
+         markModified(edID);
+      } else {
+         LOG.log(Level.WARNING, "{0} not attached to any edition.", key);
+      }
+   }
+
+   /**
+    * Write the modification times for all editions which have been modified since the last flush.  If
+    * the write fails, the editions are kept for the next attempt.
+    */
+   void flush() {
+      List<Integer> edIDs;
+      synchronized (this) {
+         if (pending.isEmpty()) {
+            return;
+         }
+         edIDs = new ArrayList<>(pending);
+         pending.clear();
+      }
+      try (Connection conn = getDBConnection()) {
+         try (PreparedStatement stmt = conn.prepareStatement(String.format("UPDATE editions SET modification = NOW() " +
+                 "WHERE id IN (%s)", BatchLoader.getPlaceholders(edIDs.size())))) {
+            int i = 1;
+            for (Integer edID: edIDs) {
+               stmt.setInt(i++, edID);
+            }
+            stmt.executeUpdate();
+         }
+      } catch (SQLException | ServletException ex) {
+         LOG.log(Level.WARNING, "Unable to write edition modification times.", ex);
+         synchronized (this) {
+            pending.addAll(edIDs);
+         }
+      }
+   }
+
+   /** Milliseconds between writes of the pending modification times. */
+   private static final long FLUSH_INTERVAL = 1000;
+
+   /** Maximum number of entities whose editions we remember. */
+   private static final int MAX_CACHED_ENTITIES = 100000;
+
+   private static ModificationTracker instance;
+
+   private static final Logger LOG = Logger.getLogger(ModificationTracker.class.getName());
+}
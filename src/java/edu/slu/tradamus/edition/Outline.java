@@ -26,6 +26,7 @@ import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import edu.slu.tradamus.annotation.Annotation;
 import edu.slu.tradamus.db.Entity;
+import edu.slu.tradamus.db.GroupedRowReader;
 import edu.slu.tradamus.user.PermissionException;
 import edu.slu.tradamus.user.Role;
 import edu.slu.tradamus.witness.Witness;
@@ -140,13 +141,13 @@ public class Outline extends Entity {
          bounds.load(conn, deep);
       }
       decisions = new ArrayList<>();
-      try (PreparedStatement stmt = conn.prepareStatement(SELECT_DECISIONS_AND_MOTES)) {
+      try (PreparedStatement stmt = GroupedRowReader.prepareStreaming(conn, SELECT_DECISIONS_AND_MOTES)) {
          stmt.setInt(1, id);
-         ResultSet rs = stmt.executeQuery();
-         while (rs.next()) {
+         GroupedRowReader rows = new GroupedRowReader(stmt.executeQuery());
+         while (rows.next()) {
             // Load the Parallel and all adjoined annotations.
-            Parallel par = new Parallel(rs.getInt("parallels.id"));
-            par.loadFields(rs, deep);
+            Parallel par = new Parallel(rows.getResultSet().getInt("parallels.id"));
+            par.loadGroup(rows, deep);
             
             decisions.add(new Decision(par));
          }
@@ -154,8 +155,8 @@ public class Outline extends Entity {
    }
 
    @Override
-   public void loadFields(ResultSet rs, boolean deep) throws SQLException, ReflectiveOperationException {
-      super.loadFields(rs, deep);
+   public void loadFields(ResultSet rs, int[] columns, boolean deep) throws SQLException, ReflectiveOperationException {
+      super.loadFields(rs, columns, deep);
       
       int boundsID = rs.getInt("bounds");
       if (!rs.wasNull()) {
@@ -276,13 +277,7 @@ public class Outline extends Entity {
 
    @Override
    public void markTopLevelModified(Connection conn) throws SQLException {
-      try (PreparedStatement stmt = conn.prepareCall("UPDATE editions " +
-              "LEFT JOIN outlines ON edition = editions.id " +
-              "SET modification = NOW() " +
-              "WHERE outlines.id = ?")) {
-         stmt.setInt(1, id);
-         stmt.executeUpdate();
-      }
+      ModificationTracker.getInstance().markModified(conn, this, "SELECT edition FROM outlines WHERE id = ?");
    }
 
    public int getIndex() {
@@ -28,6 +28,7 @@ import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import edu.slu.tradamus.annotation.Annotation;
 import edu.slu.tradamus.db.Entity;
+import edu.slu.tradamus.db.GroupedRowReader;
 import edu.slu.tradamus.db.NoSuchEntityException;
 import edu.slu.tradamus.user.PermissionException;
 import edu.slu.tradamus.user.Role;
@@ -89,15 +90,16 @@ public class Parallel extends Entity {
 
    @Override
    public void insert(Connection conn) throws IOException, SQLException {
-      executeInsert(conn, "INSERT INTO parallels (" +
-            "outline, `index`" +
-            ") VALUES(?, ?)",
-            outline.getID(), index);
+      allocateID(conn);
+      executeUpdate(conn, "INSERT INTO parallels (" +
+            "id, outline, `index`" +
+            ") VALUES(?, ?, ?)",
+            id, outline.getID(), index);
       if (sources != null) {
          for (Annotation ann: sources) {
             if (ann.getID() != 0) {
                // Using an already-existent annotation for bounds.  Make sure it's targetted at this parallel.
-               executeUpdate(conn, "UPDATE `annotations` SET `target` = ?, `target_type` = 'PARALLEL', `target_fragment` = ? " +
+               executeUpdate(conn, "UPDATE `annotations` SET `target` = ?, `target_type` = 'PARALLEL', `target_fragment` = ?, `fingerprint` = NULL " +
                        "WHERE `id` = ?", id, ann.getTargetFragment(), ann.getID());
             } else {
                if (ann.getType() == null) {
@@ -158,34 +160,24 @@ public class Parallel extends Entity {
 
    @Override
    public void markTopLevelModified(Connection conn) throws SQLException {
-      try (PreparedStatement stmt = conn.prepareCall("UPDATE editions " +
-              "LEFT JOIN outlines ON edition = editions.id " +
-              "LEFT JOIN parallels ON outline = outlines.id " +
-              "SET modification = NOW() " +
-              "WHERE parallels.id = ?")) {
-         stmt.setInt(1, id);
-         stmt.executeUpdate();
-      }
+      ModificationTracker.getInstance().markModified(conn, this, "SELECT edition FROM outlines " +
+              "JOIN parallels ON outline = outlines.id " +
+              "WHERE parallels.id = ?");
    }
 
    @Override
-   public void loadFields(ResultSet rs, boolean deep) throws SQLException, ReflectiveOperationException {
-      super.loadFields(rs, deep);
+   public void loadGroup(GroupedRowReader rows, boolean deep) throws SQLException, ReflectiveOperationException {
+      super.loadGroup(rows, deep);
+      ResultSet rs = rows.getResultSet();
       sources = new ArrayList<>();
       do {
-         int parID = rs.getInt("parallels.id");
-         if (parID != id) {
-            // Have rolled into the next parallel.
-            rs.previous();
-            break;
-         }
          int annID = rs.getInt("annotations.id");
          if (annID > 0) {
             Annotation ann = new Annotation(annID);
-            ann.loadFields(rs, false);
+            ann.loadFields(rs, rows.getColumns(ann), false);
             sources.add(ann);
          }
-      } while (rs.next());
+      } while (rows.nextInGroup("parallels.id", id));
    }
 
    /**
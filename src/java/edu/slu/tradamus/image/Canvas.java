@@ -24,8 +24,10 @@ import java.util.*;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import edu.slu.tradamus.annotation.Annotation;
+import edu.slu.tradamus.db.BatchLoader;
 import edu.slu.tradamus.db.Entity;
 import edu.slu.tradamus.db.NoSuchEntityException;
+import edu.slu.tradamus.edition.ModificationTracker;
 import edu.slu.tradamus.text.Page;
 import edu.slu.tradamus.user.PermissionException;
 import edu.slu.tradamus.user.Role;
@@ -281,17 +283,54 @@ public class Canvas extends Entity {
     */
    @Override
    public void insert(Connection conn) throws SQLException {
-      id = manifest.getID() * 1000 + index;
-      executeInsert(conn, "INSERT INTO `canvasses` (" +
-            "`id`, `manifest`, `index`, `page`, `title`, `width`, `height`" +
-            ") VALUES(?, ?, ?, ?, ?, ?, ?)",
-            id, manifest.getID(), index, getPageID(), title, width, height);
+      allocateID(conn);
+      executeUpdate(conn, INSERT_CANVASSES + " (?, ?, ?, ?, ?, ?, ?)", getInsertValues());
 
+      List<Image> imgs = new ArrayList<>();
+      addImagesForInsert(imgs);
+      if (!imgs.isEmpty()) {
+         imgs.get(0).insertBatch(conn, imgs);
+      }
+   }
+
+   /**
+    * Insert a list of canvasses using multi-row INSERTs, followed by all of their images.
+    *
+    * @param conn connection to SQL database
+    * @param ents canvasses to be inserted
+    */
+   @Override
+   public void insertBatch(Connection conn, List<? extends Entity> ents) throws SQLException {
+      allocateIDs(conn, ents);
+      List<Object[]> rows = new ArrayList<>(ents.size());
+      List<Image> imgs = new ArrayList<>();
+      for (Entity e: ents) {
+         Canvas canv = (Canvas)e;
+         rows.add(canv.getInsertValues());
+         canv.addImagesForInsert(imgs);
+      }
+      executeBatchInsert(conn, INSERT_CANVASSES, ents, rows);
+      if (!imgs.isEmpty()) {
+         imgs.get(0).insertBatch(conn, imgs);
+      }
+   }
+
+   /**
+    * Get the values which go into the columns of <code>INSERT_CANVASSES</code>.
+    */
+   private Object[] getInsertValues() {
+      return new Object[] { id, manifest.getID(), index, getPageID(), title, width, height };
+   }
+
+   /**
+    * Point our images at this canvas and collect them so they can be inserted.
+    */
+   private void addImagesForInsert(List<Image> imgs) {
       int i = 0;
       for (Image img: images) {
          img.setCanvasID(id);
          img.setIndex(i++);
-         img.insert(conn);
+         imgs.add(img);
       }
    }
 
@@ -307,6 +346,22 @@ public class Canvas extends Entity {
       images = loadChildren(conn, SELECT_IMAGES, Image.class, false);
    }
 
+   /**
+    * Load the lines and images for a list of already-loaded canvasses, using one query for each rather
+    * than two per canvas.
+    *
+    * @param conn connection to SQL database
+    * @param canvasses canvasses whose lines and images are to be loaded
+    */
+   public static void loadConstituents(Connection conn, List<Canvas> canvasses) throws SQLException, ReflectiveOperationException {
+      Map<Integer, List<Annotation>> lines = BatchLoader.loadGrouped(conn, SELECT_LINES_FOR_CANVASSES, "canvas", canvasses, Annotation.class);
+      Map<Integer, List<Image>> images = BatchLoader.loadGrouped(conn, SELECT_IMAGES_FOR_CANVASSES, "canvas", canvasses, Image.class);
+      for (Canvas canv: canvasses) {
+         canv.lines = BatchLoader.getGroup(lines, canv);
+         canv.images = BatchLoader.getGroup(images, canv);
+      }
+   }
+
    @Override
    public void merge(Connection conn, Entity newEnt) throws IOException, SQLException, ReflectiveOperationException, PermissionException {
       Canvas newCanv = (Canvas)newEnt;
@@ -355,15 +410,10 @@ public class Canvas extends Entity {
 
    @Override
    public void markTopLevelModified(Connection conn) throws SQLException {
-      try (PreparedStatement stmt = conn.prepareCall("UPDATE editions " +
-              "LEFT JOIN witnesses ON edition = editions.id " +
-              "LEFT JOIN manifests ON witness = witnesses.id " +
-              "LEFT JOIN canvasses ON manifest = manifests.id " +
-              "SET modification = NOW() " +
-              "WHERE canvasses.id = ?")) {
-         stmt.setInt(1, id);
-         stmt.executeUpdate();
-      }
+      ModificationTracker.getInstance().markModified(conn, this, "SELECT edition FROM witnesses " +
+              "JOIN manifests ON witness = witnesses.id " +
+              "JOIN canvasses ON manifest = manifests.id " +
+              "WHERE canvasses.id = ?");
    }
 
    public static final String SELECT_ANNOTATIONS = "SELECT * FROM annotations " +
@@ -379,6 +429,20 @@ public class Canvas extends Entity {
            "WHERE canvas = ? AND type = 'line' " +
            "ORDER BY start_page, start_offset";
 
+   public static final String SELECT_IMAGES_FOR_CANVASSES = "SELECT * FROM `images` " +
+           "WHERE `canvas` IN (%s) ORDER BY `canvas`, `index`";
+
+   public static final String SELECT_LINES_FOR_CANVASSES = "SELECT * FROM `annotations` " +
+           "WHERE canvas IN (%s) AND type = 'line' " +
+           "ORDER BY canvas, start_page, start_offset";
+
+   /**
+    * Beginning of INSERT statement for canvasses, up to and including <code>VALUES</code>.
+    */
+   private static final String INSERT_CANVASSES = "INSERT INTO `canvasses` (" +
+           "`id`, `manifest`, `index`, `page`, `title`, `width`, `height`" +
+           ") VALUES";
+
    public static Comparator<Canvas> getIndexComparator() {
       return new Comparator<Canvas>() {
          @Override
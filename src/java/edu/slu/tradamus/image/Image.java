@@ -19,11 +19,14 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Comparator;
-import java.util.Objects;
+import java.util.List;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import edu.slu.tradamus.db.Entity;
+import edu.slu.tradamus.db.FingerprintBuilder;
 import edu.slu.tradamus.db.NoSuchEntityException;
+import edu.slu.tradamus.edition.ModificationTracker;
 import edu.slu.tradamus.user.PermissionException;
 import edu.slu.tradamus.user.Role;
 
@@ -152,17 +155,36 @@ public class Image extends Entity {
 
    @Override
    public void insert(Connection conn) throws SQLException {
-      executeInsert(conn, "INSERT INTO `images` (`" +
-            "canvas`, `index`, `uri`, `format`, `width`, `height`" +
-            ") VALUES(?, ?, ?, ?, ?, ?)",
-            canvas.getID(), index, uri.toString(), format.toString(), width, height);
+      executeInsert(conn, INSERT_IMAGES + " (?, ?, ?, ?, ?, ?)", getInsertValues());
+   }
+
+   /**
+    * Insert a list of images using multi-row INSERTs.
+    *
+    * @param conn connection to SQL database
+    * @param ents images to be inserted
+    */
+   @Override
+   public void insertBatch(Connection conn, List<? extends Entity> ents) throws SQLException {
+      List<Object[]> rows = new ArrayList<>(ents.size());
+      for (Entity e: ents) {
+         rows.add(((Image)e).getInsertValues());
+      }
+      executeBatchInsert(conn, INSERT_IMAGES, ents, rows);
+   }
+
+   /**
+    * Get the values which go into the columns of <code>INSERT_IMAGES</code>.
+    */
+   private Object[] getInsertValues() {
+      return new Object[] { canvas.getID(), index, uri.toString(), format.toString(), width, height };
    }
 
    @Override
    public void merge(Connection conn, Entity newEnt) throws SQLException {
       Image newImg = (Image)newEnt;
       
-      if (index != newImg.index || !Objects.equals(uri, newImg.uri) || format != newImg.format || width != newImg.height) {
+      if (getFingerprint() != newImg.getFingerprint()) {
          // Update top-level fields.
          index = newImg.index;
          uri = newImg.uri;
@@ -177,18 +199,18 @@ public class Image extends Entity {
       newImg.id = id;
    }
 
+   @Override
+   protected long computeFingerprint() {
+      return new FingerprintBuilder().add(index).add(uri != null ? uri.toString() : null).add(format).add(width).add(height).get();
+   }
+
    @Override
    public void markTopLevelModified(Connection conn) throws SQLException {
-      try (PreparedStatement stmt = conn.prepareCall("UPDATE editions " +
-              "LEFT JOIN witnesses ON edition = editions.id " +
-              "LEFT JOIN manifests ON witness = witnesses.id " +
-              "LEFT JOIN canvasses ON manifest = manifests.id " +
-              "LEFT JOIN images ON canvas = canvasses.id " +
-              "SET modification = NOW() " +
-              "WHERE images.id = ?")) {
-         stmt.setInt(1, id);
-         stmt.executeUpdate();
-      }
+      ModificationTracker.getInstance().markModified(conn, this, "SELECT edition FROM witnesses " +
+              "JOIN manifests ON witness = witnesses.id " +
+              "JOIN canvasses ON manifest = manifests.id " +
+              "JOIN images ON canvas = canvasses.id " +
+              "WHERE images.id = ?");
    }
 
    @Override
@@ -222,6 +244,13 @@ public class Image extends Entity {
       };
    }
    
+   /**
+    * Beginning of INSERT statement for images, up to and including <code>VALUES</code>.
+    */
+   private static final String INSERT_IMAGES = "INSERT INTO `images` (" +
+         "`canvas`, `index`, `uri`, `format`, `width`, `height`" +
+         ") VALUES";
+
    public enum Format {
       JPEG,
       PDF,
@@ -23,7 +23,10 @@ import java.util.*;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import edu.slu.tradamus.db.BatchLoader;
 import edu.slu.tradamus.db.Entity;
+import edu.slu.tradamus.db.GroupedRowReader;
+import edu.slu.tradamus.edition.ModificationTracker;
 import edu.slu.tradamus.text.Page;
 import edu.slu.tradamus.user.Permission;
 import edu.slu.tradamus.user.PermissionException;
@@ -141,7 +144,9 @@ public class Manifest extends Entity {
       for (Canvas canv: canvasses) {
          canv.setManifestID(id);
          canv.setIndex(i++);
-         canv.insert(conn);
+      }
+      if (!canvasses.isEmpty()) {
+         canvasses.get(0).insertBatch(conn, canvasses);
       }
    }
 
@@ -153,27 +158,48 @@ public class Manifest extends Entity {
       if (deep) {
          executeLoad(conn, "SELECT witness FROM manifests " +
               "WHERE manifests.id = ?", true);
-         canvasses = loadChildren(conn, "SELECT * FROM canvasses WHERE manifest = ?", Canvas.class, true);
+         loadConstituents(conn, Collections.singletonList(this));
       } else {
          executeLoad(conn, "SELECT witness, canvasses.id FROM manifests " +
               "LEFT JOIN canvasses ON manifest = manifests.id " +
               "WHERE manifests.id = ?", false);
+         permissions = loadChildren(conn, SELECT_PERMISSIONS_WITH_USERS, Permission.class, false);
       }
-      permissions = loadChildren(conn, SELECT_PERMISSIONS_WITH_USERS, Permission.class, deep);
+   }
+
+   /**
+    * Load the canvasses (with their lines and images) and permissions for a list of already-loaded
+    * manifests.  Each level is fetched with a single query, however many manifests and canvasses there
+    * are.
+    *
+    * @param conn connection to SQL database
+    * @param mans manifests whose constituents are to be loaded
+    */
+   public static void loadConstituents(Connection conn, List<Manifest> mans) throws SQLException, ReflectiveOperationException {
+      Map<Integer, List<Canvas>> canvs = BatchLoader.loadGrouped(conn, SELECT_CANVASSES_FOR_MANIFESTS, "manifest", mans, Canvas.class);
+      Map<Integer, List<Permission>> perms = BatchLoader.loadGrouped(conn, SELECT_PERMISSIONS_FOR_MANIFESTS, "target", mans, Permission.class);
+      List<Canvas> allCanvs = new ArrayList<>();
+      for (Manifest man: mans) {
+         man.canvasses = BatchLoader.getGroup(canvs, man);
+         man.permissions = BatchLoader.getGroup(perms, man);
+         allCanvs.addAll(man.canvasses);
+      }
+      Canvas.loadConstituents(conn, allCanvs);
    }
 
    @Override
-   public void loadFields(ResultSet rs, boolean deep) throws SQLException, ReflectiveOperationException {
-      super.loadFields(rs, deep);
+   public void loadGroup(GroupedRowReader rows, boolean deep) throws SQLException, ReflectiveOperationException {
+      super.loadGroup(rows, deep);
       if (!deep) {
          // If we're doing a shallow load, we can just pull the canvas IDs out of the join
+         ResultSet rs = rows.getResultSet();
          canvasses = new ArrayList<>();
          do {
             int canvID = rs.getInt("canvasses.id");
             if (canvID > 0) {
                canvasses.add(new Canvas(canvID));
             }
-         } while (rs.next());
+         } while (rows.next());
       }
    }
 
@@ -232,18 +258,16 @@ public class Manifest extends Entity {
 
    @Override
    public void markTopLevelModified(Connection conn) throws SQLException {
-      try (PreparedStatement stmt = conn.prepareCall("UPDATE editions " +
-              "LEFT JOIN witnesses ON edition = editions.id " +
-              "LEFT JOIN manifests ON witness = witnesses.id " +
-              "SET modification = NOW() " +
-              "WHERE manifests.id = ?")) {
-         stmt.setInt(1, id);
-         stmt.executeUpdate();
-      }
+      ModificationTracker.getInstance().markModified(conn, this, "SELECT edition FROM witnesses " +
+              "JOIN manifests ON witness = witnesses.id " +
+              "WHERE manifests.id = ?");
    }
 
    private static final Logger LOG = Logger.getLogger(Manifest.class.getName());
 
+   public static final String SELECT_CANVASSES_FOR_MANIFESTS = "SELECT * FROM canvasses " +
+         "WHERE manifest IN (%s) ORDER BY manifest, canvasses.index";
+
    public static final String SELECT_CANVASSES_WITH_IMAGES = "SELECT * FROM canvasses " +
          "LEFT JOIN images ON canvas = canvasses.id " +
          "WHERE manifest = ? ORDER BY canvasses.index, images.index";
@@ -259,5 +283,10 @@ public class Manifest extends Entity {
    public static final String SELECT_PERMISSIONS_WITH_USERS = "SELECT permissions.id AS id, target_type, target, role, " +
          "user, name, mail FROM permissions " +
          "JOIN users ON user = users.id " +
-         "WHERE target_type = 'MANIFEST' AND target = ?";   
+         "WHERE target_type = 'MANIFEST' AND target = ?";
+
+   public static final String SELECT_PERMISSIONS_FOR_MANIFESTS = "SELECT permissions.id AS id, target_type, target, role, " +
+         "user, name, mail FROM permissions " +
+         "JOIN users ON user = users.id " +
+         "WHERE target_type = 'MANIFEST' AND target IN (%s)";
 }
@@ -199,8 +199,8 @@ public class Publication extends Entity {
    }
 
    @Override
-   public void loadFields(ResultSet rs, boolean deep) throws SQLException, ReflectiveOperationException {
-      super.loadFields(rs, deep);
+   public void loadFields(ResultSet rs, int[] columns, boolean deep) throws SQLException, ReflectiveOperationException {
+      super.loadFields(rs, columns, deep);
       
       // creation_time and modification_time don't have setters so we have to load them explicitly.
       creation = rs.getTimestamp("creation");
@@ -17,10 +17,10 @@ package edu.slu.tradamus.publication;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.Comparator;
-import java.util.Objects;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import edu.slu.tradamus.db.Entity;
+import edu.slu.tradamus.db.FingerprintBuilder;
 import static edu.slu.tradamus.db.Entity.executeUpdate;
 import edu.slu.tradamus.user.PermissionException;
 
@@ -124,7 +124,7 @@ public class Rule extends Entity {
    public void merge(Connection conn, Entity newEnt) throws SQLException, PermissionException, ReflectiveOperationException {
       Rule newRule = (Rule)newEnt;
 
-      if (!Objects.equals(selector, newRule.selector) || !Objects.equals(action, newRule.action)) {
+      if (getFingerprint() != newRule.getFingerprint()) {
          selector = newRule.selector;
          action = newRule.action;
          executeUpdate(conn, "UPDATE `rules` SET `selector` = ?, `action` = ? WHERE `id` = ?", selector, action, id);
@@ -132,6 +132,11 @@ public class Rule extends Entity {
       newRule.id = id;
    }
 
+   @Override
+   protected long computeFingerprint() {
+      return new FingerprintBuilder().add(type).add(selector).add(action).get();
+   }
+
    @Override
    public void markTopLevelModified(Connection conn) throws SQLException {
       throw new UnsupportedOperationException("Rules can't be modified directly.");
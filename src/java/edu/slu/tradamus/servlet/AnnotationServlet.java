@@ -189,7 +189,7 @@ public class AnnotationServlet extends HttpServlet {
       ann.checkPermission(conn, uID, Role.EDITOR);
 
       conn.setAutoCommit(false);
-      try (PreparedStatement stmt = conn.prepareStatement("UPDATE annotations SET approved_by = ? " +
+      try (PreparedStatement stmt = conn.prepareStatement("UPDATE annotations SET approved_by = ?, fingerprint = NULL " +
               "WHERE id = ?")) {
          stmt.setInt(1, uID);
          stmt.setInt(2, ann.getID());
@@ -20,18 +20,19 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import javax.xml.stream.XMLStreamException;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.google.common.io.ByteStreams;
 import eu.interedition.collatex.Token;
-import edu.slu.tradamus.annotation.Annotation;
 import edu.slu.tradamus.collation.*;
 import edu.slu.tradamus.db.NoSuchEntityException;
 import edu.slu.tradamus.edition.Edition;
@@ -41,7 +42,10 @@ import edu.slu.tradamus.text.Transcription;
 import edu.slu.tradamus.user.PermissionException;
 import edu.slu.tradamus.user.Role;
 import edu.slu.tradamus.util.DeferredDeliverable;
+import edu.slu.tradamus.util.JobScheduler;
+import edu.slu.tradamus.util.LangUtils;
 import static edu.slu.tradamus.util.JsonUtils.getObjectMapper;
+import static edu.slu.tradamus.util.LangUtils.buildQuickMap;
 import edu.slu.tradamus.util.MessageID;
 import edu.slu.tradamus.util.MessageUtils;
 import static edu.slu.tradamus.util.ServletUtils.*;
@@ -54,6 +58,12 @@ import static edu.slu.tradamus.util.ServletUtils.*;
  */
 public class CollationServlet extends HttpServlet {
 
+   /**
+    * Shared by all requests, so that the number of witnesses being tokenised at once (and the number of
+    * database connections they hold) stays bounded.
+    */
+   private ExecutorService tokeniserPool;
+
    /**
     * Handles the HTTP <code>POST</code> method by building a collation structure for the given edition, and returning it to
     * the caller as a STOA.
@@ -68,59 +78,62 @@ public class CollationServlet extends HttpServlet {
       final int uID = getUserID(req, resp);
       if (uID > 0) {
          try (Connection conn = getDBConnection()) {
-            // Basic parameters
-            CollationWitness.IgnoreLineBreaks ignoreLineBreaks = CollationWitness.IgnoreLineBreaks.fromString(req.getParameter("ignoreLineBreaks"));
-            boolean ignoreCase = "true".equals(req.getParameter("ignoreCase"));
-            boolean ignorePunct = "true".equals(req.getParameter("ignorePunctuation"));
-            boolean useTEITags = "true".equals(req.getParameter("useTEITags"));
-            boolean deferred = "true".equals(req.getParameter("deferred"));
-
-            // Comparison type.
-            final CollationWitness.Comparison comparison = CollationWitness.Comparison.fromString(req.getParameter("comparison"));
-            final String[] dicts = req.getParameterValues("dict");   // For orthographic comparisons.
-
-            final List<CollationWitness> collWits;
-            String[] pathParts = getPathParts(req);
-            if (pathParts.length >= 2) {
-               // Full-edition collation
-               collWits = getFullCollationWitnesses(conn, new Edition(Integer.parseInt(pathParts[1])), uID, ignoreLineBreaks, ignoreCase, ignorePunct, useTEITags);
+            CollationRequest collReq = new CollationRequest(req);
+            if ("true".equals(req.getParameter("deferred"))) {
+               // Witnesses are loaded and collated when the scheduler gets round to the job, but permissions and
+               // ranges are checked now so that a bad request is rejected before anything is queued.
+               if (collReq.editionID > 0) {
+                  new Edition(collReq.editionID).checkPermission(conn, uID, Role.VIEWER);
+               } else {
+                  checkRanges(conn, collReq.ranges, uID);
+               }
+               new CollationJob(req, uID, collReq).deferredRequest(conn, resp, MessageID.DEFERRED_COLLATION);
             } else {
-               // Partial collation of the text ranges specified in the request body.
-               collWits = getPartialCollationWitnesses(conn, req, uID, ignoreLineBreaks, ignoreCase, ignorePunct, useTEITags);
-            }
+               List<CheckedRange> ranges = getCollationRanges(conn, collReq, uID);
+               CollationResultCache.Key key = getResultKey(conn, ranges, collReq);
 
-            if (deferred) {
-               new DeferredDeliverable(req) {
-                  @Override
-                  public void run() {
-                     try (Connection conn = getDBConnection()) {
-                        ByteArrayOutputStream jsonBytes = new ByteArrayOutputStream();
-                        writeCollationResults(conn, collWits, getComparator(conn, collWits, comparison, dicts), jsonBytes);
-                        conn.setAutoCommit(false);
-                        try (PreparedStatement stmt = conn.prepareStatement("UPDATE `deliverables` SET `body` = ? WHERE `id` = ?")) {
-                           stmt.setCharacterStream(1, new InputStreamReader(new ByteArrayInputStream(jsonBytes.toByteArray())));
-                           stmt.setInt(2, deliverableID);
-                           stmt.executeUpdate();
-                        }
-                        conn.commit();
-
-                        sendMail(conn, uID, "Collation Complete", MessageUtils.format(MessageID.COLLATION_COMPLETE, fullURL, serverURL, deliverableID));
-                     } catch (IOException | SQLException | ServletException | XMLStreamException ex) {
-                        LOG.log(Level.SEVERE, "Error saving collation results", ex);
-                     }
-                  }
-               }.deferredRequest(conn, resp, MessageID.DEFERRED_COLLATION);
-            } else {
-               // Perform the collation and write the results to the response stream.
+               // Perform the collation (or find it in the cache) and copy the results to the response stream.
                resp.setContentType("application/json; charset=UTF-8");
-               writeCollationResults(conn, collWits, getComparator(conn, collWits, comparison, dicts), resp.getOutputStream());
+               try (InputStream json = openCollationResults(conn, ranges, key, collReq)) {
+                  ByteStreams.copy(json, resp.getOutputStream());
+               }
             }
-         } catch (SQLException | ArrayIndexOutOfBoundsException | NumberFormatException | ReflectiveOperationException | PermissionException | XMLStreamException ex) {
+         } catch (SQLException | ArrayIndexOutOfBoundsException | IllegalArgumentException | ReflectiveOperationException | PermissionException ex) {
             reportInternalError(resp, ex);
          }
       }
    }
 
+   /**
+    * Set up the pool of threads which tokenise witnesses for collations.
+    */
+   @Override
+   public void init() throws ServletException {
+      tokeniserPool = Executors.newFixedThreadPool(TOKENISER_THREADS, new ThreadFactory() {
+         private final AtomicInteger threadNum = new AtomicInteger();
+
+         @Override
+         public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "collation-tokeniser-" + threadNum.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+         }
+      });
+
+      // Pick up any deferred collations which were waiting when the server was shut down.
+      JobScheduler.getInstance().registerJobType(COLLATION_JOB, new JobScheduler.JobFactory() {
+         @Override
+         public DeferredDeliverable recreate(DeferredDeliverable.JobRecord rec) throws IOException {
+            return new CollationJob(rec);
+         }
+      });
+   }
+
+   @Override
+   public void destroy() {
+      tokeniserPool.shutdownNow();
+   }
+
    /**
     * Returns a short description of the servlet.
     *
@@ -132,47 +145,103 @@ public class CollationServlet extends HttpServlet {
    }
    
    /**
-    * Create the collation witnesses when doing a full-edition collation.
+    * Work out which text ranges a collation request covers, and load their transcriptions.  Nothing is
+    * tokenised yet, since the results may already be cached.
     * @param conn connection to SQL database
-    * @param ed edition whose witnesses are being collated
+    * @param collReq parameters of the collation
     * @param uID ID of user who made the request
-    * @return collation witnesses suitable for feeding to CollateX
+    * @return the ranges to be collated, leaving out any transcriptions which the user isn't allowed to read
     */
-   private List<CollationWitness> getFullCollationWitnesses(Connection conn, Edition ed, int uID, CollationWitness.IgnoreLineBreaks ignoreLineBreaks, boolean ignoreCase, boolean ignorePunct, boolean useTEITags) throws SQLException, PermissionException, IOException, ReflectiveOperationException {
-      List<CollationWitness> result = new ArrayList<>();
-
-      ed.checkPermission(conn, uID, Role.VIEWER);
-      List<Transcription> transcrs = ed.loadTranscriptions(conn, uID);
-      for (Transcription t: transcrs) {
-         try {
-            t.checkPermission(conn, uID, Role.VIEWER);
-            CollationWitness w = new CollationWitness(t, ignoreLineBreaks, ignoreCase, ignorePunct, useTEITags);
-            w.tokenise(conn);
-            result.add(w);
-         } catch (PermissionException ex) {
-            // No harm done.  The collation will skip this transcription because we aren't allowed to read it.
+   private static List<CheckedRange> getCollationRanges(Connection conn, CollationRequest collReq, int uID) throws SQLException, PermissionException, ReflectiveOperationException {
+      List<CheckedRange> result;
+      if (collReq.editionID > 0) {
+         // Full-edition collation
+         Edition ed = new Edition(collReq.editionID);
+         ed.checkPermission(conn, uID, Role.VIEWER);
+         result = new ArrayList<>();
+         for (Transcription t: ed.loadTranscriptions(conn, uID)) {
+            try {
+               t.checkPermission(conn, uID, Role.VIEWER);
+               result.add(new CheckedRange(t, 0, 0, t.getPageCount() - 1, -1));
+            } catch (PermissionException ex) {
+               // No harm done.  The collation will skip this transcription because we aren't allowed to read it.
+            }
+         }
+      } else {
+         // Partial collation of the text ranges specified in the request body.
+         result = checkRanges(conn, collReq.ranges, uID);
+         for (CheckedRange r: result) {
+            r.transcription.load(conn, false);
          }
       }
       return result;
    }
 
    /**
-    * Create the collation witnesses when doing a partial-edition collation.
+    * Build the key which identifies a collation's results, without having to tokenise anything.
     * @param conn connection to SQL database
-    * @param req servlet request whose body contains the text ranges to be processed
-    * @param uID ID of user who made the request
+    * @param ranges text ranges being collated, with their transcriptions loaded
+    * @param collReq parameters of the collation
+    * @return key for the collation result cache
+    */
+   private static CollationResultCache.Key getResultKey(Connection conn, List<CheckedRange> ranges, CollationRequest collReq) throws SQLException {
+      CollationResultCache.Key result = new CollationResultCache.Key(collReq.getOptions(conn));
+      for (CheckedRange r: ranges) {
+         result.addWitness(conn, r.transcription, r.startIndex, r.startOffset, r.endIndex, r.endOffset);
+      }
+      return result;
+   }
+
+   /**
+    * Tokenise the witnesses for a collation.  The ranges are tokenised on the request's own connection,
+    * with help from the tokeniser pool when pooled connections are available.
+    * @param conn connection to SQL database
+    * @param ranges text ranges being collated, with their transcriptions loaded
+    * @param collReq parameters of the collation
     * @return collation witnesses suitable for feeding to CollateX
     */
-   private List<CollationWitness> getPartialCollationWitnesses(Connection conn, HttpServletRequest req, int uID, CollationWitness.IgnoreLineBreaks ignoreLineBreaks, boolean ignoreCase, boolean ignorePunct, boolean useTEITags) throws IOException, ReflectiveOperationException, SQLException, PermissionException {
-      List<CollationWitness> result = new ArrayList<>();
+   private List<CollationWitness> getCollationWitnesses(Connection conn, List<CheckedRange> ranges, CollationRequest collReq) throws SQLException, IOException, ReflectiveOperationException, ServletException {
+      // The pool's threads are shared by all requests, so between them they never hold more than
+      // TOKENISER_THREADS extra connections.  Since the request thread also does its share of the work,
+      // the collation keeps going even when none of the helpers can get a connection.
+      final WitnessTokeniser tokeniser = new WitnessTokeniser(ranges, collReq.ignoreLineBreaks, collReq.normalizer, collReq.useTEITags);
+      List<Future<?>> helpers = new ArrayList<>();
+      for (int i = 1; i < Math.min(TOKENISER_THREADS, ranges.size()); i++) {
+         helpers.add(tokeniserPool.submit(new Runnable() {
+            @Override
+            public void run() {
+               tokeniser.runWithOwnConnection();
+            }
+         }));
+      }
+      try {
+         tokeniser.run(conn);
+         tokeniser.await();
+      } finally {
+         // Helpers which are still waiting for a connection are no longer needed.
+         for (Future<?> f: helpers) {
+            f.cancel(true);
+         }
+      }
+      return tokeniser.getWitnesses();
+   }
 
-      // Because we want allow annotations to be passed here, we don't deserialise directly to
-      // List<TextAnchor>.  Instead we deserialise into a Map and pull out the relevant fields.
-      ObjectMapper mapper = getObjectMapper();
-      List<Map<String, Object>> rawRanges = (List<Map<String, Object>>)mapper.readValue(req.getInputStream(), new TypeReference<List<Map<String, Object>>>() {});
+   /**
+    * Check that the ranges for a partial collation are well-formed, that each lies within a single
+    * transcription, and that the user is allowed to view those transcriptions.
+    * @param conn connection to SQL database
+    * @param rawRanges text ranges to be processed, as deserialised from the request body
+    * @param uID ID of user who made the request
+    * @return the ranges, resolved to (not yet loaded) transcriptions and page indices
+    */
+   private static List<CheckedRange> checkRanges(Connection conn, List<Map<String, Object>> rawRanges, int uID) throws SQLException, PermissionException {
+      if (rawRanges == null) {
+         throw new IllegalArgumentException("No text ranges specified.");
+      }
+      List<CheckedRange> result = new ArrayList<>();
       try (PreparedStatement stmt = conn.prepareStatement("SELECT * FROM `transcriptions` JOIN `pages` ON `transcription` = transcriptions.id WHERE pages.id = ?")) {
          for (Map<String, Object> rawRange: rawRanges) {
-            TextAnchor r = new TextAnchor(new Page((int)rawRange.get("startPage")), (int)rawRange.get("startOffset"), new Page((int)rawRange.get("endPage")), (int)rawRange.get("endOffset"));
+            TextAnchor r = new TextAnchor(new Page(getRangeField(rawRange, "startPage")), getRangeField(rawRange, "startOffset"), new Page(getRangeField(rawRange, "endPage")), getRangeField(rawRange, "endOffset"));
             stmt.setInt(1, r.getStartPage().getID());
             ResultSet rs1 = stmt.executeQuery();
             if (!rs1.next()) {
@@ -200,16 +269,36 @@ public class CollationServlet extends HttpServlet {
             }
             Transcription transcr = new Transcription(transcrID1);
             transcr.checkPermission(conn, uID, Role.VIEWER);
-            transcr.load(conn, false);
-            CollationWitness w = new CollationWitness(transcr, ignoreLineBreaks, ignoreCase, ignorePunct, useTEITags);
-            w.tokenise(conn, index1, r.getStartOffset(), index2, r.getEndOffset());
-            result.add(w);
+            result.add(new CheckedRange(transcr, index1, r.getStartOffset(), index2, r.getEndOffset()));
          }
       }
       return result;
    }
 
-   private Comparator<Token> getComparator(Connection conn, List<CollationWitness> collWits, CollationWitness.Comparison comparison, String[] dicts) throws SQLException, IOException, XMLStreamException {
+   /**
+    * Pull an integer field out of a deserialised text range.
+    * @param rawRange range as deserialised from the request body
+    * @param key name of field
+    * @return the field's value
+    */
+   private static int getRangeField(Map<String, Object> rawRange, String key) {
+      Object val = rawRange.get(key);
+      if (!(val instanceof Integer)) {
+         throw new IllegalArgumentException(String.format("Text range has no valid %s.", key));
+      }
+      return (Integer)val;
+   }
+
+   /**
+    * Encode the witnesses' tokens and create a comparator which works with the encoded forms.
+    * @param conn connection to SQL database
+    * @param collWits tokenised witnesses which are about to be collated
+    * @param comparison type of comparison requested
+    * @param dicts misspelling dictionaries for orthographic comparison
+    * @return comparator appropriate for collation type
+    */
+   private Comparator<Token> getComparator(Connection conn, List<CollationWitness> collWits, CollationWitness.Comparison comparison, String[] dicts) throws SQLException, IOException {
+      TokenDictionary tokDict = new TokenDictionary(collWits);
       Comparator<Token> result;
       switch (comparison) {
          case PLAIN:
@@ -218,64 +307,385 @@ public class CollationServlet extends HttpServlet {
             break;
          case ORTH:
             result = new OrthographicComparator();
-            if (dicts == null) {
-               dicts = new String[] { "lat" };
-            }
             ((OrthographicComparator)result).loadDictionaries(conn, dicts);
+            ((OrthographicComparator)result).buildEquivalences(tokDict);
             break;
          case MORPH:
-            result = new MorphologicalComparator();
-            ((MorphologicalComparator)result).loadMorphology(collWits);
+            result = new MorphologicalComparator(getLemmatizer(conn));
+            ((MorphologicalComparator)result).loadMorphology(tokDict);
             break;
       }
       return result;
    }
 
    /**
-    * Perform the actual collation and write the results to the output stream.
-    * @param collWits CollateX witnesses
-    * @param comp comparator appropriate for collation type
-    * @param dest stream to which results will be written
+    * Get the lemmatiser for morphological comparisons.  Normally this is Perseus, with results cached in
+    * the database, but if the <code>lexicon</code> config setting names a lexicon file, that is used
+    * instead.
+    * @param conn connection to SQL database
+    * @return lemmatiser to be used for this collation
     */
-   private static void writeCollationResults(Connection conn, List<CollationWitness> collWits, Comparator<Token> comp, OutputStream dest) throws IOException {
-      List<Mote> motes = new CollateXEngine().collate(collWits, comp);
-      List<List<Annotation>> moteAnns = createMoteAnnotations(motes);
-
-      ObjectMapper mapper = getObjectMapper();
-      SimpleModule mod = new SimpleModule();
-      mod.addSerializer(Annotation.class, new MoteSerializer());
-      mapper.registerModule(mod);
-      
-      mapper.writeValue(dest, moteAnns);
+   private static synchronized Lemmatizer getLemmatizer(Connection conn) throws SQLException, IOException {
+      String lexiconPath = getLexiconPath(conn);
+      if (!lexiconPath.isEmpty()) {
+         if (lexicon == null || !lexiconPath.equals(lexiconFile)) {
+            lexicon = new LexiconLemmatizer(new File(lexiconPath));
+            lexiconFile = lexiconPath;
+         }
+         return lexicon;
+      }
+      if (perseus == null) {
+         perseus = new PerseusLemmatizer();
+      }
+      return new CachingLemmatizer(conn, perseus);
    }
 
    /**
-    * Take the motes returned by the collator and turn them into a list of "tr-mote" annotations.
-    * @param motes list of motes from collator
-    * @return corresponding list of "tr-mote" type annotations
+    * Get the path of the local lexicon from the config table.
+    * @param conn connection to SQL database
+    * @return path of the lexicon file, or an empty string if Perseus is to be used
     */
-   private static List<List<Annotation>> createMoteAnnotations(List<Mote> motes) {
-
-      // Create the new Parallels based on the request body.
-      List<List<Annotation>> newPars = new ArrayList<>();
-      for (Mote m: motes) {
-         List<Annotation> newAnns = new ArrayList<>();
-         for (TextAnchor anch: m.getAnchors()) {
-            Transcription t = anch.getStartPage().getTranscription();
-            Annotation ann = new Annotation();
-            ann.setType("tr-mote");
-            ann.setContent(t.getText(anch));
-            ann.setStartPageID(anch.getStartPage().getID());
-            ann.setStartOffset(anch.getStartOffset());
-            ann.setEndPageID(anch.getEndPage().getID());
-            ann.setEndOffset(anch.getEndOffset());
-            ann.setTargetFragment(Integer.toString(t.getWitnessID()));
-            newAnns.add(ann);
+   private static String getLexiconPath(Connection conn) throws SQLException {
+      try (PreparedStatement stmt = conn.prepareStatement("SELECT value FROM config WHERE setting = 'lexicon'")) {
+         ResultSet rs = stmt.executeQuery();
+         if (rs.next() && rs.getString(1) != null) {
+            return rs.getString(1);
          }
-         newPars.add(newAnns);
       }
-      return newPars;
+      return "";
    }
-   
+
+   /**
+    * Get the results of the collation, either from the cache or by tokenising the witnesses and performing
+    * the actual collation.
+    * @param conn connection to SQL database
+    * @param ranges text ranges being collated, with their transcriptions loaded
+    * @param key key built from the ranges by <code>getResultKey</code>
+    * @param collReq parameters of the collation
+    * @return stream containing the JSON results; must be closed by the caller
+    */
+   private InputStream openCollationResults(final Connection conn, final List<CheckedRange> ranges, CollationResultCache.Key key, final CollationRequest collReq) throws IOException {
+      return CollationResultCache.getSharedCache().open(key, new CollationResultCache.ResultWriter() {
+         @Override
+         public void write(OutputStream out) throws IOException {
+            // Only tokenise and build the comparator on a cache miss, since both can be expensive.
+            List<CollationWitness> collWits;
+            Comparator<Token> comp;
+            try {
+               collWits = getCollationWitnesses(conn, ranges, collReq);
+               comp = getComparator(conn, collWits, collReq.comparison, collReq.getDictionaries());
+            } catch (SQLException | ReflectiveOperationException | ServletException ex) {
+               throw new IOException("Unable to prepare witnesses for collation.", ex);
+            }
+            try (MoteJsonWriter writer = new MoteJsonWriter(out)) {
+               collReq.createEngine().collate(collWits, comp, writer);
+            }
+         }
+      });
+   }
+
+   /**
+    * Find a completed collation deliverable with the given inputs, whose body can be shared.
+    * @param conn connection to SQL database
+    * @param key key identifying the collation's inputs
+    * @return ID of the deliverable, or 0 if there is none
+    */
+   private static int findCompletedCollation(Connection conn, String key) throws SQLException {
+      try (PreparedStatement stmt = conn.prepareStatement("SELECT `id` FROM `deliverables` " +
+              "WHERE `result_key` = ? AND `job_type` = ? AND `status` = 'COMPLETE' AND `source` IS NULL " +
+              "ORDER BY `id` DESC LIMIT 1")) {
+         stmt.setString(1, key);
+         stmt.setString(2, COLLATION_JOB);
+         ResultSet rs = stmt.executeQuery();
+         return rs.next() ? rs.getInt(1) : 0;
+      }
+   }
+
+   /**
+    * Deferred collation, run by the <code>JobScheduler</code>.  If a previous deferred collation had exactly
+    * the same inputs, the new deliverable is linked to that one's body rather than storing another copy.
+    */
+   private class CollationJob extends DeferredDeliverable {
+      private final CollationRequest collReq;
+
+      CollationJob(HttpServletRequest req, int uID, CollationRequest cr) {
+         super(req, COLLATION_JOB, uID, Priority.NORMAL);
+         collReq = cr;
+      }
+
+      CollationJob(JobRecord rec) throws IOException {
+         super(rec);
+         collReq = new CollationRequest(rec.request);
+      }
+
+      @Override
+      protected byte[] getRequestData() throws IOException {
+         return collReq.toBytes();
+      }
+
+      @Override
+      protected void execute() throws Exception {
+         try (Connection conn = getDBConnection()) {
+            List<CheckedRange> ranges = getCollationRanges(conn, collReq, userID);
+            CollationResultCache.Key key = getResultKey(conn, ranges, collReq);
+            setProgress(0.2f);
+            int sourceID = findCompletedCollation(conn, key.toString());
+            if (sourceID > 0) {
+               LOG.log(Level.INFO, "Deliverable {0} shares results with deliverable {1}.", new Object[] { deliverableID, sourceID });
+               try (PreparedStatement stmt = conn.prepareStatement("UPDATE `deliverables` SET `result_key` = ?, `source` = ? WHERE `id` = ?")) {
+                  stmt.setString(1, key.toString());
+                  stmt.setInt(2, sourceID);
+                  stmt.setInt(3, deliverableID);
+                  stmt.executeUpdate();
+               }
+            } else {
+               try (InputStream json = openCollationResults(conn, ranges, key, collReq)) {
+                  setProgress(0.9f);
+                  conn.setAutoCommit(false);
+                  try (PreparedStatement stmt = conn.prepareStatement("UPDATE `deliverables` SET `body` = ?, `result_key` = ? WHERE `id` = ?")) {
+                     stmt.setCharacterStream(1, new InputStreamReader(json, LangUtils.UTF8));
+                     stmt.setString(2, key.toString());
+                     stmt.setInt(3, deliverableID);
+                     stmt.executeUpdate();
+                  }
+                  conn.commit();
+               }
+            }
+            sendMail(conn, userID, "Collation Complete", MessageUtils.format(MessageID.COLLATION_COMPLETE, fullURL, serverURL, deliverableID));
+         }
+      }
+   }
+
+   /**
+    * Tokenises the text ranges of a collation.  Any number of threads can call <code>run</code>, each
+    * taking ranges until there are none left.  Results are stored by index, so the order doesn't depend on
+    * how the work was shared out.
+    */
+   private static class WitnessTokeniser {
+      private final List<CheckedRange> ranges;
+      private final CollationWitness.IgnoreLineBreaks ignoreLineBreaks;
+      private final TokenNormalizer normalizer;
+      private final boolean useTEITags;
+
+      private final CollationWitness[] wits;
+      private final AtomicInteger nextRange = new AtomicInteger();
+
+      /** Counted down once for each range, whether it was tokenised or abandoned. */
+      private final CountDownLatch finished;
+
+      /** First failure, which is rethrown to the request thread. */
+      private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+      WitnessTokeniser(List<CheckedRange> rs, CollationWitness.IgnoreLineBreaks ilb, TokenNormalizer norm, boolean tei) {
+         ranges = rs;
+         ignoreLineBreaks = ilb;
+         normalizer = norm;
+         useTEITags = tei;
+         wits = new CollationWitness[rs.size()];
+         finished = new CountDownLatch(rs.size());
+      }
+
+      /**
+       * Tokenise ranges on the given connection until there are none left.
+       */
+      void run(Connection conn) {
+         int j;
+         while ((j = nextRange.getAndIncrement()) < wits.length) {
+            CheckedRange r = ranges.get(j);
+            try {
+               CollationWitness w = new CollationWitness(r.transcription, ignoreLineBreaks, normalizer, useTEITags);
+               w.tokenise(conn, r.startIndex, r.startOffset, r.endIndex, r.endOffset);
+               wits[j] = w;
+            } catch (Throwable ex) {
+               failure.compareAndSet(null, ex);
+
+               // Nobody else need start on the remaining ranges.
+               int unclaimed = nextRange.getAndSet(wits.length);
+               for (int k = unclaimed; k < wits.length; k++) {
+                  finished.countDown();
+               }
+            } finally {
+               finished.countDown();
+            }
+         }
+      }
+
+      /**
+       * Help out on a pooled connection of our own.  If none can be had, the request thread carries on
+       * without us.
+       */
+      void runWithOwnConnection() {
+         if (nextRange.get() < wits.length) {
+            try (Connection conn = getDBConnection()) {
+               run(conn);
+            } catch (SQLException | ServletException ex) {
+               LOG.log(Level.FINE, "Tokeniser unable to get a connection.", ex);
+            }
+         }
+      }
+
+      /**
+       * Wait until every range has been dealt with, rethrowing the first failure.
+       */
+      void await() throws SQLException, IOException, ReflectiveOperationException, ServletException {
+         try {
+            finished.await();
+         } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new ServletException(ex);
+         }
+         Throwable cause = failure.get();
+         if (cause instanceof SQLException) {
+            throw (SQLException)cause;
+         } else if (cause instanceof IOException) {
+            throw (IOException)cause;
+         } else if (cause instanceof ReflectiveOperationException) {
+            throw (ReflectiveOperationException)cause;
+         } else if (cause instanceof ServletException) {
+            throw (ServletException)cause;
+         } else if (cause instanceof RuntimeException) {
+            throw (RuntimeException)cause;
+         } else if (cause instanceof Error) {
+            throw (Error)cause;
+         } else if (cause != null) {
+            throw new ServletException(cause);
+         }
+      }
+
+      /**
+       * Get the witnesses which were tokenised, in the same order as the ranges.
+       */
+      List<CollationWitness> getWitnesses() {
+         return Arrays.asList(wits);
+      }
+   }
+
+   /**
+    * A text range to be collated, after it has been checked against the database.  For a full-edition
+    * collation, each range covers a whole transcription.
+    */
+   private static class CheckedRange {
+      final Transcription transcription;
+      final int startIndex;
+      final int startOffset;
+      final int endIndex;
+      final int endOffset;
+
+      CheckedRange(Transcription transcr, int startIdx, int startOff, int endIdx, int endOff) {
+         transcription = transcr;
+         startIndex = startIdx;
+         startOffset = startOff;
+         endIndex = endIdx;
+         endOffset = endOff;
+      }
+   }
+
+   /**
+    * The parameters of a collation request.  Deferred collations save these so that they can be restarted
+    * if the server goes down before they're done.
+    */
+   private static class CollationRequest {
+      final Map<String, String[]> params;
+      final int editionID;
+      final List<Map<String, Object>> ranges;
+
+      final CollationWitness.IgnoreLineBreaks ignoreLineBreaks;
+      final TokenNormalizer normalizer;
+      final boolean useTEITags;
+      final CollationWitness.Comparison comparison;
+      final String[] dicts;       // For orthographic comparisons.
+
+      /**
+       * Extract the collation parameters from the servlet request.  For a partial collation, the request
+       * body contains the text ranges to be collated.
+       */
+      CollationRequest(HttpServletRequest req) throws IOException {
+         String[] pathParts = getPathParts(req);
+         if (pathParts.length >= 2) {
+            editionID = Integer.parseInt(pathParts[1]);
+            ranges = null;
+         } else {
+            // Because we want allow annotations to be passed here, we don't deserialise directly to
+            // List<TextAnchor>.  Instead we deserialise into a Map and pull out the relevant fields.
+            editionID = -1;
+            ranges = getObjectMapper().readValue(req.getInputStream(), new TypeReference<List<Map<String, Object>>>() {});
+         }
+         params = new HashMap<>(req.getParameterMap());
+         ignoreLineBreaks = CollationWitness.IgnoreLineBreaks.fromString(getParameter("ignoreLineBreaks"));
+         normalizer = TokenNormalizer.fromParameters(getParameter("normalize"), "true".equals(getParameter("ignoreCase")), "true".equals(getParameter("ignorePunctuation")));
+         useTEITags = "true".equals(getParameter("useTEITags"));
+         comparison = CollationWitness.Comparison.fromString(getParameter("comparison"));
+         dicts = params.get("dict");
+      }
+
+      /**
+       * Restore a request which was saved by <code>toBytes</code>.
+       */
+      CollationRequest(byte[] data) throws IOException {
+         ObjectMapper mapper = getObjectMapper();
+         Map<String, Object> saved = mapper.readValue(data, new TypeReference<Map<String, Object>>() {});
+         editionID = (int)saved.get("edition");
+         ranges = mapper.convertValue(saved.get("ranges"), new TypeReference<List<Map<String, Object>>>() {});
+         params = mapper.convertValue(saved.get("params"), new TypeReference<Map<String, String[]>>() {});
+         ignoreLineBreaks = CollationWitness.IgnoreLineBreaks.fromString(getParameter("ignoreLineBreaks"));
+         normalizer = TokenNormalizer.fromParameters(getParameter("normalize"), "true".equals(getParameter("ignoreCase")), "true".equals(getParameter("ignorePunctuation")));
+         useTEITags = "true".equals(getParameter("useTEITags"));
+         comparison = CollationWitness.Comparison.fromString(getParameter("comparison"));
+         dicts = params.get("dict");
+      }
+
+      byte[] toBytes() throws IOException {
+         return getObjectMapper().writeValueAsBytes(buildQuickMap("edition", editionID, "ranges", ranges, "params", params));
+      }
+
+      private String getParameter(String name) {
+         String[] vals = params.get(name);
+         return vals != null && vals.length > 0 ? vals[0] : null;
+      }
+
+      CollateXEngine createEngine() {
+         return new CollateXEngine("jung".equals(getParameter("graph")), "true".equals(getParameter("segmented")), CollateXEngine.WitnessOrder.fromString(getParameter("order")));
+      }
+
+      /**
+       * Misspelling dictionaries for orthographic comparisons, defaulting to Latin.
+       */
+      String[] getDictionaries() {
+         return dicts != null ? dicts : new String[] { "lat" };
+      }
+
+      /**
+       * Everything apart from the witnesses themselves which affects the collation results.  For orthographic
+       * comparisons this includes the signature of the dictionaries' contents, so that editing them makes
+       * any cached results stale; for morphological comparisons, it includes the lexicon being used.
+       */
+      String getOptions(Connection conn) throws SQLException {
+         String dictSig = "";
+         if (comparison == CollationWitness.Comparison.ORTH) {
+            dictSig = OrthographicNormalizer.getNormalizer(conn, getDictionaries()).getSignature();
+         } else if (comparison == CollationWitness.Comparison.MORPH) {
+            dictSig = getLexiconPath(conn);
+         }
+         return String.format("%s|%s|%s|%s|%s|%b|%s|%s|%s", comparison, Arrays.toString(dicts), dictSig, ignoreLineBreaks, normalizer, useTEITags, getParameter("graph"), getParameter("segmented"), CollateXEngine.WitnessOrder.fromString(getParameter("order")));
+      }
+   }
+
+   /**
+    * Maximum number of witnesses which will be tokenised at the same time.
+    */
+   private static final int TOKENISER_THREADS = Math.max(2, Runtime.getRuntime().availableProcessors());
+
+   /** Shared by all morphological collations. */
+   private static PerseusLemmatizer perseus;
+
+   /** Local lexicon, if one has been configured, and the file it was loaded from. */
+   private static LexiconLemmatizer lexicon;
+   private static String lexiconFile;
+
+   /**
+    * Job type for deferred collations in the deliverables table.
+    */
+   private static final String COLLATION_JOB = "COLLATION";
+
    private static final Logger LOG = Logger.getLogger(CollationServlet.class.getName());
 }
@@ -94,8 +94,12 @@ public class ConfigServlet extends HttpServlet {
       }
    }
 
-   /** Compatible database version. */
-   public final int DB_VERSION = 14;
+   /**
+    * Compatible database version.  This must be bumped in the same commit as any migration added to
+    * <code>update.sql</code>, so that the server never accepts a database which lacks the tables and
+    * columns it uses.
+    */
+   public final int DB_VERSION = 22;
 
    private static final Logger LOG = Logger.getLogger(ConfigServlet.class.getName());
 }
@@ -25,6 +25,10 @@ import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import org.apache.catalina.util.IOTools;
+import edu.slu.tradamus.util.DeferredDeliverable;
+import edu.slu.tradamus.util.JobScheduler;
+import static edu.slu.tradamus.util.JsonUtils.getObjectMapper;
+import static edu.slu.tradamus.util.LangUtils.buildQuickMap;
 import static edu.slu.tradamus.util.ServletUtils.*;
 
 
@@ -36,7 +40,9 @@ import static edu.slu.tradamus.util.ServletUtils.*;
 public class DeliverableServlet extends HttpServlet {
 
    /**
-    * Handles the HTTP <code>GET</code> method.
+    * Handles the HTTP <code>GET</code> method.  Once the deliverable is complete, its contents are
+    * returned.  Until then (or if <code>/status</code> is appended to the path), we return a JSON object
+    * describing the status and progress of the job which is producing it.
     *
     * @param req servlet request
     * @param resp servlet response
@@ -50,17 +56,18 @@ public class DeliverableServlet extends HttpServlet {
          String[] pathParts = getPathParts(req);
          try (Connection conn = getDBConnection()) {
             int id = Integer.parseInt(pathParts[1]);
-            try (PreparedStatement stmt = conn.prepareStatement("SELECT body, content_type FROM deliverables WHERE id = ?")) {
+            boolean statusOnly = pathParts.length > 2 && pathParts[2].equals("status");
+            try (PreparedStatement stmt = conn.prepareStatement("SELECT status, progress, message FROM deliverables WHERE id = ?")) {
                stmt.setInt(1, id);
                ResultSet rs = stmt.executeQuery();
                if (rs.next()) {
-                  IOTools.flow(rs.getCharacterStream(1), resp.getWriter());
-                  resp.setContentType(rs.getString(2));
-                  resp.setStatus(HttpServletResponse.SC_OK);
-                  
-                  try (PreparedStatement stmt2 = conn.prepareStatement("UPDATE deliverables SET accessed = CURRENT_TIMESTAMP() WHERE id = ?")) {
-                     stmt2.setInt(1, id);
-                     stmt2.executeUpdate();
+                  DeferredDeliverable.Status status = DeferredDeliverable.Status.valueOf(rs.getString(1));
+                  if (statusOnly || status != DeferredDeliverable.Status.COMPLETE) {
+                     resp.setContentType(JSON_CONTENT_TYPE);
+                     getObjectMapper().writeValue(resp.getOutputStream(), buildQuickMap("id", id, "status", status, "progress", rs.getObject(2), "message", rs.getString(3)));
+                     resp.setStatus(status == DeferredDeliverable.Status.QUEUED || status == DeferredDeliverable.Status.RUNNING ? HttpServletResponse.SC_ACCEPTED : HttpServletResponse.SC_OK);
+                  } else {
+                     sendBody(conn, id, resp);
                   }
                } else {
                   resp.setStatus(HttpServletResponse.SC_NOT_FOUND);
@@ -72,6 +79,63 @@ public class DeliverableServlet extends HttpServlet {
       }
    }
 
+   /**
+    * Handles the HTTP <code>DELETE</code> method by cancelling the job which is producing the deliverable.
+    * Only the user who requested the deliverable can cancel it.
+    *
+    * @param req servlet request
+    * @param resp servlet response
+    * @throws ServletException if a servlet-specific error occurs
+    * @throws IOException if an I/O error occurs
+    */
+   @Override
+   protected void doDelete(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+      int uID = getUserID(req, resp);
+      if (uID > 0) {
+         String[] pathParts = getPathParts(req);
+         try (Connection conn = getDBConnection()) {
+            int id = Integer.parseInt(pathParts[1]);
+            try (PreparedStatement stmt = conn.prepareStatement("SELECT user FROM deliverables WHERE id = ?")) {
+               stmt.setInt(1, id);
+               ResultSet rs = stmt.executeQuery();
+               if (!rs.next()) {
+                  resp.setStatus(HttpServletResponse.SC_NOT_FOUND);
+               } else if (rs.getInt(1) != uID) {
+                  resp.sendError(HttpServletResponse.SC_FORBIDDEN, "Deliverable can only be cancelled by the user who requested it.");
+               } else if (JobScheduler.getInstance().cancel(id)) {
+                  resp.setStatus(HttpServletResponse.SC_NO_CONTENT);
+               } else {
+                  resp.sendError(HttpServletResponse.SC_CONFLICT, "Deliverable is no longer being produced.");
+               }
+            }
+         } catch (ArrayIndexOutOfBoundsException | IllegalArgumentException | SQLException ex) {
+            reportInternalError(resp, ex);
+         }
+      }
+   }
+
+   /**
+    * Send the contents of a completed deliverable.  If it shares its body with an earlier deliverable, the
+    * body is taken from that one.
+    */
+   private void sendBody(Connection conn, int id, HttpServletResponse resp) throws SQLException, IOException {
+      try (PreparedStatement stmt = conn.prepareStatement("SELECT IFNULL(src.body, d.body), IFNULL(src.content_type, d.content_type) FROM deliverables d " +
+              "LEFT JOIN deliverables src ON d.source = src.id WHERE d.id = ?")) {
+         stmt.setInt(1, id);
+         ResultSet rs = stmt.executeQuery();
+         if (rs.next()) {
+            IOTools.flow(rs.getCharacterStream(1), resp.getWriter());
+            resp.setContentType(rs.getString(2));
+            resp.setStatus(HttpServletResponse.SC_OK);
+            
+            try (PreparedStatement stmt2 = conn.prepareStatement("UPDATE deliverables SET accessed = CURRENT_TIMESTAMP() WHERE id = ?")) {
+               stmt2.setInt(1, id);
+               stmt2.executeUpdate();
+            }
+         }
+      }
+   }
+
    /**
     * Returns a short description of the servlet.
     *
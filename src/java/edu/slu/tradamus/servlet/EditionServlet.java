@@ -250,7 +250,9 @@ public class EditionServlet extends HttpServlet {
                   return;
             }
 
-            try (NamedLock lock = new NamedLock(conn, POST_WITNESS_LOCK)) {
+            // Only imports into the same edition need to wait for each other.  Witness titles and sigla are
+            // only unique within an edition, and IDs for the witness's constituents come from IdAllocator.
+            try (NamedLock lock = new NamedLock(conn, String.format(POST_WITNESS_LOCK, ed.getID()))) {
                wit.fixAttributions(uID, Role.EDITOR);
                wit.insert(conn);
                Activity.record(conn, uID, wit, ed, wit.getTitle());
@@ -300,7 +302,7 @@ public class EditionServlet extends HttpServlet {
                   Edition ed = new Edition(Integer.parseInt(pathParts[1]));
                   switch (pathParts[2]) {
                      case "approval":
-                        putApproval(req, conn, uID, ed, "UPDATE annotations SET approved_by = ? " +
+                        putApproval(req, conn, uID, ed, "UPDATE annotations SET approved_by = ?, fingerprint = NULL " +
                            "WHERE target_type = 'EDITION' AND target = ?");
                         resp.setStatus(HttpServletResponse.SC_NO_CONTENT);
                         break;
@@ -386,7 +388,7 @@ public class EditionServlet extends HttpServlet {
    }
 
    private static final String POST_OUTLINE_LOCK = "tradamus.post_outline";
-   private static final String POST_WITNESS_LOCK = "tradamus.post_witness";
+   private static final String POST_WITNESS_LOCK = "tradamus.post_witness.%d";
 
    private static final Logger LOG = Logger.getLogger(EditionServlet.class.getName());
 }
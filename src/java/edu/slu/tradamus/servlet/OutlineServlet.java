@@ -135,7 +135,7 @@ public class OutlineServlet extends HttpServlet {
                      break;
                   case "approval":
                      putApproval(req, conn, uID, oldOutl, "UPDATE annotations LEFT JOIN parallels ON target = parallels.id " +
-                             "SET approved_by = ? WHERE target_type = 'PARALLEL' AND outline = ?");
+                             "SET approved_by = ?, annotations.fingerprint = NULL WHERE target_type = 'PARALLEL' AND outline = ?");
                      resp.setStatus(HttpServletResponse.SC_NO_CONTENT);
                      break;
                   default:
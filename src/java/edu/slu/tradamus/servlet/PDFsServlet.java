@@ -20,7 +20,6 @@ import java.io.IOException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
-import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
@@ -31,8 +30,10 @@ import com.itextpdf.text.DocumentException;
 import com.itextpdf.text.pdf.PdfWriter;
 import com.itextpdf.tool.xml.XMLWorkerHelper;
 import edu.slu.tradamus.util.DeferredDeliverable;
+import edu.slu.tradamus.util.JobScheduler;
 import edu.slu.tradamus.util.MessageID;
 import static edu.slu.tradamus.util.ServletUtils.getDBConnection;
+import static edu.slu.tradamus.util.ServletUtils.getUserID;
 import static edu.slu.tradamus.util.ServletUtils.readInputFully;
 import static edu.slu.tradamus.util.ServletUtils.reportInternalError;
 
@@ -51,38 +52,30 @@ public class PDFsServlet extends HttpServlet {
     * @param resp servlet response
     */
    @Override
-   protected void doPost(final HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
-      final byte[] reqBytes = readInputFully(req);
-
-      try (Connection conn = getDBConnection()) {
-         new DeferredDeliverable(req) {
-            
-            @Override
-            public void run() {
-               try (Connection conn = getDBConnection()) {
-                  Document document = new Document();
-                  ByteArrayOutputStream pdfBytes = new ByteArrayOutputStream();
-                  PdfWriter writer = PdfWriter.getInstance(document, pdfBytes);
-                  document.open();
-                  XMLWorkerHelper.getInstance().parseXHtml(writer, document, new ByteArrayInputStream(reqBytes));
-                  document.close();
-                  conn.setAutoCommit(false);
-                  try (PreparedStatement stmt = conn.prepareStatement("UPDATE deliverables SET body = ?, content_type = 'application/pdf' WHERE id = ?")) {
-                     stmt.setBinaryStream(1, new ByteArrayInputStream(pdfBytes.toByteArray()));
-                     stmt.setInt(2, deliverableID);
-                     stmt.executeUpdate();
-                  }
-                  conn.commit();
-               } catch (SQLException | ServletException | IOException | DocumentException ex) {
-                  LOG.log(Level.SEVERE, "Error generating PDF", ex);
-               }
-            }
-         }.deferredRequest(conn, resp, MessageID.DEFERRED_PDF);
-      } catch (SQLException ex) {
-         reportInternalError(resp, ex);
+   protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+      int uID = getUserID(req, resp);
+      if (uID >= 0) {
+         try (Connection conn = getDBConnection()) {
+            new PDFJob(req, uID, readInputFully(req)).deferredRequest(conn, resp, MessageID.DEFERRED_PDF);
+         } catch (SQLException ex) {
+            reportInternalError(resp, ex);
+         }
       }
    }
 
+   /**
+    * Pick up any PDFs which were waiting to be generated when the server was shut down.
+    */
+   @Override
+   public void init() throws ServletException {
+      JobScheduler.getInstance().registerJobType(PDF_JOB, new JobScheduler.JobFactory() {
+         @Override
+         public DeferredDeliverable recreate(DeferredDeliverable.JobRecord rec) {
+            return new PDFJob(rec);
+         }
+      });
+   }
+
    /**
     * Returns a short description of the servlet.
     *
@@ -93,5 +86,53 @@ public class PDFsServlet extends HttpServlet {
       return "PDF Generation Servlet";
    }
    
+   /**
+    * Generates the PDF for an XHTML document.  PDFs are usually quick, so they jump ahead of collations.
+    */
+   private static class PDFJob extends DeferredDeliverable {
+      /** XHTML from the request body. */
+      private final byte[] reqBytes;
+
+      PDFJob(HttpServletRequest req, int uID, byte[] xhtml) {
+         super(req, PDF_JOB, uID, Priority.HIGH);
+         reqBytes = xhtml;
+      }
+
+      PDFJob(JobRecord rec) {
+         super(rec);
+         reqBytes = rec.request;
+      }
+
+      @Override
+      protected byte[] getRequestData() {
+         return reqBytes;
+      }
+
+      @Override
+      protected void execute() throws SQLException, ServletException, IOException, DocumentException {
+         try (Connection conn = getDBConnection()) {
+            Document document = new Document();
+            ByteArrayOutputStream pdfBytes = new ByteArrayOutputStream();
+            PdfWriter writer = PdfWriter.getInstance(document, pdfBytes);
+            document.open();
+            XMLWorkerHelper.getInstance().parseXHtml(writer, document, new ByteArrayInputStream(reqBytes));
+            document.close();
+            setProgress(0.9f);
+            conn.setAutoCommit(false);
+            try (PreparedStatement stmt = conn.prepareStatement("UPDATE deliverables SET body = ?, content_type = 'application/pdf' WHERE id = ?")) {
+               stmt.setBinaryStream(1, new ByteArrayInputStream(pdfBytes.toByteArray()));
+               stmt.setInt(2, deliverableID);
+               stmt.executeUpdate();
+            }
+            conn.commit();
+         }
+      }
+   }
+
+   /**
+    * Job type for PDF generation in the deliverables table.
+    */
+   private static final String PDF_JOB = "PDF";
+
    private static final Logger LOG = Logger.getLogger(PDFsServlet.class.getName());
 }
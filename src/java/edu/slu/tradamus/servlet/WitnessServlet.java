@@ -205,7 +205,7 @@ public class WitnessServlet extends HttpServlet {
                boolean replacing = !getBooleanParameter(req, "merge", true);
                switch (pathParts[2]) {
                   case "approval":
-                     putApproval(req, conn, uID, wit, "UPDATE annotations SET approved_by = ? " +
+                     putApproval(req, conn, uID, wit, "UPDATE annotations SET approved_by = ?, fingerprint = NULL " +
                         "WHERE target_type = 'WITNESS' AND target = ?");
                      resp.setStatus(HttpServletResponse.SC_NO_CONTENT);
                      break;
@@ -26,8 +26,14 @@ import com.fasterxml.jackson.annotation.JsonProperty;
 import name.fraser.neil.plaintext.*;
 import name.fraser.neil.plaintext.diff_match_patch.Diff;
 import edu.slu.tradamus.annotation.Annotation;
+import edu.slu.tradamus.collation.CollationResultCache;
+import edu.slu.tradamus.collation.PageTokenCache;
+import edu.slu.tradamus.db.BatchLoader;
 import edu.slu.tradamus.db.Entity;
+import edu.slu.tradamus.db.FingerprintBuilder;
+import edu.slu.tradamus.db.GroupedRowReader;
 import edu.slu.tradamus.db.NoSuchEntityException;
+import edu.slu.tradamus.edition.ModificationTracker;
 import edu.slu.tradamus.image.Canvas;
 import edu.slu.tradamus.user.PermissionException;
 import edu.slu.tradamus.user.Role;
@@ -247,11 +253,33 @@ public class Page extends Entity {
     */
    @Override
    public void insert(Connection conn) throws SQLException {
-      id = transcription.getID() * 1000 + index;
-      executeInsert(conn, "INSERT INTO `pages` (" +
-           "`id`, `transcription`, `index`, `title`, `text`" +
-           ") VALUES(?, ?, ?, ?, ?)",
-           id, transcription.getID(), index, title, text);
+      allocateID(conn);
+      executeUpdate(conn, INSERT_PAGES + " (?, ?, ?, ?, ?, ?)", getInsertValues());
+   }
+
+   /**
+    * Insert a list of pages using multi-row INSERTs.  The pages' canvas fields are left null, since the
+    * canvasses may not have been inserted yet; see <code>Transcription.assignCanvasIDs</code>.
+    *
+    * @param conn connection to SQL database
+    * @param ents pages to be inserted
+    */
+   @Override
+   public void insertBatch(Connection conn, List<? extends Entity> ents) throws SQLException {
+      allocateIDs(conn, ents);
+      List<Object[]> rows = new ArrayList<>(ents.size());
+      for (Entity e: ents) {
+         rows.add(((Page)e).getInsertValues());
+      }
+      executeBatchInsert(conn, INSERT_PAGES, ents, rows);
+   }
+
+   /**
+    * Get the values which go into the columns of <code>INSERT_PAGES</code>.
+    */
+   private Object[] getInsertValues() {
+      fingerprint = computeFingerprint();
+      return new Object[] { id, transcription.getID(), index, title, text, fingerprint };
    }
 
    /**
@@ -260,11 +288,24 @@ public class Page extends Entity {
    @Override
    public void load(Connection conn, boolean deep) throws SQLException, ReflectiveOperationException {
       // Full load, lines and all.  We avoid the join because we'll be doing a join in the next line.
-      executeLoad(conn, "SELECT transcription, pages.index, title, text, canvas FROM pages " +
+      executeLoad(conn, "SELECT transcription, pages.index, title, text, canvas, pages.fingerprint FROM pages " +
          "WHERE pages.id = ?", true);
       lines = loadChildren(conn, SELECT_LINES, Annotation.class, false);
    }
 
+   /**
+    * Load the lines for a list of already-loaded pages using a single query, rather than one per page.
+    *
+    * @param conn connection to SQL database
+    * @param pages pages whose lines are to be loaded
+    */
+   public static void loadLines(Connection conn, List<Page> pages) throws SQLException, ReflectiveOperationException {
+      Map<Integer, List<Annotation>> lines = BatchLoader.loadGrouped(conn, SELECT_LINES_FOR_PAGES, "start_page", pages, Annotation.class);
+      for (Page pg: pages) {
+         pg.lines = BatchLoader.getGroup(lines, pg);
+      }
+   }
+
    /**
     * Merge the contents of a new page with this one.
     * @param conn connection to database
@@ -275,12 +316,17 @@ public class Page extends Entity {
       Page newPg = (Page)newEnt;
 
       // Update the top-level fields.
-      if (!Objects.equals(title, newPg.title) || !Objects.equals(text, newPg.text)) {
+      if (getFingerprint() != newPg.getFingerprint()) {
+         if (!Objects.equals(text, newPg.text)) {
+            CollationResultCache.getSharedCache().invalidatePage(id);
+            PageTokenCache.invalidatePage(conn, id);
+         }
          adjustAnnotations(conn, newPg.text);
          title = newPg.title;
          text = newPg.text;
-         executeUpdate(conn, "UPDATE `pages` SET `title` = ?, `text` = ? " +
-           "WHERE id = ?", title, text, id);
+         fingerprint = computeFingerprint();
+         executeUpdate(conn, "UPDATE `pages` SET `title` = ?, `text` = ?, `fingerprint` = ? " +
+           "WHERE id = ?", title, text, fingerprint, id);
       }
       newPg.id = id;
    }
@@ -292,6 +338,8 @@ public class Page extends Entity {
       if (!Objects.equals(text, mods.get("text"))) {
          // Text has changed, which means we may need to adjust our annotations.
          response = adjustAnnotations(conn, (String)mods.get("text"));
+         CollationResultCache.getSharedCache().invalidatePage(id);
+         PageTokenCache.invalidatePage(conn, id);
       }
 
       super.modify(conn, mods);
@@ -299,23 +347,37 @@ public class Page extends Entity {
    }
 
    @Override
-   public void loadFields(ResultSet rs, boolean deep) throws SQLException, ReflectiveOperationException {
-      super.loadFields(rs, deep);
+   public void loadFields(ResultSet rs, int[] columns, boolean deep) throws SQLException, ReflectiveOperationException {
+      super.loadFields(rs, columns, deep);
+      fingerprint = rs.getLong("pages.fingerprint");
+   }
+
+   /**
+    * A page's fingerprint only covers its own text, not the lines or other annotations which refer to it.
+    */
+   @Override
+   protected long computeFingerprint() {
+      return new FingerprintBuilder().add(title).add(text).get();
+   }
+
+   @Override
+   protected boolean hasFingerprintColumn() {
+      return true;
+   }
+
+   @Override
+   public void loadGroup(GroupedRowReader rows, boolean deep) throws SQLException, ReflectiveOperationException {
+      super.loadGroup(rows, deep);
       if (!deep) {
          // If we're just loading line IDs, we pull them out of the join.
+         ResultSet rs = rows.getResultSet();
          lines = new ArrayList<>();
          do {
-            int pgID = rs.getInt("pages.id");
-            if (pgID != id) {
-               // Have rolled into the next Page.
-               rs.previous();
-               break;
-            }
             int lID = rs.getInt("annotations.id");
             if (lID > 0) {
                lines.add(new Annotation(lID));
             }
-         } while (rs.next());
+         } while (rows.nextInGroup("pages.id", id));
       }
    }
 
@@ -337,15 +399,10 @@ public class Page extends Entity {
 
    @Override
    public void markTopLevelModified(Connection conn) throws SQLException {
-      try (PreparedStatement stmt = conn.prepareCall("UPDATE editions " +
-              "LEFT JOIN witnesses ON edition = editions.id " +
-              "LEFT JOIN transcriptions ON witness = witnesses.id " +
-              "LEFT JOIN pages ON transcription = transcriptions.id " +
-              "SET modification = NOW() " +
-              "WHERE pages.id = ?")) {
-         stmt.setInt(1, id);
-         stmt.executeUpdate();
-      }
+      ModificationTracker.getInstance().markModified(conn, this, "SELECT edition FROM witnesses " +
+              "JOIN transcriptions ON witness = witnesses.id " +
+              "JOIN pages ON transcription = transcriptions.id " +
+              "WHERE pages.id = ?");
    }
 
    /**
@@ -475,37 +532,27 @@ public class Page extends Entity {
       return result;
    }
 
-   /**
-    * Since the transcription is inserted before the manifest, any canvasses which
-    * are associated with pages won't yet have IDs assigned.  This connects them
-    * together.
-    * @param conn connection to our SQL database
-    */
-   public void updateCanvasID(Connection conn) throws SQLException {
-      if (canvas != null) {
-         try (PreparedStatement stmt = conn.prepareStatement("UPDATE `pages` SET `canvas` = ? WHERE `id` = ?")) {
-            stmt.setInt(1, canvas.getID());
-            stmt.setInt(2, id);
-            stmt.executeUpdate();
-         }
-         try (PreparedStatement stmt = conn.prepareStatement("UPDATE `annotations` SET `canvas` = ? WHERE `start_page` = ?")) {
-            stmt.setInt(1, canvas.getID());
-            stmt.setInt(2, id);
-            stmt.executeUpdate();
-         }
-      }
-   }
-
    public static final String SELECT_LINES = "SELECT * FROM `annotations` " +
                  "WHERE `start_page` = ? AND `type` = 'line' " +
                  "ORDER BY `start_offset`";
    
+   public static final String SELECT_LINES_FOR_PAGES = "SELECT * FROM `annotations` " +
+                 "WHERE `start_page` IN (%s) AND `type` = 'line' " +
+                 "ORDER BY `start_page`, `start_offset`";
+
    public static final String SELECT_ANNOTATIONS_ON_PAGE = "SELECT * FROM annotations " +
            "WHERE ? BETWEEN start_page AND end_page";
 
    public static final String DELETE_ANNOTATIONS_ON_PAGE = "DELETE FROM annotations " +
            "WHERE ? BETWEEN start_page AND end_page";
 
+   /**
+    * Beginning of INSERT statement for pages, up to and including <code>VALUES</code>.
+    */
+   private static final String INSERT_PAGES = "INSERT INTO `pages` (" +
+           "`id`, `transcription`, `index`, `title`, `text`, `fingerprint`" +
+           ") VALUES";
+
    private static final Logger LOG = Logger.getLogger(Page.class.getName());
    
    public static Comparator<Page> getIndexComparator() {
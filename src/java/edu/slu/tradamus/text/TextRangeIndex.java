@@ -0,0 +1,153 @@
+/*
+ * Copyright 2015 Saint Louis University. Licensed under the
+ *	Educational Community License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package edu.slu.tradamus.text;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+
+/**
+ * Read-only index over a collection of text ranges (typically the annotations of a transcription), so that
+ * the questions asked during tokenisation can be answered by binary search rather than by scanning every
+ * range.  Positions are keyed on (page index, offset), which gives the same ordering as
+ * <code>TextAnchor.contains</code>.
+ *
+ * @author tarkvara
+ */
+public class TextRangeIndex<R extends TextRange> {
+   /** Ranges sorted by end position, with their end positions in a parallel array. */
+   private final List<R> byEnd;
+   private final long[] ends;
+
+   /** Start positions in ascending order, and the furthest end position reached by any range up to that point. */
+   private final long[] starts;
+   private final long[] maxEnds;
+
+   public TextRangeIndex(Collection<? extends R> ranges) {
+      byEnd = new ArrayList<>(ranges);
+      Collections.sort(byEnd, new Comparator<R>() {
+         @Override
+         public int compare(R r1, R r2) {
+            return Long.compare(getEndPosition(r1), getEndPosition(r2));
+         }
+      });
+      ends = new long[byEnd.size()];
+      for (int i = 0; i < ends.length; i++) {
+         ends[i] = getEndPosition(byEnd.get(i));
+      }
+
+      List<R> byStart = new ArrayList<>(ranges);
+      Collections.sort(byStart, new Comparator<R>() {
+         @Override
+         public int compare(R r1, R r2) {
+            return Long.compare(getStartPosition(r1), getStartPosition(r2));
+         }
+      });
+      starts = new long[byStart.size()];
+      maxEnds = new long[byStart.size()];
+      long maxEnd = Long.MIN_VALUE;
+      for (int i = 0; i < starts.length; i++) {
+         R r = byStart.get(i);
+         starts[i] = getStartPosition(r);
+         maxEnd = Math.max(maxEnd, getEndPosition(r));
+         maxEnds[i] = maxEnd;
+      }
+   }
+
+   /**
+    * Find a range whose end lies within the given anchor (inclusive at both ends).
+    *
+    * @param anch the range being evaluated
+    * @return the first such range in end order, or null if there is none
+    */
+   public R findEndWithin(TextRange anch) {
+      int i = lowerBound(ends, ends.length, getStartPosition(anch));
+      if (i < ends.length && ends[i] <= getEndPosition(anch)) {
+         return byEnd.get(i);
+      }
+      return null;
+   }
+
+   /**
+    * Is the given range wholly contained within any of the indexed ranges?
+    *
+    * @param r range to be checked
+    * @return true if some indexed range starts at or before <code>r</code> and ends at or after it
+    */
+   public boolean anyContains(TextRange r) {
+      // Index of the last range which starts at or before r; maxEnds tells us how far any of them reach.
+      int i = upperBound(starts, starts.length, getStartPosition(r)) - 1;
+      return i >= 0 && maxEnds[i] >= getEndPosition(r);
+   }
+
+   public int size() {
+      return ends.length;
+   }
+
+   /**
+    * Encode a page/offset pair as a single sortable value.
+    */
+   public static long getPosition(Page pg, int offset) {
+      return ((long)pg.getIndex() << 32) | (offset & 0xFFFFFFFFL);
+   }
+
+   public static long getStartPosition(TextRange r) {
+      return getPosition(r.getStartPage(), r.getStartOffset());
+   }
+
+   public static long getEndPosition(TextRange r) {
+      return getPosition(r.getEndPage(), r.getEndOffset());
+   }
+
+   /**
+    * Index of the first element of the sorted array which is greater than or equal to <code>key</code>.
+    *
+    * @param vals sorted array
+    * @param len number of elements of <code>vals</code> in use
+    * @param key value being sought
+    * @return insertion point for <code>key</code>, which may be <code>len</code>
+    */
+   public static int lowerBound(long[] vals, int len, long key) {
+      int lo = 0, hi = len;
+      while (lo < hi) {
+         int mid = (lo + hi) >>> 1;
+         if (vals[mid] < key) {
+            lo = mid + 1;
+         } else {
+            hi = mid;
+         }
+      }
+      return lo;
+   }
+
+   /**
+    * Index of the first element of the sorted array which is strictly greater than <code>key</code>.
+    */
+   public static int upperBound(long[] vals, int len, long key) {
+      int lo = 0, hi = len;
+      while (lo < hi) {
+         int mid = (lo + hi) >>> 1;
+         if (vals[mid] <= key) {
+            lo = mid + 1;
+         } else {
+            hi = mid;
+         }
+      }
+      return lo;
+   }
+}
@@ -26,7 +26,11 @@ import javax.xml.stream.XMLStreamException;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import edu.slu.tradamus.annotation.Annotation;
+import edu.slu.tradamus.db.BatchLoader;
 import edu.slu.tradamus.db.Entity;
+import edu.slu.tradamus.db.GroupedRowReader;
+import edu.slu.tradamus.db.RowMapper;
+import edu.slu.tradamus.edition.ModificationTracker;
 import edu.slu.tradamus.image.Canvas;
 import edu.slu.tradamus.user.Permission;
 import edu.slu.tradamus.user.PermissionException;
@@ -212,7 +216,9 @@ public class Transcription extends Entity {
       for (Page p: pages) {
          p.setTranscriptionID(id);
          p.setIndex(i++);
-         p.insert(conn);
+      }
+      if (!pages.isEmpty()) {
+         pages.get(0).insertBatch(conn, pages);
       }
    }
 
@@ -224,19 +230,39 @@ public class Transcription extends Entity {
       if (deep) {
          executeLoad(conn, "SELECT witness, editor FROM transcriptions " +
               "WHERE transcriptions.id = ?", true);
-         pages = loadChildren(conn, SELECT_PAGES, Page.class, true);
+         loadConstituents(conn, Collections.singletonList(this));
       } else {
          executeLoad(conn, "SELECT witness, editor, pages.id, pages.title, text FROM transcriptions " +
               "LEFT JOIN pages ON transcription = transcriptions.id " +
               "WHERE transcriptions.id = ?", false);
+         permissions = loadChildren(conn, SELECT_PERMISSIONS_WITH_USERS, Permission.class, false);
       }
-      permissions = loadChildren(conn, SELECT_PERMISSIONS_WITH_USERS, Permission.class, false);
+   }
+
+   /**
+    * Load the pages, lines, and permissions for a list of already-loaded transcriptions.  Each level is
+    * fetched with a single query, however many transcriptions and pages there are.
+    *
+    * @param conn connection to SQL database
+    * @param transcrs transcriptions whose constituents are to be loaded
+    */
+   public static void loadConstituents(Connection conn, List<Transcription> transcrs) throws SQLException, ReflectiveOperationException {
+      Map<Integer, List<Page>> pages = BatchLoader.loadGrouped(conn, SELECT_PAGES_FOR_TRANSCRIPTIONS, "transcription", transcrs, Page.class);
+      Map<Integer, List<Permission>> perms = BatchLoader.loadGrouped(conn, SELECT_PERMISSIONS_FOR_TRANSCRIPTIONS, "target", transcrs, Permission.class);
+      List<Page> allPages = new ArrayList<>();
+      for (Transcription t: transcrs) {
+         t.pages = BatchLoader.getGroup(pages, t);
+         t.permissions = BatchLoader.getGroup(perms, t);
+         allPages.addAll(t.pages);
+      }
+      Page.loadLines(conn, allPages);
    }
 
    @Override
-   public void loadFields(ResultSet rs, boolean deep) throws SQLException, ReflectiveOperationException {
-      super.loadFields(rs, deep);
+   public void loadGroup(GroupedRowReader rows, boolean deep) throws SQLException, ReflectiveOperationException {
+      super.loadGroup(rows, deep);
       if (!deep) {
+         ResultSet rs = rows.getResultSet();
          pages = new ArrayList<>();
          do {
             int pgID = rs.getInt("pages.id");
@@ -244,7 +270,7 @@ public class Transcription extends Entity {
                Page pg = new Page(this, pgID, pages.size(), rs.getString("pages.title"), rs.getString("text"));
                pages.add(pg);
             }
-         } while (rs.next());
+         } while (rows.next());
       }
    }
 
@@ -309,26 +335,48 @@ public class Transcription extends Entity {
 
    @Override
    public void markTopLevelModified(Connection conn) throws SQLException {
-      try (PreparedStatement stmt = conn.prepareCall("UPDATE editions " +
-              "LEFT JOIN witnesses ON edition = editions.id " +
-              "LEFT JOIN transcriptions ON witness = witnesses.id " +
-              "SET modification = NOW() " +
-              "WHERE transcriptions.id = ?")) {
-         stmt.setInt(1, id);
-         stmt.executeUpdate();
-      }
+      ModificationTracker.getInstance().markModified(conn, this, "SELECT edition FROM witnesses " +
+              "JOIN transcriptions ON witness = witnesses.id " +
+              "WHERE transcriptions.id = ?");
    }
 
    
    /**
     * Since the transcription is inserted before the manifest, any canvasses which
     * are associated with pages won't yet have IDs assigned.  This connects them
-    * together.
+    * together, using one UPDATE for each batch of pages rather than one per page.
     * @param conn connection to our SQL database
     */
    public void assignCanvasIDs(Connection conn) throws SQLException {
+      List<Page> linked = new ArrayList<>();
       for (Page p: pages) {
-         p.updateCanvasID(conn);
+         if (p.getCanvasID() != null) {
+            linked.add(p);
+         }
+      }
+      for (int i = 0; i < linked.size(); i += BatchLoader.BATCH_SIZE) {
+         List<Page> batch = linked.subList(i, Math.min(i + BatchLoader.BATCH_SIZE, linked.size()));
+         StringBuilder buf = new StringBuilder("UPDATE `pages` SET `canvas` = CASE `id`");
+         for (int j = 0; j < batch.size(); j++) {
+            buf.append(" WHEN ? THEN ?");
+         }
+         buf.append(" END WHERE `id` IN (").append(BatchLoader.getPlaceholders(batch.size())).append(')');
+         try (PreparedStatement stmt = conn.prepareStatement(buf.toString())) {
+            int k = 1;
+            for (Page p: batch) {
+               stmt.setInt(k++, p.getID());
+               stmt.setInt(k++, p.getCanvasID());
+            }
+            for (Page p: batch) {
+               stmt.setInt(k++, p.getID());
+            }
+            stmt.executeUpdate();
+         }
+      }
+      if (!linked.isEmpty()) {
+         executeUpdate(conn, "UPDATE `annotations` JOIN `pages` ON `start_page` = `pages`.`id` " +
+                 "SET `annotations`.`canvas` = `pages`.`canvas`, `annotations`.`fingerprint` = NULL " +
+                 "WHERE `transcription` = ? AND `pages`.`canvas` IS NOT NULL", id);
       }
    }
 
@@ -505,10 +553,14 @@ public class Transcription extends Entity {
       try (PreparedStatement stmt = conn.prepareStatement(SELECT_NON_LINE_ANNOTATIONS)) {
          stmt.setInt(1, id);
          ResultSet rs = stmt.executeQuery();
+         int[] columns = null;
          while (rs.next()) {
             // Find the constructor which takes an ID as its only parameter.
             Annotation ann = new Annotation(rs.getInt("annotations.id"));
-            ann.loadFields(rs, false);
+            if (columns == null) {
+               columns = RowMapper.getMapper(ann).bind(rs);
+            }
+            ann.loadFields(rs, columns, false);
             
             // Make sure the annotation points at fully-loaded pages, not just wrapped IDs.
             ann.setStartPage(findPage(ann.getStartPage()));
@@ -531,7 +583,10 @@ public class Transcription extends Entity {
 
    public static final String SELECT_PAGES = "SELECT * FROM pages WHERE transcription = ?";
 
-   public static final String SELECT_PAGES_WITH_LINES = "SELECT pages.id, transcription, `index`, title, text, pages.canvas, annotations.id FROM pages "  +
+   public static final String SELECT_PAGES_FOR_TRANSCRIPTIONS = "SELECT * FROM pages " +
+         "WHERE transcription IN (%s) ORDER BY transcription, `index`";
+
+   public static final String SELECT_PAGES_WITH_LINES = "SELECT pages.id, transcription, `index`, title, text, pages.canvas, pages.fingerprint, annotations.id FROM pages "  +
          "LEFT JOIN `annotations` ON start_page = pages.id " +
          "WHERE transcription = ? AND type = 'line' " +
          "ORDER BY `index`";
@@ -544,6 +599,11 @@ public class Transcription extends Entity {
          "JOIN users ON user = users.id " +
          "WHERE target_type = 'TRANSCRIPTION' AND target = ?";
 
+   public static final String SELECT_PERMISSIONS_FOR_TRANSCRIPTIONS = "SELECT permissions.id AS id, target_type, target, role, " +
+         "user, name, mail FROM permissions " +
+         "JOIN users ON user = users.id " +
+         "WHERE target_type = 'TRANSCRIPTION' AND target IN (%s)";
+
    /**
     * Used during collation to retrieve all annotations associated with this transcription's pages.  This is
     * used to ensure that we don't remove a line-break which is occurring at the end of something like a
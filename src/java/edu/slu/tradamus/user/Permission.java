@@ -186,12 +186,13 @@ public class Permission extends Entity {
     * Override loadFields so that we can pull in the permission and its associated users with a single
     * query.
     * @param rs results of <code>Edition.SELECT_PERMISSIONS_WITH_USERS</code> query
+    * @param columns ignored, since permissions are loaded explicitly
     * @param deep false
     * @throws SQLException
     * @throws ReflectiveOperationException 
     */
    @Override
-   public void loadFields(ResultSet rs, boolean deep) throws SQLException, ReflectiveOperationException {
+   public void loadFields(ResultSet rs, int[] columns, boolean deep) throws SQLException, ReflectiveOperationException {
       role = Role.valueOf(rs.getString("role"));
       setTargetURI(rs.getString("target_type").toLowerCase() + "/" + rs.getInt("target"));
       user = new User(rs.getInt("user"));
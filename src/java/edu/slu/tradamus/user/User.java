@@ -149,7 +149,7 @@ public class User extends Entity {
    }
 
    @Override
-   public void loadFields(ResultSet rs, boolean deep) throws SQLException {
+   public void loadFields(ResultSet rs, int[] columns, boolean deep) throws SQLException {
       mail = rs.getString("mail");
       name = rs.getString("name");
       disabled = rs.getBoolean("disabled");
@@ -259,7 +259,7 @@ public class User extends Entity {
          ResultSet rs = stmt.executeQuery();
          if (rs.next()) {
             User u = new User(rs.getInt("id"));
-            u.loadFields(rs, false);
+            u.loadFields(rs, null, false);
             return u;
          }
       }
@@ -273,7 +273,7 @@ public class User extends Entity {
             ResultSet rs = stmt.executeQuery();
             if (rs.next()) {
                User u = new User(rs.getInt("id"));
-               u.loadFields(rs, false);
+               u.loadFields(rs, null, false);
                return u;
             } else {
                throw new NoSuchEntityException(mail);
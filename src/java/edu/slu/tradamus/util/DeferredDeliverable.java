@@ -6,24 +6,29 @@
 package edu.slu.tradamus.util;
 
 import java.io.IOException;
+import java.net.MalformedURLException;
 import java.net.URL;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.concurrent.CancellationException;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import static edu.slu.tradamus.util.ServletUtils.getDBConnection;
 import static edu.slu.tradamus.util.ServletUtils.getFullURL;
 import static edu.slu.tradamus.util.ServletUtils.getServerURL;
 
 /**
  * Class which represents the deliverable for a long-running process, such as collation or PDF generation.
+ * The process is run by the <code>JobScheduler</code>, which keeps the deliverable's status and progress
+ * up to date in the database.
  *
  * @author tarkvara
  */
-public abstract class DeferredDeliverable implements Runnable {
+public abstract class DeferredDeliverable {
 
    /** Full URL, including parameter string. */
    protected final String fullURL;
@@ -34,32 +39,84 @@ public abstract class DeferredDeliverable implements Runnable {
    /** ID of deliverable for this request. */
    protected int deliverableID;
 
+   /** User who requested the deliverable. */
+   protected final int userID;
+
+   /** Identifies the job type, so that the job can be re-created after a restart. */
+   private final String jobType;
+
+   private final Priority priority;
+
+   /** Set when the user cancels the job while it is running. */
+   private volatile boolean cancelled;
+
+   /** Last progress value written to the database. */
+   private float lastProgress;
+
    /**
     * Construct a <code>DeferredDeliverable</code> for this servlet request
     * @param req servlet request
+    * @param type job type, as registered with the <code>JobScheduler</code>
+    * @param uID user making the request
+    * @param pri scheduling priority
     */
-   public DeferredDeliverable(HttpServletRequest req) {
+   public DeferredDeliverable(HttpServletRequest req, String type, int uID, Priority pri) {
       fullURL = getFullURL(req);
       serverURL = getServerURL(req);
+      jobType = type;
+      userID = uID;
+      priority = pri;
+   }
+
+   /**
+    * Re-create a <code>DeferredDeliverable</code> for a job which was queued before the server restarted.
+    * @param rec job's record from the deliverables table
+    */
+   public DeferredDeliverable(JobRecord rec) {
+      fullURL = rec.url;
+      serverURL = rec.serverURL;
+      deliverableID = rec.id;
+      jobType = rec.jobType;
+      userID = rec.userID;
+      priority = rec.priority;
    }
 
    /**
-    * Fire off the request for the long-running process.  The method returns immediately with a redirect indicating where
-    * the results will be found.
+    * Do the actual work of producing the deliverable.  Implementations should call
+    * <code>setProgress</code> at convenient points, which also gives the job a chance to be cancelled.
+    */
+   protected abstract void execute() throws Exception;
+
+   /**
+    * Get whatever the job needs to be re-created from a <code>JobRecord</code> if the server is
+    * restarted before it runs.
+    * @return request data to be saved with the deliverable, or <code>null</code>
+    */
+   protected abstract byte[] getRequestData() throws IOException;
+
+   /**
+    * Queue up the request for the long-running process.  The method returns immediately with a redirect
+    * indicating where the results will be found.
     * @param conn connection to database
     * @param resp servlet response
     * @param msgID message to indicate that process has been launched
     */
    public void deferredRequest(Connection conn, HttpServletResponse resp, MessageID msgID) throws SQLException, IOException, ServletException {
-      try (PreparedStatement stmt = conn.prepareStatement("INSERT INTO `deliverables` (`url`) VALUES (?)", Statement.RETURN_GENERATED_KEYS)) {
+      try (PreparedStatement stmt = conn.prepareStatement("INSERT INTO `deliverables` (`url`, `user`, `job_type`, `priority`, `status`, `progress`, `server_url`, `request`) " +
+              "VALUES (?, ?, ?, ?, 'QUEUED', 0, ?, ?)", Statement.RETURN_GENERATED_KEYS)) {
          stmt.setString(1, fullURL);
+         stmt.setInt(2, userID);
+         stmt.setString(3, jobType);
+         stmt.setString(4, priority.name());
+         stmt.setString(5, serverURL != null ? serverURL.toString() : null);
+         stmt.setBytes(6, getRequestData());
          stmt.executeUpdate();
          ResultSet rs = stmt.getGeneratedKeys();
          if (rs.next()) {
             deliverableID = rs.getInt(1);
             
-            // Start the request.
-            new Thread(this).start();
+            // Queue the request.
+            JobScheduler.getInstance().submit(this);
 
             // Indicate where the results are going to be found.
             resp.setContentType("text/html; charset=UTF-8");
@@ -69,4 +126,110 @@ public abstract class DeferredDeliverable implements Runnable {
          }
       }
    }
+
+   public int getDeliverableID() {
+      return deliverableID;
+   }
+
+   public int getUserID() {
+      return userID;
+   }
+
+   public Priority getPriority() {
+      return priority;
+   }
+
+   /**
+    * Record how far the job has got.  To avoid flooding the database, small changes aren't written.
+    * @param val fraction of the job which has been completed, from 0 to 1
+    * @throws CancellationException if the job has been cancelled
+    */
+   protected void setProgress(float val) throws SQLException, ServletException {
+      if (cancelled) {
+         throw new CancellationException();
+      }
+      if (val - lastProgress >= MIN_PROGRESS_STEP) {
+         lastProgress = val;
+         try (Connection conn = getDBConnection()) {
+            updateStatus(conn, deliverableID, Status.RUNNING, val, null);
+         }
+      }
+   }
+
+   /**
+    * Ask a running job to stop at its next call to <code>setProgress</code>.
+    */
+   void cancel() {
+      cancelled = true;
+   }
+
+   boolean isCancelled() {
+      return cancelled;
+   }
+
+   /**
+    * Update the status fields of a deliverable.
+    * @param conn connection to database
+    * @param delivID ID of deliverable
+    * @param stat new status
+    * @param progress fraction of job completed, or <code>null</code> to leave unchanged
+    * @param msg error message, or <code>null</code>
+    */
+   static void updateStatus(Connection conn, int delivID, Status stat, Float progress, String msg) throws SQLException {
+      try (PreparedStatement stmt = conn.prepareStatement("UPDATE `deliverables` SET `status` = ?, `progress` = IFNULL(?, `progress`), `message` = ? WHERE `id` = ?")) {
+         stmt.setString(1, stat.name());
+         stmt.setObject(2, progress);
+         stmt.setString(3, msg);
+         stmt.setInt(4, delivID);
+         stmt.executeUpdate();
+      }
+   }
+
+   /**
+    * The parts of a deliverable's row which are needed to re-create its job.
+    */
+   public static class JobRecord {
+      public final int id;
+      public final String url;
+      public final URL serverURL;
+      public final int userID;
+      public final String jobType;
+      public final Priority priority;
+      public final byte[] request;
+
+      JobRecord(ResultSet rs) throws SQLException {
+         id = rs.getInt("id");
+         url = rs.getString("url");
+         userID = rs.getInt("user");
+         jobType = rs.getString("job_type");
+         priority = Priority.valueOf(rs.getString("priority"));
+         request = rs.getBytes("request");
+         URL u = null;
+         try {
+            String s = rs.getString("server_url");
+            if (s != null) {
+               u = new URL(s);
+            }
+         } catch (MalformedURLException ignored) {
+         }
+         serverURL = u;
+      }
+   }
+
+   public enum Status {
+      QUEUED,
+      RUNNING,
+      COMPLETE,
+      FAILED,
+      CANCELLED
+   }
+
+   public enum Priority {
+      LOW,
+      NORMAL,
+      HIGH
+   }
+
+   /** Progress changes smaller than this aren't worth writing to the database. */
+   private static final float MIN_PROGRESS_STEP = 0.05f;
 }
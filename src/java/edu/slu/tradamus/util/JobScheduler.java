@@ -0,0 +1,261 @@
+/*
+ * Copyright 2013-2014 Saint Louis University. Licensed under the
+ *	Educational Community License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package edu.slu.tradamus.util;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.servlet.ServletException;
+import edu.slu.tradamus.util.DeferredDeliverable.JobRecord;
+import edu.slu.tradamus.util.DeferredDeliverable.Priority;
+import edu.slu.tradamus.util.DeferredDeliverable.Status;
+import static edu.slu.tradamus.util.ServletUtils.getDBConnection;
+
+
+/**
+ * Runs deferred deliverables on a fixed number of worker threads.  Queued jobs are taken in order of
+ * priority; within a priority, users take turns, so one user submitting a batch of collations doesn't
+ * hold up everybody else.
+ *
+ * @author tarkvara
+ */
+public class JobScheduler {
+   /** For each priority, the queued jobs of each user.  Users are served in the map's order. */
+   private final Map<Priority, LinkedHashMap<Integer, Deque<DeferredDeliverable>>> queues = new EnumMap<>(Priority.class);
+
+   /** All jobs which are queued or running, by deliverable ID. */
+   private final Map<Integer, DeferredDeliverable> jobs = new HashMap<>();
+
+   /** Factories for re-creating jobs after a restart, by job type. */
+   private final Map<String, JobFactory> factories = new HashMap<>();
+
+   private final List<Thread> workers = new ArrayList<>();
+
+   private JobScheduler(int numWorkers) {
+      for (Priority p: Priority.values()) {
+         queues.put(p, new LinkedHashMap<Integer, Deque<DeferredDeliverable>>());
+      }
+      for (int i = 0; i < numWorkers; i++) {
+         Thread t = new Thread(new Runnable() {
+            @Override
+            public void run() {
+               try {
+                  while (true) {
+                     runJob(take());
+                  }
+               } catch (InterruptedException ex) {
+                  // Scheduler is shutting down.
+               }
+            }
+         }, "deliverable-worker-" + (i + 1));
+         t.setDaemon(true);
+         t.start();
+         workers.add(t);
+      }
+   }
+
+   /**
+    * Get the scheduler shared by the whole application, creating it if necessary.
+    */
+   public static synchronized JobScheduler getInstance() {
+      if (instance == null) {
+         instance = new JobScheduler(MAX_RUNNING_JOBS);
+      }
+      return instance;
+   }
+
+   /**
+    * Stop the worker threads.  Jobs which are still queued stay queued in the database, and will be
+    * recovered when their job type is next registered.
+    */
+   public static synchronized void shutdown() {
+      if (instance != null) {
+         for (Thread t: instance.workers) {
+            t.interrupt();
+         }
+         instance = null;
+      }
+   }
+
+   /**
+    * Add a job to the queue.  The job's deliverable must already have been inserted into the database.
+    * @param job job to be run
+    */
+   public synchronized void submit(DeferredDeliverable job) {
+      Map<Integer, Deque<DeferredDeliverable>> userQueues = queues.get(job.getPriority());
+      Deque<DeferredDeliverable> q = userQueues.get(job.getUserID());
+      if (q == null) {
+         q = new ArrayDeque<>();
+         userQueues.put(job.getUserID(), q);
+      }
+      q.add(job);
+      jobs.put(job.getDeliverableID(), job);
+      notifyAll();
+   }
+
+   /**
+    * Cancel a job.  A queued job is removed from the queue immediately; a running job stops the next time
+    * it reports its progress.
+    * @param delivID ID of deliverable whose job is to be cancelled
+    * @return true if there was a queued or running job to cancel
+    */
+   public boolean cancel(int delivID) throws SQLException, ServletException {
+      boolean dequeued = false;
+      synchronized (this) {
+         DeferredDeliverable job = jobs.get(delivID);
+         if (job != null) {
+            Map<Integer, Deque<DeferredDeliverable>> userQueues = queues.get(job.getPriority());
+            Deque<DeferredDeliverable> q = userQueues.get(job.getUserID());
+            if (q != null && q.remove(job)) {
+               if (q.isEmpty()) {
+                  userQueues.remove(job.getUserID());
+               }
+               jobs.remove(delivID);
+               dequeued = true;
+            } else {
+               job.cancel();
+               return true;
+            }
+         }
+      }
+      // Either we dequeued it, or it's sitting in the database waiting for its job type to be registered.
+      try (Connection conn = getDBConnection();
+           PreparedStatement stmt = conn.prepareStatement("UPDATE `deliverables` SET `status` = 'CANCELLED' WHERE `id` = ? AND `status` = 'QUEUED'")) {
+         stmt.setInt(1, delivID);
+         return stmt.executeUpdate() > 0 || dequeued;
+      }
+   }
+
+   /**
+    * Register the factory for a job type, and requeue any jobs of that type which were queued or running
+    * when the server was last shut down.  Jobs which were running are started again from scratch.
+    * @param type job type, as stored in the deliverables table
+    * @param fact factory for re-creating jobs of this type
+    */
+   public void registerJobType(String type, JobFactory fact) {
+      synchronized (this) {
+         factories.put(type, fact);
+      }
+      try (Connection conn = getDBConnection();
+           PreparedStatement stmt = conn.prepareStatement("SELECT * FROM `deliverables` WHERE `job_type` = ? AND `status` IN ('QUEUED', 'RUNNING') ORDER BY `id`")) {
+         stmt.setString(1, type);
+         ResultSet rs = stmt.executeQuery();
+         int recovered = 0;
+         while (rs.next()) {
+            JobRecord rec = new JobRecord(rs);
+            synchronized (this) {
+               if (jobs.containsKey(rec.id)) {
+                  continue;
+               }
+            }
+            try {
+               DeferredDeliverable job = fact.recreate(rec);
+               DeferredDeliverable.updateStatus(conn, rec.id, Status.QUEUED, 0.0f, null);
+               submit(job);
+               recovered++;
+            } catch (IOException | RuntimeException ex) {
+               LOG.log(Level.WARNING, "Unable to recover deliverable " + rec.id, ex);
+               DeferredDeliverable.updateStatus(conn, rec.id, Status.FAILED, null, LangUtils.getMessage(ex));
+            }
+         }
+         if (recovered > 0) {
+            LOG.log(Level.INFO, "Recovered {0} {1} jobs.", new Object[] { recovered, type });
+         }
+      } catch (SQLException | ServletException ex) {
+         LOG.log(Level.SEVERE, "Unable to recover " + type + " jobs", ex);
+      }
+   }
+
+   /**
+    * Wait for the next job to run: the first user's first job at the highest priority level which has
+    * anything queued.  That user then goes to the back of the line.
+    */
+   private synchronized DeferredDeliverable take() throws InterruptedException {
+      while (true) {
+         for (int i = PRIORITIES.length - 1; i >= 0; i--) {
+            Iterator<Map.Entry<Integer, Deque<DeferredDeliverable>>> iter = queues.get(PRIORITIES[i]).entrySet().iterator();
+            if (iter.hasNext()) {
+               Map.Entry<Integer, Deque<DeferredDeliverable>> e = iter.next();
+               Deque<DeferredDeliverable> q = e.getValue();
+               DeferredDeliverable result = q.poll();
+               iter.remove();
+               if (!q.isEmpty()) {
+                  queues.get(PRIORITIES[i]).put(e.getKey(), q);
+               }
+               return result;
+            }
+         }
+         wait();
+      }
+   }
+
+   /**
+    * Run a job, keeping its status up to date in the database.  Nothing the job throws (not even an
+    * <code>Error</code> such as <code>OutOfMemoryError</code>) is allowed to escape, since that would kill
+    * the worker and leave the deliverable marked as running.
+    */
+   private void runJob(DeferredDeliverable job) {
+      int delivID = job.getDeliverableID();
+      Status result = Status.FAILED;
+      String msg = null;
+      try {
+         try (Connection conn = getDBConnection()) {
+            DeferredDeliverable.updateStatus(conn, delivID, Status.RUNNING, 0.0f, null);
+         }
+         job.execute();
+         result = Status.COMPLETE;
+      } catch (CancellationException ex) {
+         result = Status.CANCELLED;
+      } catch (Throwable ex) {
+         LOG.log(Level.SEVERE, "Error producing deliverable " + delivID, ex);
+         result = job.isCancelled() ? Status.CANCELLED : Status.FAILED;
+         msg = LangUtils.getMessage(ex);
+      } finally {
+         synchronized (this) {
+            jobs.remove(delivID);
+         }
+         try (Connection conn = getDBConnection()) {
+            DeferredDeliverable.updateStatus(conn, delivID, result, result == Status.COMPLETE ? 1.0f : null, msg);
+         } catch (SQLException | ServletException | RuntimeException ex) {
+            LOG.log(Level.SEVERE, "Unable to update status of deliverable " + delivID, ex);
+         }
+      }
+   }
+
+   /**
+    * Re-creates jobs from their database records after a restart.
+    */
+   public interface JobFactory {
+      DeferredDeliverable recreate(JobRecord rec) throws IOException;
+   }
+
+   private static JobScheduler instance;
+
+   private static final Priority[] PRIORITIES = Priority.values();
+
+   /**
+    * Maximum number of deliverables being produced at once.  Each running job holds a database connection
+    * and potentially a large collation graph.
+    */
+   private static final int MAX_RUNNING_JOBS = Math.max(2, Runtime.getRuntime().availableProcessors() / 2);
+
+   private static final Logger LOG = Logger.getLogger(JobScheduler.class.getName());
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright 2013-2014 Saint Louis University. Licensed under the
+ *	Educational Community License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS"
+ * BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package edu.slu.tradamus.util;
+
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+import edu.slu.tradamus.edition.ModificationTracker;
+
+
+/**
+ * Stops the job scheduler's worker threads when the application is shut down.  Also writes out any edition
+ * modification times which are still pending.
+ *
+ * @author tarkvara
+ */
+public class JobSchedulerListener implements ServletContextListener {
+
+   @Override
+   public void contextInitialized(ServletContextEvent evt) {
+   }
+
+   @Override
+   public void contextDestroyed(ServletContextEvent evt) {
+      JobScheduler.shutdown();
+      ModificationTracker.shutdown();
+   }
+}
@@ -32,9 +32,13 @@ import javax.xml.stream.XMLStreamException;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import edu.slu.tradamus.annotation.Annotation;
+import edu.slu.tradamus.db.BatchLoader;
 import edu.slu.tradamus.db.Entity;
 import edu.slu.tradamus.db.PermissionFilter;
+import edu.slu.tradamus.db.RowMapper;
 import edu.slu.tradamus.edition.Edition;
+import edu.slu.tradamus.edition.ModificationTracker;
+import edu.slu.tradamus.image.Canvas;
 import edu.slu.tradamus.image.Manifest;
 import edu.slu.tradamus.log.Activity;
 import edu.slu.tradamus.log.Operation;
@@ -129,63 +133,63 @@ public class Witness extends Entity {
     */
    @Override
    public boolean delete(Connection conn) throws SQLException {
-      int deletions = 0;
+      int deletions = deleteDependents(conn, "id", id);
 
-      // Fetch our page IDs and delete any intersecting annotations.
-      List<Integer> pgIDs = new ArrayList<>();
-      try (PreparedStatement stmt = conn.prepareStatement("SELECT pages.id FROM pages " +
-              "JOIN transcriptions ON transcription = transcriptions.id " +
-              "WHERE witness = ?")) {
-         stmt.setInt(1, id);
-         ResultSet rs = stmt.executeQuery();
-         while (rs.next()) {
-            pgIDs.add(rs.getInt(1));
-         }
-      }
+      // Delete the witness, manifest, transcription, pages, and canvasses.
+      return super.delete(conn) | deletions > 0;
+   }
 
-      if (pgIDs.size() > 0) {
-         try (PreparedStatement stmt = conn.prepareStatement(Page.DELETE_ANNOTATIONS_ON_PAGE)) {
-            for (int pgID: pgIDs) {
-               stmt.setInt(1, pgID);
-               deletions += stmt.executeUpdate();
-            }
+   /**
+    * Delete the annotations and permissions which hang off a set of witnesses but aren't removed by
+    * foreign-key cascading.  Each kind of dependent is removed by a single DELETE which joins back to the
+    * witnesses table, rather than one DELETE per page.
+    *
+    * @param conn connection to SQL database
+    * @param witColumn column of <code>witnesses</code> which selects the witnesses (i.e. "id" or "edition")
+    * @param val value of <code>witColumn</code>
+    * @return number of rows deleted
+    */
+   public static int deleteDependents(Connection conn, String witColumn, int val) throws SQLException {
+      int deletions = 0;
+      String[] stmtTexts = new String[] {
+         // Text-anchored annotations, whichever end of them falls within the witness.
+         "DELETE annotations FROM annotations " +
+                 "JOIN pages ON start_page = pages.id " +
+                 "JOIN transcriptions ON transcription = transcriptions.id " +
+                 "JOIN witnesses ON witness = witnesses.id " +
+                 "WHERE witnesses.%s = ?",
+         "DELETE annotations FROM annotations " +
+                 "JOIN pages ON end_page = pages.id " +
+                 "JOIN transcriptions ON transcription = transcriptions.id " +
+                 "JOIN witnesses ON witness = witnesses.id " +
+                 "WHERE witnesses.%s = ?",
+         // Canvas-anchored annotations.
+         "DELETE annotations FROM annotations " +
+                 "JOIN canvasses ON canvas = canvasses.id " +
+                 "JOIN manifests ON manifest = manifests.id " +
+                 "JOIN witnesses ON witness = witnesses.id " +
+                 "WHERE witnesses.%s = ?",
+         // Witness metadata.
+         "DELETE annotations FROM annotations " +
+                 "JOIN witnesses ON target = witnesses.id " +
+                 "WHERE target_type = 'WITNESS' AND witnesses.%s = ?",
+         // Permissions associated with the witness' manifest and transcription.
+         "DELETE permissions FROM permissions " +
+                 "JOIN manifests ON target = manifests.id " +
+                 "JOIN witnesses ON witness = witnesses.id " +
+                 "WHERE target_type = 'MANIFEST' AND witnesses.%s = ?",
+         "DELETE permissions FROM permissions " +
+                 "JOIN transcriptions ON target = transcriptions.id " +
+                 "JOIN witnesses ON witness = witnesses.id " +
+                 "WHERE target_type = 'TRANSCRIPTION' AND witnesses.%s = ?"
+      };
+      for (String stmtText: stmtTexts) {
+         try (PreparedStatement stmt = conn.prepareStatement(String.format(stmtText, witColumn))) {
+            stmt.setInt(1, val);
+            deletions += stmt.executeUpdate();
          }
       }
-
-      // Delete any canvas-anchored annotations.
-      try (PreparedStatement stmt = conn.prepareStatement("DELETE annotations FROM annotations " +
-              "JOIN canvasses ON canvas = canvasses.id " +
-              "JOIN manifests ON manifest = manifests.id " +
-              "JOIN witnesses ON witness = witnesses.id " +
-              "WHERE witnesses.id = ?")) {
-         stmt.setInt(1, id);
-         deletions += stmt.executeUpdate();
-      }
-
-      try (PreparedStatement stmt = conn.prepareStatement("DELETE FROM annotations " +
-              "WHERE `target_type` = 'WITNESS' AND `target` = ?")) {
-         stmt.setInt(1, id);
-         deletions += stmt.executeUpdate();
-      }
-
-      // Delete permissions associated with the witness' manifest.
-      try (PreparedStatement stmt = conn.prepareStatement("DELETE permissions FROM permissions " +
-              "LEFT JOIN manifests ON target = manifests.id " +
-              "WHERE target_type = 'MANIFEST' AND witness = ?")) {
-         stmt.setInt(1, id);
-         deletions += stmt.executeUpdate();
-      }
-   
-      // Delete permissions associated with the witness' transcription.
-      try (PreparedStatement stmt = conn.prepareStatement("DELETE permissions FROM permissions " +
-              "LEFT JOIN transcriptions ON target = transcriptions.id " +
-              "WHERE target_type = 'TRANSCRIPTION' AND witness = ?")) {
-         stmt.setInt(1, id);
-         deletions += stmt.executeUpdate();
-      }
-   
-      // Delete the witness, manifest, transcription, pages, and canvasses.
-      return super.delete(conn) | deletions > 0;
+      return deletions;
    }
 
 
@@ -194,6 +198,7 @@ public class Witness extends Entity {
     */
    @Override
    public void insert(Connection conn) throws IOException, SQLException {
+      long startTime = System.currentTimeMillis();
       executeInsert(conn, "INSERT INTO witnesses (" +
             "edition, title, author, siglum, tpen" +
             ") VALUES(?, ?, ?, ?, ?)",
@@ -202,18 +207,24 @@ public class Witness extends Entity {
       // Because canvasses and pages may refer to each other, the ordering here is important.
       // Pages are stored first, with their canvas field left as null.  Inserting the
       // manifest generates all the canvas IDs which are then updated in the pages table.
+      // Each table's rows are written with multi-row INSERTs.
       transcription.setWitnessID(id);
       transcription.insert(conn);
       manifest.setWitnessID(id);
       manifest.insert(conn);
       transcription.assignCanvasIDs(conn);
-      for (Annotation a: importedAnnotations) {
-         a.insert(conn);
-      }
+      insertAll(conn, importedAnnotations);
       if (tpen != null) {
          // Make sure our T-PEN update timestamp is *after* any of the annotations.
          executeUpdate(conn, UPDATE_TPEN_TIMESTAMP, id);
       }
+
+      int rows = 3 + transcription.getPages().size() + manifest.getCanvasses().size() + importedAnnotations.size();
+      for (Canvas canv: manifest.getCanvasses()) {
+         rows += canv.getImages().size();
+      }
+      long elapsed = Math.max(System.currentTimeMillis() - startTime, 1L);
+      LOG.log(Level.INFO, "Inserted {0} rows for witness {1} in {2} ms ({3} rows/s).", new Object[] { rows, id, elapsed, rows * 1000L / elapsed });
    }
 
    /**
@@ -259,22 +270,54 @@ public class Witness extends Entity {
    public void load(Connection conn, boolean deep) throws SQLException, ReflectiveOperationException {
       if (deep) {
          executeLoad(conn, SELECT_FOR_DEEP_LOAD, false);
-         transcription = loadChildren(conn, "SELECT * FROM transcriptions WHERE witness = ? LIMIT 1", Transcription.class, true).get(0);
-         manifest = loadChildren(conn, "SELECT * FROM manifests WHERE witness = ? LIMIT 1", Manifest.class, true).get(0);
+         loadConstituents(conn, Collections.singletonList(this));
       } else {
          executeLoad(conn, SELECT_FOR_SHALLOW_LOAD, false);
+         metadata = loadChildren(conn, SELECT_METADATA, Annotation.class, false);
+      }
+   }
+
+   /**
+    * Load the transcriptions, manifests, and metadata for a list of already-loaded witnesses.  The whole
+    * tree below the witnesses is fetched with one query per level, so the number of queries doesn't
+    * depend on the number of witnesses, pages, or canvasses.
+    *
+    * @param conn connection to SQL database
+    * @param wits witnesses whose constituents are to be loaded
+    */
+   public static void loadConstituents(Connection conn, List<Witness> wits) throws SQLException, ReflectiveOperationException {
+      Map<Integer, List<Transcription>> transcrs = BatchLoader.loadGrouped(conn, SELECT_TRANSCRIPTIONS_FOR_WITNESSES, "witness", wits, Transcription.class);
+      Map<Integer, List<Manifest>> mans = BatchLoader.loadGrouped(conn, SELECT_MANIFESTS_FOR_WITNESSES, "witness", wits, Manifest.class);
+      Map<Integer, List<Annotation>> metas = BatchLoader.loadGrouped(conn, SELECT_METADATA_FOR_WITNESSES, "target", wits, Annotation.class);
+      List<Transcription> allTranscrs = new ArrayList<>();
+      List<Manifest> allMans = new ArrayList<>();
+      for (Witness w: wits) {
+         // Each witness has exactly one transcription and one manifest.
+         List<Transcription> ts = BatchLoader.getGroup(transcrs, w);
+         if (!ts.isEmpty()) {
+            w.transcription = ts.get(0);
+            allTranscrs.add(w.transcription);
+         }
+         List<Manifest> ms = BatchLoader.getGroup(mans, w);
+         if (!ms.isEmpty()) {
+            w.manifest = ms.get(0);
+            allMans.add(w.manifest);
+         }
+         w.metadata = BatchLoader.getGroup(metas, w);
       }
-      metadata = loadChildren(conn, SELECT_METADATA, Annotation.class, deep);
+      Transcription.loadConstituents(conn, allTranscrs);
+      Manifest.loadConstituents(conn, allMans);
    }
    
    /**
     * Override <code>loadFields</code> to set the TPEN update field.
     * @param rs result set positioned to the row for this annotation
+    * @param columns indices of mapped columns, as for <code>Entity.loadFields</code>
     * @param deep if true, children will be fully loaded
     */
    @Override
-   public void loadFields(ResultSet rs, boolean deep) throws SQLException, ReflectiveOperationException {
-      super.loadFields(rs, deep);
+   public void loadFields(ResultSet rs, int[] columns, boolean deep) throws SQLException, ReflectiveOperationException {
+      super.loadFields(rs, columns, deep);
       tpenUpdate = rs.getTimestamp("tpen_update");
    }
 
@@ -401,13 +444,7 @@ public class Witness extends Entity {
 
    @Override
    public void markTopLevelModified(Connection conn) throws SQLException {
-      try (PreparedStatement stmt = conn.prepareCall("UPDATE editions " +
-              "LEFT JOIN witnesses ON edition = editions.id " +
-              "SET modification = NOW() " +
-              "WHERE witnesses.id = ?")) {
-         stmt.setInt(1, id);
-         stmt.executeUpdate();
-      }
+      ModificationTracker.getInstance().markModified(conn, this, "SELECT edition FROM witnesses WHERE id = ?");
    }
 
    @JsonIgnore
@@ -463,10 +500,14 @@ public class Witness extends Entity {
       try (PreparedStatement stmt = conn.prepareStatement(SELECT_FOR_TPEN_UPDATE)) {
          stmt.setInt(1, uID);
          ResultSet rs = stmt.executeQuery();
+         int[] columns = null;
          while (rs.next()) {
             int witID = rs.getInt("witnesses.id");
             Witness wit = new Witness(witID);
-            wit.loadFields(rs, false);
+            if (columns == null) {
+               columns = RowMapper.getMapper(wit).bind(rs);
+            }
+            wit.loadFields(rs, columns, false);
             wit.synchWithTpen(conn, uID);
          }
       }
@@ -544,6 +585,9 @@ public class Witness extends Entity {
    public static final String SELECT_FOR_DEEP_LOAD = "SELECT witnesses.*, -1 AS transcription, -1 AS manifest FROM witnesses " +
          "WHERE witnesses.id = ?";
 
+   public static final String SELECT_FOR_BATCH_LOAD = "SELECT witnesses.*, -1 AS transcription, -1 AS manifest FROM witnesses " +
+         "WHERE edition IN (%s) ORDER BY witnesses.id";
+
    public static final String SELECT_FOR_SHALLOW_LOAD = "SELECT witnesses.*, transcriptions.id AS transcription, manifests.id AS manifest FROM witnesses " +
          "LEFT JOIN transcriptions ON transcriptions.witness = witnesses.id " +
          "LEFT JOIN manifests ON manifests.witness = witnesses.id " +
@@ -557,6 +601,15 @@ public class Witness extends Entity {
 
    public static final String SELECT_METADATA = "SELECT * FROM annotations " +
          "WHERE target_type = 'WITNESS' AND target = ? AND start_page IS NULL AND end_page IS NULL AND canvas IS NULL";
+
+   public static final String SELECT_METADATA_FOR_WITNESSES = "SELECT * FROM annotations " +
+         "WHERE target_type = 'WITNESS' AND target IN (%s) AND start_page IS NULL AND end_page IS NULL AND canvas IS NULL";
+
+   public static final String SELECT_TRANSCRIPTIONS_FOR_WITNESSES = "SELECT * FROM transcriptions " +
+         "WHERE witness IN (%s) ORDER BY witness, transcriptions.id";
+
+   public static final String SELECT_MANIFESTS_FOR_WITNESSES = "SELECT * FROM manifests " +
+         "WHERE witness IN (%s) ORDER BY witness, manifests.id";
    
    public static final String UPDATE_TPEN_TIMESTAMP = "UPDATE witnesses SET tpen_update = NOW() WHERE id = ?";
 }
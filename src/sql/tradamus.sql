@@ -140,8 +140,13 @@ CREATE TABLE `annotations` (
    `tags` varchar(500) DEFAULT NULL,  # Tags which can be used for aggregating annotations
    `modified_by` int,     # ID of user who last modified this annotation
    `approved_by` int,     # ID of user who approved this annotation
+   `fingerprint` bigint DEFAULT NULL,  # Hash of content fields, used to skip no-op merges
    `modification` timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP,
-   PRIMARY KEY (`id`)
+   PRIMARY KEY (`id`),
+   KEY `annotation_start_page` (`start_page`),
+   KEY `annotation_end_page` (`end_page`),
+   KEY `annotation_canvas` (`canvas`),
+   KEY `annotation_target` (`target_type`, `target`)
 ) ENGINE=InnoDB;
 
 #
@@ -164,6 +169,7 @@ CREATE TABLE `pages` (
    `canvas` int,                   # Canvas (if any) which corresponds to this page.
    `title` varchar(255),           # Human-friendly title for the page.
    `text` mediumtext DEFAULT NULL,
+   `fingerprint` bigint DEFAULT NULL,  # Hash of title and text, used to skip no-op merges.
    PRIMARY KEY (`id`),
    KEY `page_transcription` (`transcription`),
    KEY `page_canvas` (`canvas`),
@@ -289,19 +295,67 @@ CREATE TABLE `misspellings` (
   PRIMARY KEY (`id`)
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8;
 
+#
+# Headwords returned by the morphology service, so that we only have to look up new forms.  Setting
+# 'lexicon' in the config table to the path of a local lexicon file bypasses the service altogether.
+#
+CREATE TABLE `lemmas` (
+  `source` varchar(32) NOT NULL,                  # Lemmatiser which provided the headwords.
+  `form` varchar(200) COLLATE utf8_bin NOT NULL,
+  `headwords` text NOT NULL,                      # Tab-separated; empty if form couldn't be analysed.
+  `created` timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP,
+  PRIMARY KEY (`source`,`form`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
+
+#
+# Tokenised pages, so that collations only have to re-tokenise pages which have changed.  The fingerprint
+# covers the page text and the annotations which touch the page; options are the tokenising options.
+#
+CREATE TABLE `page_tokens` (
+  `page` int NOT NULL,
+  `options` varchar(255) NOT NULL,
+  `fingerprint` char(32) NOT NULL,
+  `tokens` mediumblob NOT NULL,                   # Binary token stream, see PageTokenCache.
+  PRIMARY KEY (`page`,`options`),
+  CONSTRAINT `page_tokens_page` FOREIGN KEY (`page`) REFERENCES `pages` (`id`) ON DELETE CASCADE
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
+
 #
 # For storing responses generated by long-running tasks.
 #
 CREATE TABLE `deliverables` (
   `id` int(11) NOT NULL AUTO_INCREMENT,
   `url` text NOT NULL,
+  `user` int(11) DEFAULT NULL,            # User who requested the deliverable.
+  `job_type` varchar(32) DEFAULT NULL,    # Kind of job which produces the deliverable (e.g. COLLATION).
+  `priority` enum('LOW','NORMAL','HIGH') NOT NULL DEFAULT 'NORMAL',
+  `status` enum('QUEUED','RUNNING','COMPLETE','FAILED','CANCELLED') NOT NULL DEFAULT 'QUEUED',
+  `progress` float DEFAULT NULL,          # Fraction of job completed, from 0 to 1.
+  `message` text,                         # Error message if the job failed.
+  `server_url` varchar(255) DEFAULT NULL,
+  `request` longblob,                     # Whatever the job needs to be restarted after a server restart.
+  `result_key` char(40) DEFAULT NULL,     # Hash of the inputs, for deliverables which can be shared.
+  `source` int(11) DEFAULT NULL,          # Deliverable whose body is shared, instead of storing our own.
   `content_type` varchar(255) DEFAULT NULL,
   `body` longblob,
   `created` timestamp NULL DEFAULT CURRENT_TIMESTAMP,
   `accessed` timestamp NULL DEFAULT NULL,
-  PRIMARY KEY (`id`)
+  PRIMARY KEY (`id`),
+  KEY `deliverable_status` (`status`),
+  KEY `deliverable_result_key` (`result_key`)
 ) ENGINE=InnoDB;
 
+#
+# Next unused ID for tables whose keys are handed out in blocks by IdAllocator.
+#
+CREATE TABLE `id_sequences` (
+  `sequence` varchar(32) NOT NULL,        # Usually the name of the table.
+  `next_id` int NOT NULL,
+  PRIMARY KEY (`sequence`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
+
+INSERT INTO `id_sequences` (`sequence`, `next_id`) VALUES ('annotations', 1), ('canvasses', 1), ('pages', 1), ('parallels', 1);
+
 #
 # Hook up any tables which point to each other.
 #
@@ -141,3 +141,103 @@ ALTER TABLE `deliverables` ADD `created` TIMESTAMP NOT NULL DEFAULT CURRENT_TIME
 ALTER TABLE `deliverables` ADD `accessed` TIMESTAMP NULL AFTER `created`;
 
 UPDATE `config` SET `value` = 14 WHERE `setting` = 'dbVersion';
+
+
+#
+# 15 - deliverables are produced by a job scheduler which tracks their status (2026-10-18)
+#
+ALTER TABLE `deliverables` ADD `user` INT(11) NULL DEFAULT NULL AFTER `url`;
+ALTER TABLE `deliverables` ADD `job_type` VARCHAR(32) NULL DEFAULT NULL AFTER `user`;
+ALTER TABLE `deliverables` ADD `priority` ENUM('LOW','NORMAL','HIGH') NOT NULL DEFAULT 'NORMAL' AFTER `job_type`;
+ALTER TABLE `deliverables` ADD `status` ENUM('QUEUED','RUNNING','COMPLETE','FAILED','CANCELLED') NOT NULL DEFAULT 'QUEUED' AFTER `priority`;
+ALTER TABLE `deliverables` ADD `progress` FLOAT NULL DEFAULT NULL AFTER `status`;
+ALTER TABLE `deliverables` ADD `message` TEXT NULL AFTER `progress`;
+ALTER TABLE `deliverables` ADD `server_url` VARCHAR(255) NULL DEFAULT NULL AFTER `message`;
+ALTER TABLE `deliverables` ADD `request` LONGBLOB NULL AFTER `server_url`;
+ALTER TABLE `deliverables` ADD KEY `deliverable_status` (`status`);
+UPDATE `deliverables` SET `status` = 'COMPLETE', `progress` = 1;
+
+UPDATE `config` SET `value` = 15 WHERE `setting` = 'dbVersion';
+
+
+#
+# 16 - cache for morphological lookups (2026-10-18)
+#
+CREATE TABLE `lemmas` (
+  `source` varchar(32) NOT NULL,
+  `form` varchar(200) COLLATE utf8_bin NOT NULL,
+  `headwords` text NOT NULL,
+  `created` timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP,
+  PRIMARY KEY (`source`,`form`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
+
+UPDATE `config` SET `value` = 16 WHERE `setting` = 'dbVersion';
+
+
+#
+# 17 - cache of tokenised pages for collation (2026-10-18)
+#
+CREATE TABLE `page_tokens` (
+  `page` int NOT NULL,
+  `options` varchar(255) NOT NULL,
+  `fingerprint` char(32) NOT NULL,
+  `tokens` mediumblob NOT NULL,
+  PRIMARY KEY (`page`,`options`),
+  CONSTRAINT `page_tokens_page` FOREIGN KEY (`page`) REFERENCES `pages` (`id`) ON DELETE CASCADE
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
+ALTER TABLE `annotations` ADD KEY `annotation_start_page` (`start_page`);
+
+UPDATE `config` SET `value` = 17 WHERE `setting` = 'dbVersion';
+
+
+#
+# 18 - indices for batched loading of canvas lines and annotation targets (2026-10-18)
+#
+ALTER TABLE `annotations` ADD KEY `annotation_canvas` (`canvas`);
+ALTER TABLE `annotations` ADD KEY `annotation_target` (`target_type`, `target`);
+
+UPDATE `config` SET `value` = 18 WHERE `setting` = 'dbVersion';
+
+
+#
+# 19 - content fingerprints for annotations and pages (2026-10-18)
+#
+ALTER TABLE `annotations` ADD COLUMN `fingerprint` bigint DEFAULT NULL AFTER `approved_by`;
+ALTER TABLE `pages` ADD COLUMN `fingerprint` bigint DEFAULT NULL AFTER `text`;
+
+UPDATE `config` SET `value` = 19 WHERE `setting` = 'dbVersion';
+
+
+#
+# 20 - block allocation of IDs for annotations, canvasses, pages, and parallels (2026-10-18)
+#
+CREATE TABLE `id_sequences` (
+  `sequence` varchar(32) NOT NULL,
+  `next_id` int NOT NULL,
+  PRIMARY KEY (`sequence`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
+
+INSERT INTO `id_sequences` (`sequence`, `next_id`) SELECT 'annotations', IFNULL(MAX(`id`), 0) + 1 FROM `annotations`;
+INSERT INTO `id_sequences` (`sequence`, `next_id`) SELECT 'canvasses', IFNULL(MAX(`id`), 0) + 1 FROM `canvasses`;
+INSERT INTO `id_sequences` (`sequence`, `next_id`) SELECT 'pages', IFNULL(MAX(`id`), 0) + 1 FROM `pages`;
+INSERT INTO `id_sequences` (`sequence`, `next_id`) SELECT 'parallels', IFNULL(MAX(`id`), 0) + 1 FROM `parallels`;
+
+UPDATE `config` SET `value` = 20 WHERE `setting` = 'dbVersion';
+
+
+#
+# 21 - index for deleting annotations by end page (2026-10-18)
+#
+ALTER TABLE `annotations` ADD KEY `annotation_end_page` (`end_page`);
+
+UPDATE `config` SET `value` = 21 WHERE `setting` = 'dbVersion';
+
+
+#
+# 22 - let deferred collations with identical inputs share one stored result (2026-10-18)
+#
+ALTER TABLE `deliverables` ADD COLUMN `result_key` char(40) DEFAULT NULL AFTER `request`;
+ALTER TABLE `deliverables` ADD COLUMN `source` int(11) DEFAULT NULL AFTER `result_key`;
+ALTER TABLE `deliverables` ADD KEY `deliverable_result_key` (`result_key`);
+
+UPDATE `config` SET `value` = 22 WHERE `setting` = 'dbVersion';